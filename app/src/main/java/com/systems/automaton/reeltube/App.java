@@ -26,6 +26,7 @@ import org.schabi.newpipe.extractor.services.youtube.YoutubeParsingHelper;
 
 import com.systems.automaton.reeltube.ktx.ExceptionUtils;
 import com.systems.automaton.reeltube.settings.NewPipeSettings;
+import com.systems.automaton.reeltube.util.InfoDiskCache;
 import com.systems.automaton.reeltube.util.Localization;
 import com.systems.automaton.reeltube.util.PicassoHelper;
 import com.systems.automaton.reeltube.util.ServiceHelper;
@@ -100,6 +101,7 @@ public class App extends MultiDexApplication {
         Localization.initPrettyTime(Localization.resolvePrettyTime(getApplicationContext()));
 
         StateSaver.init(this);
+        InfoDiskCache.init(this);
         initNotificationChannels();
 
         ServiceHelper.initServices(this);
@@ -83,6 +83,13 @@ public final class DownloaderImpl extends Downloader {
         return instance;
     }
 
+    /**
+     * @return the HTTP client, shared with the download engine to reuse its connection pool
+     */
+    public OkHttpClient getClient() {
+        return client;
+    }
+
     /**
      * Enable TLS 1.2 and 1.1 on Android Kitkat. This function is mostly taken
      * from the documentation of OkHttpClient.Builder.sslSocketFactory(_,_).
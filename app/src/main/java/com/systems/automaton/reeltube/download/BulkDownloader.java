@@ -0,0 +1,341 @@
+package com.systems.automaton.reeltube.download;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.preference.PreferenceManager;
+
+import com.systems.automaton.reeltube.R;
+import com.systems.automaton.reeltube.error.ErrorInfo;
+import com.systems.automaton.reeltube.error.ErrorUtil;
+import com.systems.automaton.reeltube.error.UserAction;
+import com.systems.automaton.reeltube.settings.NewPipeSettings;
+import com.systems.automaton.reeltube.streams.io.StoredDirectoryHelper;
+import com.systems.automaton.reeltube.streams.io.StoredFileHelper;
+import com.systems.automaton.reeltube.util.ExtractorHelper;
+import com.systems.automaton.reeltube.util.FilenameUtils;
+import com.systems.automaton.reeltube.util.ListHelper;
+import com.systems.automaton.reeltube.util.SecondaryStreamHelper;
+import com.systems.automaton.reeltube.util.StreamTypeUtil;
+
+import org.schabi.newpipe.extractor.ListExtractor.InfoItemsPage;
+import org.schabi.newpipe.extractor.ListInfo;
+import org.schabi.newpipe.extractor.MediaFormat;
+import org.schabi.newpipe.extractor.Page;
+import org.schabi.newpipe.extractor.stream.AudioStream;
+import org.schabi.newpipe.extractor.stream.Stream;
+import org.schabi.newpipe.extractor.stream.StreamInfo;
+import org.schabi.newpipe.extractor.stream.StreamInfoItem;
+import org.schabi.newpipe.extractor.stream.VideoStream;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.functions.Function;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import us.shandian.giga.get.DownloadMission;
+import us.shandian.giga.get.MissionRecoveryInfo;
+import us.shandian.giga.postprocessing.Postprocessing;
+import us.shandian.giga.service.DownloadManagerService;
+import us.shandian.giga.service.DownloadManagerService.DownloadManagerBinder;
+
+import static com.systems.automaton.reeltube.util.ListHelper.getStreamsOfSpecifiedDelivery;
+import static org.schabi.newpipe.extractor.stream.DeliveryMethod.PROGRESSIVE_HTTP;
+
+/**
+ * Downloads every stream of a playlist or a channel, picking the formats like the
+ * {@link DownloadDialog} does by default.
+ * <p>
+ * Pages are loaded one after the other while a few {@link StreamInfo}s are resolved at the
+ * same time. The missions are handed to the download service in batches and queued with a low
+ * priority, so the downloads started by the user are not delayed. The length of the files is
+ * not requested beforehand, each mission learns it when it starts.
+ */
+public final class BulkDownloader {
+    private static final String TAG = BulkDownloader.class.getSimpleName();
+
+    /**
+     * How many {@link StreamInfo}s are fetched at the same time.
+     */
+    private static final int RESOLVE_CONCURRENCY = 4;
+    /**
+     * The most missions handed to the download service at once.
+     */
+    private static final int BATCH_SIZE = 10;
+    /**
+     * How long the resolved missions wait for a batch to fill up.
+     */
+    private static final long BATCH_TIMESPAN_SECONDS = 3;
+
+    private BulkDownloader() {
+    }
+
+    /**
+     * Downloads every stream of a playlist.
+     *
+     * @param context   the context, only its application context is kept
+     * @param info      the first page of the playlist
+     * @param audioOnly whether to download just the audio of the streams
+     * @return the disposable of the whole download, the missions already queued keep going
+     */
+    public static Disposable downloadPlaylist(@NonNull final Context context,
+                                              @NonNull final ListInfo<StreamInfoItem> info,
+                                              final boolean audioOnly) {
+        return download(context, info, audioOnly, page -> ExtractorHelper
+                .getMorePlaylistItems(info.getServiceId(), info.getUrl(), page));
+    }
+
+    /**
+     * Downloads every stream of a channel.
+     *
+     * @param context   the context, only its application context is kept
+     * @param info      the first page of the channel
+     * @param audioOnly whether to download just the audio of the streams
+     * @return the disposable of the whole download, the missions already queued keep going
+     */
+    public static Disposable downloadChannel(@NonNull final Context context,
+                                             @NonNull final ListInfo<StreamInfoItem> info,
+                                             final boolean audioOnly) {
+        return download(context, info, audioOnly, page -> ExtractorHelper
+                .getMoreChannelItems(info.getServiceId(), info.getUrl(), page));
+    }
+
+    private static Disposable download(
+            @NonNull final Context context,
+            @NonNull final ListInfo<StreamInfoItem> info,
+            final boolean audioOnly,
+            @NonNull final Function<Page, Single<InfoItemsPage<StreamInfoItem>>> pageLoader) {
+        final Context appContext = context.getApplicationContext();
+        final Observable<StreamInfoItem> items = Observable.fromIterable(info.getRelatedItems())
+                .concatWith(loadPages(pageLoader, info.getNextPage()));
+
+        return bindService(appContext)
+                .flatMapObservable(binder -> {
+                    final StoredDirectoryHelper mainStorage = audioOnly
+                            ? binder.getMainStorageAudio() : binder.getMainStorageVideo();
+
+                    if (binder.askForSavePath() || !isUsable(appContext, mainStorage)) {
+                        Toast.makeText(appContext, R.string.no_dir_yet, Toast.LENGTH_LONG)
+                                .show();
+                        return Observable.empty();
+                    }
+
+                    Toast.makeText(appContext, R.string.download_has_started,
+                            Toast.LENGTH_SHORT).show();
+
+                    final int threads = PreferenceManager.getDefaultSharedPreferences(appContext)
+                            .getInt(appContext.getString(R.string.default_download_threads), 3);
+
+                    // listed once, the SAF lists the whole directory on every search
+                    return Single.fromCallable(mainStorage::listFileNames)
+                            .subscribeOn(Schedulers.io())
+                            .flatMapObservable(filenames -> items
+                                    .filter(item -> !StreamTypeUtil.isLiveStream(
+                                            item.getStreamType()))
+                                    .distinct(StreamInfoItem::getUrl)
+                                    .concatMapEager(BulkDownloader::resolve, RESOLVE_CONCURRENCY,
+                                            1)
+                                    .concatMapMaybe(streamInfo -> Maybe.fromCallable(() ->
+                                            buildMission(appContext, streamInfo, mainStorage,
+                                                    filenames, audioOnly, threads))
+                                            .doOnError(e -> Log.e(TAG,
+                                                    "Cannot create the mission of "
+                                                            + streamInfo.getUrl(), e))
+                                            .onErrorComplete()))
+                            .buffer(BATCH_TIMESPAN_SECONDS, TimeUnit.SECONDS, BATCH_SIZE)
+                            .filter(batch -> !batch.isEmpty())
+                            .observeOn(AndroidSchedulers.mainThread())
+                            .doOnNext(binder::startMissions);
+                })
+                .subscribe(
+                        batch -> { },
+                        throwable -> ErrorUtil.createNotification(appContext,
+                                new ErrorInfo(throwable, UserAction.DOWNLOAD_FAILED,
+                                        "Downloading all the streams of " + info.getUrl(),
+                                        info)));
+    }
+
+    private static Observable<StreamInfoItem> loadPages(
+            @NonNull final Function<Page, Single<InfoItemsPage<StreamInfoItem>>> pageLoader,
+            @Nullable final Page page) {
+        if (!Page.isValid(page)) {
+            return Observable.empty();
+        }
+
+        return Observable.defer(() -> pageLoader.apply(page).toObservable())
+                .concatMap(more -> Observable.fromIterable(more.getItems())
+                        .concatWith(loadPages(pageLoader, more.getNextPage())));
+    }
+
+    /**
+     * A stream that cannot be resolved is skipped, the rest of the list is still downloaded.
+     */
+    private static Observable<StreamInfo> resolve(@NonNull final StreamInfoItem item) {
+        return ExtractorHelper.getStreamInfo(item.getServiceId(), item.getUrl(), false)
+                .subscribeOn(Schedulers.io())
+                .toObservable()
+                .doOnError(e -> Log.w(TAG, "Cannot resolve " + item.getUrl(), e))
+                .onErrorComplete();
+    }
+
+    private static boolean isUsable(@NonNull final Context context,
+                                    @Nullable final StoredDirectoryHelper mainStorage) {
+        return mainStorage != null
+                && mainStorage.isDirect() != NewPipeSettings.useStorageAccessFramework(context)
+                && !mainStorage.isInvalidSafStorage();
+    }
+
+    /**
+     * Builds the mission of a stream, using the default formats.
+     *
+     * @param filenames the names in use in the download directory, in lower case, see
+     *                  {@link StoredDirectoryHelper#listFileNames()}. The name of the created
+     *                  file is added
+     * @return the mission, or {@code null} if there is nothing to download or the file already
+     * exists (probably downloaded before)
+     */
+    @Nullable
+    private static DownloadMission buildMission(@NonNull final Context context,
+                                                @NonNull final StreamInfo info,
+                                                @NonNull final StoredDirectoryHelper mainStorage,
+                                                @NonNull final Set<String> filenames,
+                                                final boolean audioOnly,
+                                                final int threads) {
+        final List<AudioStream> audioStreams =
+                getStreamsOfSpecifiedDelivery(info.getAudioStreams(), PROGRESSIVE_HTTP);
+
+        final char kind;
+        final Stream selectedStream;
+        Stream secondaryStream = null;
+        String psName = null;
+        String mime = null;
+        String suffix = null;
+
+        if (audioOnly) {
+            final int index = ListHelper.getDefaultAudioFormat(context, audioStreams);
+            if (index < 0 || index >= audioStreams.size()) {
+                return null;
+            }
+
+            kind = 'a';
+            selectedStream = audioStreams.get(index);
+
+            if (selectedStream.getFormat() == MediaFormat.M4A) {
+                psName = Postprocessing.ALGORITHM_M4A_NO_DASH;
+            } else if (selectedStream.getFormat() == MediaFormat.WEBMA_OPUS) {
+                psName = Postprocessing.ALGORITHM_OGG_FROM_WEBM_DEMUXER;
+                mime = "audio/ogg";
+                suffix = "opus";
+            }
+        } else {
+            final List<VideoStream> videoStreams = ListHelper.getSortedStreamVideosList(context,
+                    getStreamsOfSpecifiedDelivery(info.getVideoStreams(), PROGRESSIVE_HTTP),
+                    getStreamsOfSpecifiedDelivery(info.getVideoOnlyStreams(), PROGRESSIVE_HTTP),
+                    false, false);
+            final int index = ListHelper.getDefaultResolutionIndex(context, videoStreams);
+            if (index < 0 || index >= videoStreams.size()) {
+                return null;
+            }
+
+            kind = 'v';
+            final VideoStream videoStream = videoStreams.get(index);
+            selectedStream = videoStream;
+
+            if (videoStream.isVideoOnly()) {
+                secondaryStream = SecondaryStreamHelper.getAudioStreamFor(audioStreams,
+                        videoStream);
+                if (secondaryStream == null) {
+                    return null;// a video without sound is not what was asked for
+                }
+
+                if (videoStream.getFormat() == MediaFormat.MPEG_4) {
+                    psName = Postprocessing.ALGORITHM_MP4_FROM_DASH_MUXER;
+                } else {
+                    psName = Postprocessing.ALGORITHM_WEBM_MUXER;
+                }
+            }
+        }
+
+        final MediaFormat format = selectedStream.getFormat();
+        if (format == null) {
+            return null;
+        }
+        if (mime == null) {
+            mime = format.mimeType;
+            suffix = format.suffix;
+        }
+
+        final String filename = FilenameUtils.createFilename(context, info.getName())
+                + "." + suffix;
+
+        // the name is taken right away, so a stream listed twice is not downloaded twice
+        if (!filenames.add(filename.toLowerCase())) {
+            return null;
+        }
+        if (!mainStorage.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + mainStorage.getUri());
+        }
+        final StoredFileHelper storage = mainStorage.createNewFile(filename, mime);
+        if (storage == null || !storage.canWrite()) {
+            throw new IllegalStateException("Cannot create " + filename);
+        }
+
+        final String[] urls;
+        final MissionRecoveryInfo[] recoveryInfo;
+        if (secondaryStream == null) {
+            urls = new String[] {selectedStream.getContent()};
+            recoveryInfo = new MissionRecoveryInfo[] {new MissionRecoveryInfo(selectedStream)};
+        } else {
+            urls = new String[] {selectedStream.getContent(), secondaryStream.getContent()};
+            recoveryInfo = new MissionRecoveryInfo[] {new MissionRecoveryInfo(selectedStream),
+                    new MissionRecoveryInfo(secondaryStream)};
+        }
+
+        final DownloadMission mission = new DownloadMission(urls, storage, kind,
+                psName == null ? null : Postprocessing.getAlgorithm(psName, null));
+        mission.threadCount = threads;
+        mission.source = info.getUrl();
+        mission.recoveryInfo = recoveryInfo;
+        mission.priority = DownloadMission.PRIORITY_LOW;
+        return mission;
+    }
+
+    /**
+     * Starts the download service and binds to it, the binding is released right away since
+     * the binder is local.
+     */
+    private static Single<DownloadManagerBinder> bindService(@NonNull final Context context) {
+        return Single.create(emitter -> {
+            final Intent intent = new Intent(context, DownloadManagerService.class);
+            final ServiceConnection connection = new ServiceConnection() {
+                @Override
+                public void onServiceConnected(final ComponentName name,
+                                               final IBinder service) {
+                    context.unbindService(this);
+                    emitter.onSuccess((DownloadManagerBinder) service);
+                }
+
+                @Override
+                public void onServiceDisconnected(final ComponentName name) {
+                    // nothing to do
+                }
+            };
+
+            context.startService(intent);
+            context.bindService(intent, connection, Context.BIND_AUTO_CREATE);
+        });
+    }
+}
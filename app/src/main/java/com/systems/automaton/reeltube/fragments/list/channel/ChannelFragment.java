@@ -21,6 +21,7 @@ import android.widget.Button;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.ActionBar;
+import androidx.appcompat.app.AlertDialog;
 import androidx.core.content.ContextCompat;
 
 import com.google.android.material.snackbar.Snackbar;
@@ -32,6 +33,7 @@ import com.systems.automaton.reeltube.database.subscription.SubscriptionEntity;
 import com.systems.automaton.reeltube.databinding.ChannelHeaderBinding;
 import com.systems.automaton.reeltube.databinding.FragmentChannelBinding;
 import com.systems.automaton.reeltube.databinding.PlaylistControlBinding;
+import com.systems.automaton.reeltube.download.BulkDownloader;
 import com.systems.automaton.reeltube.error.ErrorInfo;
 import com.systems.automaton.reeltube.error.ErrorUtil;
 import com.systems.automaton.reeltube.error.UserAction;
@@ -51,6 +53,7 @@ import com.systems.automaton.reeltube.player.playqueue.PlayQueue;
 import com.systems.automaton.reeltube.util.ExtractorHelper;
 import com.systems.automaton.reeltube.util.Localization;
 import com.systems.automaton.reeltube.util.NavigationHelper;
+import com.systems.automaton.reeltube.util.PermissionHelper;
 import com.systems.automaton.reeltube.util.PicassoHelper;
 import com.systems.automaton.reeltube.util.ThemeHelper;
 import com.systems.automaton.reeltube.util.external_communication.ShareUtils;
@@ -77,6 +80,10 @@ public class ChannelFragment extends BaseListInfoFragment<StreamInfoItem, Channe
     private static final String PICASSO_CHANNEL_TAG = "PICASSO_CHANNEL_TAG";
 
     private final CompositeDisposable disposables = new CompositeDisposable();
+    /**
+     * The "download all" in progress, not cleared when the channel is reloaded.
+     */
+    private final CompositeDisposable bulkDownloads = new CompositeDisposable();
     private Disposable subscribeButtonMonitor;
 
     private boolean channelContentNotSupported = false;
@@ -141,6 +148,7 @@ public class ChannelFragment extends BaseListInfoFragment<StreamInfoItem, Channe
     public void onDestroy() {
         super.onDestroy();
         disposables.clear();
+        bulkDownloads.dispose();
         if (subscribeButtonMonitor != null) {
             subscribeButtonMonitor.dispose();
         }
@@ -221,12 +229,29 @@ public class ChannelFragment extends BaseListInfoFragment<StreamInfoItem, Channe
                             currentInfo.getAvatarUrl());
                 }
                 break;
+            case R.id.menu_item_download_all:
+                if (currentInfo != null && PermissionHelper.checkStoragePermissions(
+                        requireActivity(), PermissionHelper.DOWNLOADS_REQUEST_CODE)) {
+                    showDownloadAllDialog(currentInfo);
+                }
+                break;
             default:
                 return super.onOptionsItemSelected(item);
         }
         return true;
     }
 
+    private void showDownloadAllDialog(@NonNull final ChannelInfo info) {
+        final Context context = requireContext();
+        new AlertDialog.Builder(context)
+                .setTitle(R.string.download_all)
+                .setItems(new CharSequence[] {
+                        getString(R.string.video), getString(R.string.audio)
+                }, (dialog, which) -> bulkDownloads.add(
+                        BulkDownloader.downloadChannel(context, info, which == 1)))
+                .show();
+    }
+
     /*//////////////////////////////////////////////////////////////////////////
     // Channel Subscription
     //////////////////////////////////////////////////////////////////////////*/
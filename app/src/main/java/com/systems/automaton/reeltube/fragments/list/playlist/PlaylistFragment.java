@@ -16,6 +16,7 @@ import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.content.res.AppCompatResources;
 
 import com.google.android.material.shape.CornerFamily;
@@ -31,6 +32,7 @@ import com.systems.automaton.reeltube.database.playlist.model.PlaylistRemoteEnti
 import com.systems.automaton.reeltube.database.stream.model.StreamEntity;
 import com.systems.automaton.reeltube.databinding.PlaylistControlBinding;
 import com.systems.automaton.reeltube.databinding.PlaylistHeaderBinding;
+import com.systems.automaton.reeltube.download.BulkDownloader;
 import com.systems.automaton.reeltube.error.ErrorInfo;
 import com.systems.automaton.reeltube.error.ErrorUtil;
 import com.systems.automaton.reeltube.error.UserAction;
@@ -51,6 +53,7 @@ import com.systems.automaton.reeltube.player.playqueue.PlaylistPlayQueue;
 import com.systems.automaton.reeltube.util.ExtractorHelper;
 import com.systems.automaton.reeltube.util.Localization;
 import com.systems.automaton.reeltube.util.NavigationHelper;
+import com.systems.automaton.reeltube.util.PermissionHelper;
 import com.systems.automaton.reeltube.util.PicassoHelper;
 import com.systems.automaton.reeltube.util.external_communication.ShareUtils;
 
@@ -71,6 +74,10 @@ public class PlaylistFragment extends BaseListInfoFragment<StreamInfoItem, Playl
     private static final String PICASSO_PLAYLIST_TAG = "PICASSO_PLAYLIST_TAG";
 
     private CompositeDisposable disposables;
+    /**
+     * The "download all" in progress, they outlive the view but not the fragment.
+     */
+    private final CompositeDisposable bulkDownloads = new CompositeDisposable();
     private Subscription bookmarkReactor;
     private AtomicBoolean isBookmarkButtonReady;
 
@@ -201,6 +208,7 @@ public class PlaylistFragment extends BaseListInfoFragment<StreamInfoItem, Playl
         if (disposables != null) {
             disposables.dispose();
         }
+        bulkDownloads.dispose();
 
         disposables = null;
         remotePlaylistManager = null;
@@ -251,12 +259,29 @@ public class PlaylistFragment extends BaseListInfoFragment<StreamInfoItem, Playl
                         dialog -> dialog.show(getFM(), TAG)
                 ));
                 break;
+            case R.id.menu_item_download_all:
+                if (currentInfo != null && PermissionHelper.checkStoragePermissions(
+                        requireActivity(), PermissionHelper.DOWNLOADS_REQUEST_CODE)) {
+                    showDownloadAllDialog(currentInfo);
+                }
+                break;
             default:
                 return super.onOptionsItemSelected(item);
         }
         return true;
     }
 
+    private void showDownloadAllDialog(@NonNull final PlaylistInfo info) {
+        final Context context = requireContext();
+        new AlertDialog.Builder(context)
+                .setTitle(R.string.download_all)
+                .setItems(new CharSequence[] {
+                        getString(R.string.video), getString(R.string.audio)
+                }, (dialog, which) -> bulkDownloads.add(
+                        BulkDownloader.downloadPlaylist(context, info, which == 1)))
+                .show();
+    }
+
 
     /*//////////////////////////////////////////////////////////////////////////
     // Contract
@@ -184,6 +184,7 @@ import com.systems.automaton.reeltube.player.helper.PlayerHelper;
 import com.systems.automaton.reeltube.player.listeners.view.PlaybackSpeedClickListener;
 import com.systems.automaton.reeltube.player.listeners.view.QualityClickListener;
 import com.systems.automaton.reeltube.player.mediaitem.MediaItemTag;
+import com.systems.automaton.reeltube.player.playback.MediaPreloader;
 import com.systems.automaton.reeltube.player.playback.MediaSourceManager;
 import com.systems.automaton.reeltube.player.playback.PlaybackListener;
 import com.systems.automaton.reeltube.player.playback.PlayerMediaSession;
@@ -222,6 +223,7 @@ import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.disposables.CompositeDisposable;
 import io.reactivex.rxjava3.disposables.Disposable;
 import io.reactivex.rxjava3.disposables.SerialDisposable;
+import us.shandian.giga.service.BandwidthManager;
 
 public final class Player implements
         PlaybackListener,
@@ -289,6 +291,7 @@ public final class Player implements
     private StreamSegmentAdapter segmentAdapter;
 
     @Nullable private MediaSourceManager playQueueManager;
+    @NonNull private final MediaPreloader mediaPreloader;
 
     @Nullable private PlayQueueItem currentItem;
     @Nullable private MediaItemTag currentMetadata;
@@ -437,6 +440,7 @@ public final class Player implements
 
         videoResolver = new VideoPlaybackResolver(context, dataSource, getQualityResolver());
         audioResolver = new AudioPlaybackResolver(context, dataSource);
+        mediaPreloader = new MediaPreloader(context, dataSource);
 
         windowManager = ContextCompat.getSystemService(context, WindowManager.class);
     }
@@ -948,7 +952,9 @@ public final class Player implements
             Log.d(TAG, "destroy() called");
         }
         destroyPlayer();
+        mediaPreloader.dispose();
         unregisterBroadcastReceiver();
+        BandwidthManager.setPlaybackBuffering(false);
 
         databaseUpdateDisposable.clear();
         progressUpdateDisposable.set(null);
@@ -991,7 +997,7 @@ public final class Player implements
         }
 
         if (playQueue != null) {
-            playQueueManager = new MediaSourceManager(this, playQueue);
+            playQueueManager = new MediaSourceManager(this, playQueue, mediaPreloader);
         }
     }
 
@@ -2068,6 +2074,10 @@ public final class Player implements
         } else if (isLoading && !isProgressLoopRunning()) {
             startProgressLoop();
         }
+
+        if (playQueueManager != null) {
+            playQueueManager.onLoadingChanged(isLoading);
+        }
     }
 
     @Override // own playback listener
@@ -2108,6 +2118,7 @@ public final class Player implements
             Log.d(TAG, "changeState() called with: state = [" + state + "]");
         }
         currentState = state;
+        BandwidthManager.setPlaybackBuffering(state == STATE_BLOCKED || state == STATE_BUFFERING);
         switch (state) {
             case STATE_BLOCKED:
                 onBlocked();
@@ -2745,6 +2756,11 @@ public final class Player implements
         return currentDurationMillis - currentPositionMillis < timeToEndMillis;
     }
 
+    @Override // own playback listener (this is a getter)
+    public boolean isNetworkMetered() {
+        return ListHelper.isMeteredNetwork(context);
+    }
+
     /**
      * Checks if the current playback is a livestream AND is playing at or beyond the live edge.
      *
@@ -3,6 +3,7 @@ package com.systems.automaton.reeltube.player.helper;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultDataSource;
@@ -16,12 +17,13 @@ final class CacheFactory implements DataSource.Factory {
     private static final int CACHE_FLAGS = CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR;
 
     private final Context context;
+    @Nullable
     private final TransferListener transferListener;
     private final DataSource.Factory upstreamDataSourceFactory;
     private final SimpleCache cache;
 
     CacheFactory(final Context context,
-                 final TransferListener transferListener,
+                 @Nullable final TransferListener transferListener,
                  final SimpleCache cache,
                  final DataSource.Factory upstreamDataSourceFactory) {
         this.context = context;
@@ -32,7 +34,7 @@ final class CacheFactory implements DataSource.Factory {
 
     @NonNull
     @Override
-    public DataSource createDataSource() {
+    public CacheDataSource createDataSource() {
         final DefaultDataSource dataSource = new DefaultDataSource.Factory(context,
                 upstreamDataSourceFactory)
                 .setTransferListener(transferListener)
@@ -20,6 +20,7 @@ import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultDataSource;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
 import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
 import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
 import com.google.android.exoplayer2.upstream.cache.SimpleCache;
 
@@ -77,6 +78,11 @@ public class PlayerDataSource {
     private final CacheFactory ytDashCacheDataSourceFactory;
     private final CacheFactory ytProgressiveDashCacheDataSourceFactory;
 
+    // Preloading Data Source Factories (with cache), without the player's transfer listener so
+    // the bandwidth meter only measures the playback
+    private final CacheFactory preloadCacheDataSourceFactory;
+    private final CacheFactory ytPreloadCacheDataSourceFactory;
+
 
     public PlayerDataSource(final Context context,
                             final TransferListener transferListener) {
@@ -101,6 +107,11 @@ public class PlayerDataSource {
         ytProgressiveDashCacheDataSourceFactory = new CacheFactory(context, transferListener, cache,
                 getYoutubeHttpDataSourceFactory(false, true));
 
+        preloadCacheDataSourceFactory = new CacheFactory(context, null, cache,
+                new DefaultHttpDataSource.Factory().setUserAgent(DownloaderImpl.USER_AGENT));
+        ytPreloadCacheDataSourceFactory = new CacheFactory(context, null, cache,
+                getYoutubeHttpDataSourceFactory(true, true));
+
         // set the maximum size to manifest creators
         YoutubeProgressiveDashManifestCreator.getCache().setMaximumSize(MAX_MANIFEST_CACHE_SIZE);
         YoutubeOtfDashManifestCreator.getCache().setMaximumSize(MAX_MANIFEST_CACHE_SIZE);
@@ -184,6 +195,22 @@ public class PlayerDataSource {
     //endregion
 
 
+    //region Preloading
+    /**
+     * Creates a data source writing into the same cache used by the media sources, to preload
+     * the streams before they are played. The transferred bytes are not reported to the
+     * player's bandwidth meter.
+     *
+     * @param youtube whether the stream is from YouTube
+     * @return the data source
+     */
+    public CacheDataSource createPreloadDataSource(final boolean youtube) {
+        return youtube ? ytPreloadCacheDataSourceFactory.createDataSource()
+                : preloadCacheDataSourceFactory.createDataSource();
+    }
+    //endregion
+
+
     //region Static methods
     private static DefaultDashChunkSource.Factory getDefaultDashChunkSourceFactory(
             final DataSource.Factory dataSourceFactory) {
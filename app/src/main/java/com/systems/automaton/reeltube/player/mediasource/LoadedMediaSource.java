@@ -47,7 +47,11 @@ public class LoadedMediaSource extends CompositeMediaSource<Integer> implements
         return stream;
     }
 
-    private boolean isExpired() {
+    public long getExpireTimestamp() {
+        return expireTimestamp;
+    }
+
+    public boolean isExpired() {
         return System.currentTimeMillis() >= expireTimestamp;
     }
 
@@ -0,0 +1,214 @@
+package com.systems.automaton.reeltube.player.playback;
+
+import static com.systems.automaton.reeltube.player.playqueue.PlayQueue.DEBUG;
+import static com.systems.automaton.reeltube.util.ListHelper.getNonTorrentStreams;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.cache.CacheWriter;
+
+import org.schabi.newpipe.extractor.ServiceList;
+import org.schabi.newpipe.extractor.services.youtube.ItagItem;
+import org.schabi.newpipe.extractor.stream.AudioStream;
+import org.schabi.newpipe.extractor.stream.Stream;
+import org.schabi.newpipe.extractor.stream.StreamInfo;
+import org.schabi.newpipe.extractor.stream.VideoStream;
+import com.systems.automaton.reeltube.player.helper.PlayerDataSource;
+import com.systems.automaton.reeltube.player.mediaitem.MediaItemTag;
+import com.systems.automaton.reeltube.player.resolver.PlaybackResolver;
+import com.systems.automaton.reeltube.util.ListHelper;
+import com.systems.automaton.reeltube.util.StreamTypeUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.disposables.SerialDisposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Warms the first seconds of the next items of the play queue into the cache of the
+ * {@link PlayerDataSource}, so the playback does not stall when the next item starts.
+ *
+ * <p>
+ * The streams are picked like the resolvers do: the selected video quality and, if the video
+ * has no audio, the default audio stream. Only the streams fetched from a single url can be
+ * preloaded, see {@link PlaybackResolver#buildPreloadDataSpec}. Every call to
+ * {@link #preload(List)} cancels the previous one, the bytes already cached are kept.
+ * </p>
+ */
+public class MediaPreloader {
+    private static final String TAG = MediaPreloader.class.getSimpleName();
+
+    /**
+     * Seconds preloaded from the start of every item.
+     */
+    private static final int PRELOAD_SECONDS = 10;
+
+    /**
+     * Maximum amount of bytes preloaded on every call, shared by all the items.
+     */
+    private static final long BYTE_BUDGET = 16 * 1024 * 1024;
+
+    /**
+     * Used when the bitrate of a stream is unknown, enough for a 720p video.
+     */
+    private static final long FALLBACK_BYTES_PER_SECOND = 256 * 1024;
+
+    @NonNull
+    private final Context context;
+    @NonNull
+    private final PlayerDataSource dataSource;
+    @NonNull
+    private final SerialDisposable preloader = new SerialDisposable();
+
+    public MediaPreloader(@NonNull final Context context,
+                          @NonNull final PlayerDataSource dataSource) {
+        this.context = context;
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Preloads the beginning of the given items in background, in order, until the byte budget
+     * is spent. Cancels the previous preloading.
+     *
+     * @param tags the metadata of the resolved items, the nearest first
+     */
+    public void preload(@NonNull final List<MediaItemTag> tags) {
+        final List<Completable> loads = new ArrayList<>();
+        long budget = BYTE_BUDGET;
+
+        for (final MediaItemTag tag : tags) {
+            final StreamInfo info = tag.getMaybeStreamInfo().orElse(null);
+            if (info == null || StreamTypeUtil.isLiveStream(info.getStreamType())) {
+                continue;
+            }
+
+            final boolean youtube = info.getService() == ServiceList.YouTube;
+            for (final Stream stream : streamsOf(tag, info)) {
+                final long length = Math.min(estimateLength(stream, info.getDuration()), budget);
+                if (length < 1) {
+                    break;
+                }
+
+                final DataSpec dataSpec = PlaybackResolver.buildPreloadDataSpec(stream, info,
+                        cacheKeyOf(info, stream), length);
+                if (dataSpec != null) {
+                    loads.add(cache(dataSpec, youtube));
+                    budget -= length;
+                }
+            }
+        }
+
+        if (loads.isEmpty()) {
+            cancel();
+            return;
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "preload() called, streams=[" + loads.size() + "], "
+                    + "bytes=[" + (BYTE_BUDGET - budget) + "]");
+        }
+
+        preloader.set(Completable.concat(loads)
+                .subscribeOn(Schedulers.io())
+                .subscribe());
+    }
+
+    /**
+     * Stops the preloading in progress, if any.
+     */
+    public void cancel() {
+        preloader.set(null);
+    }
+
+    public void dispose() {
+        preloader.dispose();
+    }
+
+    /**
+     * Picks the streams played by the resolvers, see
+     * {@link com.systems.automaton.reeltube.player.resolver.VideoPlaybackResolver} and
+     * {@link com.systems.automaton.reeltube.player.resolver.AudioPlaybackResolver}.
+     */
+    @NonNull
+    private List<Stream> streamsOf(@NonNull final MediaItemTag tag,
+                                   @NonNull final StreamInfo info) {
+        final List<Stream> streams = new ArrayList<>(2);
+
+        @Nullable final VideoStream video = tag.getMaybeQuality()
+                .map(MediaItemTag.Quality::getSelectedVideoStream)
+                .orElse(null);
+        if (video != null) {
+            streams.add(video);
+        }
+
+        if (video == null || video.isVideoOnly()) {
+            final List<AudioStream> audioStreams = getNonTorrentStreams(info.getAudioStreams());
+            final int index = ListHelper.getDefaultAudioFormat(context, audioStreams);
+            if (index >= 0 && index < audioStreams.size()) {
+                streams.add(audioStreams.get(index));
+            }
+        }
+
+        return streams;
+    }
+
+    private Completable cache(@NonNull final DataSpec dataSpec, final boolean youtube) {
+        return Completable.create(emitter -> {
+            final CacheWriter writer = new CacheWriter(
+                    dataSource.createPreloadDataSource(youtube), dataSpec, null, null);
+            emitter.setCancellable(writer::cancel);
+
+            try {
+                writer.cache();
+                emitter.onComplete();
+            } catch (final IOException e) {
+                // also thrown when cancelled
+                emitter.tryOnError(e);
+            }
+        }).doOnError(e -> {
+            if (DEBUG) {
+                Log.w(TAG, "Unable to preload " + dataSpec.key, e);
+            }
+        }).onErrorComplete();
+    }
+
+    private static String cacheKeyOf(@NonNull final StreamInfo info,
+                                     @NonNull final Stream stream) {
+        return stream instanceof VideoStream
+                ? PlaybackResolver.cacheKeyOf(info, (VideoStream) stream)
+                : PlaybackResolver.cacheKeyOf(info, (AudioStream) stream);
+    }
+
+    /**
+     * Estimates the size of the first {@link #PRELOAD_SECONDS} of a stream.
+     *
+     * @param stream          the stream
+     * @param durationSeconds the duration of the item, zero if unknown
+     * @return the amount of bytes
+     */
+    private static long estimateLength(@NonNull final Stream stream,
+                                       final long durationSeconds) {
+        @Nullable final ItagItem itag = stream.getItagItem();
+
+        if (itag != null && itag.getContentLength() > 0 && durationSeconds > 0) {
+            return itag.getContentLength() * Math.min(PRELOAD_SECONDS, durationSeconds)
+                    / durationSeconds;
+        }
+        if (itag != null && itag.getBitrate() > 0) {
+            return itag.getBitrate() / 8L * PRELOAD_SECONDS;
+        }
+        if (stream instanceof AudioStream && ((AudioStream) stream).getAverageBitrate() > 0) {
+            return ((AudioStream) stream).getAverageBitrate() * 1000L / 8 * PRELOAD_SECONDS;
+        }
+
+        return FALLBACK_BYTES_PER_SECOND * PRELOAD_SECONDS;
+    }
+}
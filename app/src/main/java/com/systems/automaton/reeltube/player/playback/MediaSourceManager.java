@@ -1,17 +1,20 @@
 package com.systems.automaton.reeltube.player.playback;
 
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.collection.ArraySet;
+import androidx.collection.LruCache;
 
 import com.google.android.exoplayer2.source.MediaSource;
 
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
 import org.schabi.newpipe.extractor.exceptions.ExtractionException;
+import org.schabi.newpipe.extractor.stream.StreamInfo;
 import com.systems.automaton.reeltube.player.mediaitem.MediaItemTag;
 import com.systems.automaton.reeltube.player.mediasource.FailedMediaSource;
 import com.systems.automaton.reeltube.player.mediasource.LoadedMediaSource;
@@ -19,14 +22,19 @@ import com.systems.automaton.reeltube.player.mediasource.ManagedMediaSource;
 import com.systems.automaton.reeltube.player.mediasource.ManagedMediaSourcePlaylist;
 import com.systems.automaton.reeltube.player.playqueue.PlayQueue;
 import com.systems.automaton.reeltube.player.playqueue.PlayQueueItem;
+import com.systems.automaton.reeltube.player.playqueue.events.ErrorEvent;
 import com.systems.automaton.reeltube.player.playqueue.events.MoveEvent;
 import com.systems.automaton.reeltube.player.playqueue.events.PlayQueueEvent;
+import com.systems.automaton.reeltube.player.playqueue.events.PlayQueueEventType;
 import com.systems.automaton.reeltube.player.playqueue.events.RemoveEvent;
 import com.systems.automaton.reeltube.player.playqueue.events.ReorderEvent;
 import com.systems.automaton.reeltube.util.ServiceHelper;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -49,7 +57,7 @@ public class MediaSourceManager {
     private final String TAG = "MediaSourceManager@" + hashCode();
 
     /**
-     * Determines how many streams before and after the current stream should be loaded.
+     * Determines the fewest streams before and after the current stream that are loaded.
      * The default value (1) ensures seamless playback under typical network settings.
      * <p>
      * The streams after the current will be loaded into the playlist timeline while the
@@ -57,23 +65,65 @@ public class MediaSourceManager {
      * </p>
      *
      * @see #onMediaSourceReceived(PlayQueueItem, ManagedMediaSource)
+     * @see #windowSize
      */
-    private static final int WINDOW_SIZE = 1;
+    private static final int MINIMUM_WINDOW_SIZE = 1;
 
     /**
-     * Determines the maximum number of disposables allowed in the {@link #loaderReactor}.
-     * Once exceeded, new calls to {@link #loadImmediate()} will evict all disposables in the
-     * {@link #loaderReactor} in order to load a new set of items.
+     * Determines the most streams before and after the current stream that are loaded, reached
+     * when the user keeps skipping through the queue.
      *
-     * @see #loadImmediate()
-     * @see #maybeLoadItem(PlayQueueItem)
+     * @see #updateWindowSize()
      */
-    private static final int MAXIMUM_LOADER_SIZE = WINDOW_SIZE * 2 + 1;
+    private static final int MAXIMUM_WINDOW_SIZE = 3;
+
+    /**
+     * Selections of a new stream closer in time than this are considered skipping, and widen
+     * the window by one stream. A slower selection resets the window to its minimum.
+     */
+    private static final long SKIP_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * Determines how many resolved sources are kept in {@link #resolvedSources}, so skipping
+     * back and forth through the queue does not extract the same streams again.
+     */
+    private static final int MAXIMUM_RESOLVED_SOURCES = 16;
+
+    /**
+     * Determines how many streams after the current stream are preloaded into the cache, only
+     * the streams already resolved are preloaded.
+     *
+     * @see #onLoadingChanged(boolean)
+     */
+    private static final int MAXIMUM_PRELOAD_ITEMS = 2;
 
     @NonNull
     private final PlaybackListener playbackListener;
     @NonNull
     private final PlayQueue playQueue;
+    @NonNull
+    private final MediaPreloader preloader;
+
+    private final int minimumWindowSize;
+    private final int maximumWindowSize;
+
+    /**
+     * Determines how many streams before and after the current stream should be loaded,
+     * between {@link #minimumWindowSize} and {@link #maximumWindowSize}. Kept at the minimum on
+     * metered networks, where the streams before the current one are not loaded at all.
+     *
+     * @see #updateWindowSize()
+     */
+    private int windowSize;
+    private long lastSelectMillis;
+
+    /**
+     * Resolved sources by stream url, reused while they are not expired.
+     *
+     * @see #getLoadedMediaSource(PlayQueueItem)
+     */
+    @NonNull
+    private final LruCache<String, LoadedMediaSource> resolvedSources;
 
     /**
      * Determines the gap time between the playback position and the playback duration which
@@ -127,17 +177,22 @@ public class MediaSourceManager {
     private final Handler removeMediaSourceHandler = new Handler();
 
     public MediaSourceManager(@NonNull final PlaybackListener listener,
-                              @NonNull final PlayQueue playQueue) {
-        this(listener, playQueue, 400L,
+                              @NonNull final PlayQueue playQueue,
+                              @NonNull final MediaPreloader preloader) {
+        this(listener, playQueue, preloader, 400L,
                 /*playbackNearEndGapMillis=*/TimeUnit.MILLISECONDS.convert(30, TimeUnit.SECONDS),
-                /*progressUpdateIntervalMillis*/TimeUnit.MILLISECONDS.convert(2, TimeUnit.SECONDS));
+                /*progressUpdateIntervalMillis*/TimeUnit.MILLISECONDS.convert(2, TimeUnit.SECONDS),
+                MINIMUM_WINDOW_SIZE, MAXIMUM_WINDOW_SIZE);
     }
 
     private MediaSourceManager(@NonNull final PlaybackListener listener,
                                @NonNull final PlayQueue playQueue,
+                               @NonNull final MediaPreloader preloader,
                                final long loadDebounceMillis,
                                final long playbackNearEndGapMillis,
-                               final long progressUpdateIntervalMillis) {
+                               final long progressUpdateIntervalMillis,
+                               final int minimumWindowSize,
+                               final int maximumWindowSize) {
         if (playQueue.getBroadcastReceiver() == null) {
             throw new IllegalArgumentException("Play Queue has not been initialized.");
         }
@@ -146,9 +201,19 @@ public class MediaSourceManager {
                     + " ms] must be longer than update interval=[ " + progressUpdateIntervalMillis
                     + " ms] for them to be useful.");
         }
+        if (minimumWindowSize < 1 || maximumWindowSize < minimumWindowSize) {
+            throw new IllegalArgumentException("Window size=[" + minimumWindowSize + ", "
+                    + maximumWindowSize + "] must be at least one stream.");
+        }
 
         this.playbackListener = listener;
         this.playQueue = playQueue;
+        this.preloader = preloader;
+
+        this.minimumWindowSize = minimumWindowSize;
+        this.maximumWindowSize = maximumWindowSize;
+        this.windowSize = minimumWindowSize;
+        this.resolvedSources = new LruCache<>(MAXIMUM_RESOLVED_SOURCES);
 
         this.playbackNearEndGapMillis = playbackNearEndGapMillis;
         this.progressUpdateIntervalMillis = progressUpdateIntervalMillis;
@@ -189,6 +254,22 @@ public class MediaSourceManager {
 
         playQueueReactor.cancel();
         loaderReactor.dispose();
+        preloader.cancel();
+        resolvedSources.evictAll();
+    }
+
+    /**
+     * Preloads the next streams into the cache while the player is not loading, that is when the
+     * current stream is buffered. The preloading is stopped once the player starts loading again.
+     *
+     * @param isLoading whether the player is loading
+     */
+    public void onLoadingChanged(final boolean isLoading) {
+        if (isLoading) {
+            preloader.cancel();
+        } else {
+            maybePreload();
+        }
     }
 
     /*//////////////////////////////////////////////////////////////////////////
@@ -225,15 +306,27 @@ public class MediaSourceManager {
             return;
         }
 
+        // The next items may have changed, preloaded again once the player stops loading
+        if (event.type() != PlayQueueEventType.APPEND) {
+            preloader.cancel();
+        }
+
         // Event specific action
         switch (event.type()) {
-            case INIT:
             case ERROR:
+                // The source may be the cause, resolve it again next time
+                final PlayQueueItem errorItem =
+                        playQueue.getItem(((ErrorEvent) event).getErrorIndex());
+                if (errorItem != null) {
+                    resolvedSources.remove(errorItem.getUrl());
+                }
+            case INIT:
                 maybeBlock();
             case APPEND:
                 populateSources();
                 break;
             case SELECT:
+                updateWindowSize();
                 maybeRenewCurrentIndex();
                 break;
             case REMOVE:
@@ -285,7 +378,9 @@ public class MediaSourceManager {
     //////////////////////////////////////////////////////////////////////////*/
 
     private boolean isPlayQueueReady() {
-        final boolean isWindowLoaded = playQueue.size() - playQueue.getIndex() > WINDOW_SIZE;
+        // Only the minimum window is waited for, a wider one must not delay the playback
+        final boolean isWindowLoaded =
+                playQueue.size() - playQueue.getIndex() > minimumWindowSize;
         return playQueue.isComplete() || isWindowLoaded;
     }
 
@@ -383,7 +478,8 @@ public class MediaSourceManager {
         if (DEBUG) {
             Log.d(TAG, "MediaSource - loadImmediate() called");
         }
-        final ItemsToLoad itemsToLoad = getItemsToLoad(playQueue);
+        final ItemsToLoad itemsToLoad = getItemsToLoad(playQueue, windowSize,
+                !playbackListener.isNetworkMetered());
         if (itemsToLoad == null) {
             return;
         }
@@ -421,7 +517,22 @@ public class MediaSourceManager {
     }
 
     private Single<ManagedMediaSource> getLoadedMediaSource(@NonNull final PlayQueueItem stream) {
-        return stream.getStream().map(streamInfo -> {
+        // Skipping back and forth reuses the sources resolved before, until they expire
+        @Nullable final LoadedMediaSource resolved = resolvedSources.get(stream.getUrl());
+        if (resolved != null && !resolved.shouldBeReplacedWith(stream, true)) {
+            return Single.just(resolved);
+        }
+
+        // Another queue item of the same stream, only the stream info can be shared
+        final Optional<StreamInfo> resolvedInfo = Optional.ofNullable(resolved)
+                .filter(source -> !source.isExpired())
+                .flatMap(source -> MediaItemTag.from(source.getMediaItem()))
+                .flatMap(MediaItemTag::getMaybeStreamInfo);
+        final Single<StreamInfo> streamInfoSingle = resolvedInfo
+                .map(info -> Single.just(info).subscribeOn(Schedulers.io()))
+                .orElseGet(stream::getStream);
+
+        return streamInfoSingle.map(streamInfo -> {
             final MediaSource source = playbackListener.sourceOf(stream, streamInfo);
             if (source == null || !MediaItemTag.from(source.getMediaItem()).isPresent()) {
                 final String message = "Unable to resolve source from stream info. "
@@ -434,8 +545,10 @@ public class MediaSourceManager {
             }
 
             final MediaItemTag tag = MediaItemTag.from(source.getMediaItem()).get();
-            final long expiration = System.currentTimeMillis()
-                    + ServiceHelper.getCacheExpirationMillis(streamInfo.getServiceId());
+            final long expiration = resolvedInfo.isPresent()
+                    ? resolved.getExpireTimestamp()
+                    : System.currentTimeMillis()
+                            + ServiceHelper.getCacheExpirationMillis(streamInfo.getServiceId());
             return new LoadedMediaSource(source, tag, stream, expiration);
         }).onErrorReturn(throwable -> {
             if (throwable instanceof ExtractionException) {
@@ -457,6 +570,10 @@ public class MediaSourceManager {
 
         loadingItems.remove(item);
 
+        if (mediaSource instanceof LoadedMediaSource) {
+            resolvedSources.put(item.getUrl(), (LoadedMediaSource) mediaSource);
+        }
+
         final int itemIndex = playQueue.indexOf(item);
         // Only update the playlist timeline for items at the current index or after.
         if (isCorrectionNeeded(item)) {
@@ -522,17 +639,69 @@ public class MediaSourceManager {
         playlist.invalidate(currentIndex, removeMediaSourceHandler, this::loadImmediate);
     }
 
+    /**
+     * Widens the loading window while the user skips through the queue, so the next streams
+     * are likely resolved before they are selected. Otherwise the window returns to its minimum,
+     * which is kept on metered networks.
+     */
+    private void updateWindowSize() {
+        final long now = SystemClock.elapsedRealtime();
+        if (playbackListener.isNetworkMetered()
+                || now - lastSelectMillis >= SKIP_INTERVAL_MILLIS) {
+            windowSize = minimumWindowSize;
+        } else {
+            windowSize = Math.min(windowSize + 1, maximumWindowSize);
+        }
+        lastSelectMillis = now;
+
+        if (DEBUG) {
+            Log.d(TAG, "updateWindowSize() called, windowSize=[" + windowSize + "]");
+        }
+    }
+
+    private void maybePreload() {
+        // Metered networks load only what is going to be played
+        if (isBlocked.get() || playbackListener.isNetworkMetered()) {
+            return;
+        }
+
+        final List<MediaItemTag> tags = new ArrayList<>(MAXIMUM_PRELOAD_ITEMS);
+        final int end = Math.min(playlist.size(), playQueue.size());
+        for (int i = playQueue.getIndex() + 1; i < end && tags.size() < MAXIMUM_PRELOAD_ITEMS;
+             i++) {
+            final ManagedMediaSource mediaSource = playlist.get(i);
+            if (mediaSource instanceof LoadedMediaSource) {
+                MediaItemTag.from(mediaSource.getMediaItem()).ifPresent(tags::add);
+            }
+        }
+
+        preloader.preload(tags);
+    }
+
     private void maybeClearLoaders() {
         if (DEBUG) {
             Log.d(TAG, "MediaSource - maybeClearLoaders() called.");
         }
         if (!loadingItems.contains(playQueue.getItem())
-                && loaderReactor.size() > MAXIMUM_LOADER_SIZE) {
+                && loaderReactor.size() > getMaximumLoaderSize()) {
             loaderReactor.clear();
             loadingItems.clear();
         }
     }
 
+    /**
+     * Determines the maximum number of disposables allowed in the {@link #loaderReactor}.
+     * Once exceeded, new calls to {@link #loadImmediate()} will evict all disposables in the
+     * {@link #loaderReactor} in order to load a new set of items.
+     *
+     * @return the maximum number of loaders for the current {@link #windowSize}
+     * @see #loadImmediate()
+     * @see #maybeLoadItem(PlayQueueItem)
+     */
+    private int getMaximumLoaderSize() {
+        return windowSize * 2 + 1;
+    }
+
     /*//////////////////////////////////////////////////////////////////////////
     // MediaSource Playlist Helpers
     //////////////////////////////////////////////////////////////////////////*/
@@ -558,7 +727,9 @@ public class MediaSourceManager {
     //////////////////////////////////////////////////////////////////////////*/
 
     @Nullable
-    private static ItemsToLoad getItemsToLoad(@NonNull final PlayQueue playQueue) {
+    private static ItemsToLoad getItemsToLoad(@NonNull final PlayQueue playQueue,
+                                              final int windowSize,
+                                              final boolean includePrevious) {
         // The current item has higher priority
         final int currentIndex = playQueue.getIndex();
         final PlayQueueItem currentItem = playQueue.getItem(currentIndex);
@@ -569,8 +740,9 @@ public class MediaSourceManager {
         // The rest are just for seamless playback
         // Although timeline is not updated prior to the current index, these sources are still
         // loaded into the cache for faster retrieval at a potentially later time.
-        final int leftBound = Math.max(0, currentIndex - MediaSourceManager.WINDOW_SIZE);
-        final int rightLimit = currentIndex + MediaSourceManager.WINDOW_SIZE + 1;
+        final int leftBound = includePrevious ? Math.max(0, currentIndex - windowSize)
+                : currentIndex;
+        final int rightLimit = currentIndex + windowSize + 1;
         final int rightBound = Math.min(playQueue.size(), rightLimit);
         final Set<PlayQueueItem> neighbors = new ArraySet<>(
                 playQueue.getStreams().subList(leftBound, rightBound));
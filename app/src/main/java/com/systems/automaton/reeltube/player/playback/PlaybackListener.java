@@ -22,6 +22,16 @@ public interface PlaybackListener {
      */
     boolean isApproachingPlaybackEdge(long timeToEndMillis);
 
+    /**
+     * Called to check if the active network is metered, so fewer streams are loaded ahead.
+     * <p>
+     * May be called at any time.
+     * </p>
+     *
+     * @return whether the active network is metered
+     */
+    boolean isNetworkMetered();
+
     /**
      * Called when the stream at the current queue index is not ready yet.
      * Signals to the listener to block the player from playing anything and notify the source
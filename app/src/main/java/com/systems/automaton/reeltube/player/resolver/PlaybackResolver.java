@@ -20,6 +20,7 @@ import com.google.android.exoplayer2.source.hls.HlsMediaSource;
 import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource;
 import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest;
 import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifestParser;
+import com.google.android.exoplayer2.upstream.DataSpec;
 
 import org.schabi.newpipe.extractor.MediaFormat;
 import org.schabi.newpipe.extractor.ServiceList;
@@ -499,6 +500,56 @@ public interface PlaybackResolver extends Resolver<StreamInfo, MediaSource> {
     //endregion
 
 
+    //region Preloading
+    /**
+     * Builds the {@link DataSpec} of the beginning of a stream, with the same uri and cache key
+     * used by the media source built in {@link #buildMediaSource}, so the bytes preloaded into
+     * the cache are found when the stream is played.
+     *
+     * <p>
+     * Only the streams fetched from a single url can be preloaded: the progressive streams and
+     * the YouTube progressive streams played through a generated DASH manifest. The chunks of
+     * the DASH media sources are cached by their url, not by the custom cache key.
+     * </p>
+     *
+     * @param stream     the stream to preload
+     * @param streamInfo the {@link StreamInfo stream info} of the stream
+     * @param cacheKey   the cache key of the stream, see {@code cacheKeyOf}
+     * @param length     the amount of bytes to preload
+     * @return the data spec, or {@code null} if the stream is played from a manifest (HLS,
+     * SmoothStreaming, OTF and ended livestreams)
+     */
+    @Nullable
+    static DataSpec buildPreloadDataSpec(final Stream stream,
+                                         final StreamInfo streamInfo,
+                                         final String cacheKey,
+                                         final long length) {
+        if (!stream.isUrl() || stream.getContent() == null || stream.getContent().isEmpty()
+                || stream.getDeliveryMethod() != DeliveryMethod.PROGRESSIVE_HTTP) {
+            return null;
+        }
+
+        final boolean isYoutubeDash;
+        if (streamInfo.getService() == ServiceList.YouTube) {
+            if (streamInfo.getStreamType() != StreamType.VIDEO_STREAM) {
+                return null;
+            }
+            isYoutubeDash = stream.getItagItem() != null
+                    && (stream instanceof AudioStream || ((VideoStream) stream).isVideoOnly());
+        } else {
+            isYoutubeDash = false;
+        }
+
+        return new DataSpec.Builder()
+                .setUri(Uri.parse(stream.getContent()))
+                .setKey(isYoutubeDash ? stream.getContent() : cacheKey)
+                .setPosition(0)
+                .setLength(length)
+                .build();
+    }
+    //endregion
+
+
     //region Utils
     private static Uri manifestUrlToUri(final String manifestUrl) {
         return Uri.parse(Objects.requireNonNullElse(manifestUrl, ""));
@@ -9,6 +9,7 @@ import com.systems.automaton.reeltube.R;
 import com.systems.automaton.reeltube.error.ErrorInfo;
 import com.systems.automaton.reeltube.error.ErrorUtil;
 import com.systems.automaton.reeltube.error.UserAction;
+import com.systems.automaton.reeltube.util.ExtractorHelper;
 import com.systems.automaton.reeltube.util.PicassoHelper;
 import com.systems.automaton.reeltube.local.feed.notifications.NotificationWorker;
 
@@ -35,6 +36,8 @@ public class DebugSettingsFragment extends BasePreferenceFragment {
                 = findPreference(getString(R.string.show_error_snackbar_key));
         final Preference createErrorNotificationPreference
                 = findPreference(getString(R.string.create_error_notification_key));
+        final Preference extractorCacheStatisticsPreference
+                = findPreference(getString(R.string.extractor_cache_statistics_key));
 
         assert allowHeapDumpingPreference != null;
         assert showMemoryLeaksPreference != null;
@@ -43,6 +46,7 @@ public class DebugSettingsFragment extends BasePreferenceFragment {
         assert crashTheAppPreference != null;
         assert showErrorSnackbarPreference != null;
         assert createErrorNotificationPreference != null;
+        assert extractorCacheStatisticsPreference != null;
 
         final Optional<DebugSettingsBVDLeakCanaryAPI> optBVLeakCanary = getBVDLeakCanary();
 
@@ -86,6 +90,18 @@ public class DebugSettingsFragment extends BasePreferenceFragment {
                     new ErrorInfo(new RuntimeException(DUMMY), UserAction.UI_ERROR, DUMMY));
             return true;
         });
+
+        updateExtractorCacheStatistics(extractorCacheStatisticsPreference);
+        extractorCacheStatisticsPreference.setOnPreferenceClickListener(preference -> {
+            updateExtractorCacheStatistics(preference);
+            return true;
+        });
+    }
+
+    private void updateExtractorCacheStatistics(final Preference preference) {
+        preference.setSummary(getString(R.string.extractor_cache_statistics_summary,
+                ExtractorHelper.getCacheHits(), ExtractorHelper.getDiskCacheHits(),
+                ExtractorHelper.getNetworkLoads(), ExtractorHelper.getCoalescedLoads()));
     }
 
     /**
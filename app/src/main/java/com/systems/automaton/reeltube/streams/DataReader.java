@@ -5,6 +5,7 @@ import com.systems.automaton.reeltube.streams.io.SharpStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * @author kapodamy
@@ -25,7 +26,17 @@ public class DataReader {
 
     public DataReader(final SharpStream stream) {
         this.stream = stream;
-        this.readOffset = this.readBuffer.length;
+        this.mapped = stream.canReadMapped();
+
+        if (mapped) {
+            // fast path, read directly from the memory of the stream
+            readArray = null;
+            readBuffer = EMPTY;
+        } else {
+            readArray = new byte[BUFFER_SIZE];
+            readBuffer = ByteBuffer.wrap(readArray);
+            readBuffer.limit(0);
+        }
     }
 
     public long position() {
@@ -38,25 +49,24 @@ public class DataReader {
         }
 
         position++;
-        readCount--;
 
-        return readBuffer[readOffset++] & 0xFF;
+        return readBuffer.get() & 0xFF;
     }
 
     public long skipBytes(final long byteAmount) throws IOException {
         long amount = byteAmount;
-        if (readCount < 0) {
+        final int readCount = readBuffer.remaining();
+
+        if (eof) {
             return 0;
         } else if (readCount == 0) {
             amount = stream.skip(amount);
         } else {
             if (readCount > amount) {
-                readCount -= (int) amount;
-                readOffset += (int) amount;
+                readBuffer.position(readBuffer.position() + (int) amount);
             } else {
                 amount = readCount + stream.skip(amount - readCount);
-                readCount = 0;
-                readOffset = readBuffer.length;
+                dropBuffer();
             }
         }
 
@@ -65,6 +75,11 @@ public class DataReader {
     }
 
     public int readInt() throws IOException {
+        if (readBuffer.remaining() >= INTEGER_SIZE) {
+            position += INTEGER_SIZE;
+            return readBuffer.getInt();
+        }
+
         primitiveRead(INTEGER_SIZE);
         return primitive[0] << 24 | primitive[1] << 16 | primitive[2] << 8 | primitive[3];
     }
@@ -76,11 +91,21 @@ public class DataReader {
 
 
     public short readShort() throws IOException {
+        if (readBuffer.remaining() >= SHORT_SIZE) {
+            position += SHORT_SIZE;
+            return readBuffer.getShort();
+        }
+
         primitiveRead(SHORT_SIZE);
         return (short) (primitive[0] << 8 | primitive[1]);
     }
 
     public long readLong() throws IOException {
+        if (readBuffer.remaining() >= LONG_SIZE) {
+            position += LONG_SIZE;
+            return readBuffer.getLong();
+        }
+
         primitiveRead(LONG_SIZE);
         final long high
                 = primitive[0] << 24 | primitive[1] << 16 | primitive[2] << 8 | primitive[3];
@@ -96,30 +121,26 @@ public class DataReader {
         int offset = off;
         int count = c;
 
-        if (readCount < 0) {
+        if (eof) {
             return -1;
         }
         int total = 0;
 
-        if (count >= readBuffer.length) {
+        if (!mapped && count >= BUFFER_SIZE) {
+            final int readCount = readBuffer.remaining();
             if (readCount > 0) {
-                System.arraycopy(readBuffer, readOffset, buffer, offset, readCount);
-                readOffset += readCount;
+                readBuffer.get(buffer, offset, readCount);
 
                 offset += readCount;
                 count -= readCount;
 
                 total = readCount;
-                readCount = 0;
             }
             total += Math.max(stream.read(buffer, offset, count), 0);
         } else {
             while (count > 0 && !fillBuffer()) {
-                final int read = Math.min(readCount, count);
-                System.arraycopy(readBuffer, readOffset, buffer, offset, read);
-
-                readOffset += read;
-                readCount -= read;
+                final int read = Math.min(readBuffer.remaining(), count);
+                readBuffer.get(buffer, offset, read);
 
                 offset += read;
                 count -= read;
@@ -132,8 +153,48 @@ public class DataReader {
         return total;
     }
 
+    /**
+     * Writes the next bytes straight from the internal buffer to the given stream, avoiding
+     * intermediate copies. Note: like any other read, the view size is not modified
+     *
+     * @param output the destination
+     * @param amount the amount of bytes to transfer
+     * @return the amount of bytes transferred, less than requested if the end was reached
+     * @throws IOException if an I/O error occurs
+     */
+    public long transferTo(final SharpStream output, final long amount) throws IOException {
+        long remain = amount;
+
+        while (remain > 0) {
+            if (fillBuffer()) {
+                break;
+            }
+
+            int count = (int) Math.min(readBuffer.remaining(), remain);
+
+            if (readBuffer.hasArray()) {
+                output.write(readBuffer.array(), readBuffer.arrayOffset()
+                        + readBuffer.position(), count);
+                readBuffer.position(readBuffer.position() + count);
+            } else {
+                // the output only accepts arrays, a single copy is required
+                if (transferArray == null) {
+                    transferArray = new byte[TRANSFER_SIZE];
+                }
+                count = Math.min(count, transferArray.length);
+                readBuffer.get(transferArray, 0, count);
+                output.write(transferArray, 0, count);
+            }
+
+            remain -= count;
+        }
+
+        position += amount - remain;
+        return amount - remain;
+    }
+
     public boolean available() {
-        return readCount > 0 || stream.available() > 0;
+        return readBuffer.hasRemaining() || stream.available() > 0;
     }
 
     public void rewind() throws IOException {
@@ -146,8 +207,7 @@ public class DataReader {
         }
 
         position = 0;
-        readOffset = readBuffer.length;
-        readCount = 0;
+        dropBuffer();
     }
 
     public boolean canRewind() {
@@ -229,9 +289,10 @@ public class DataReader {
     }
 
     private final short[] primitive = new short[LONG_SIZE];
+    private final byte[] primitiveBuffer = new byte[LONG_SIZE];
 
     private void primitiveRead(final int amount) throws IOException {
-        final byte[] buffer = new byte[amount];
+        final byte[] buffer = primitiveBuffer;
         final int read = read(buffer, 0, amount);
 
         if (read != amount) {
@@ -245,23 +306,52 @@ public class DataReader {
         }
     }
 
-    private final byte[] readBuffer = new byte[BUFFER_SIZE];
-    private int readOffset;
-    private int readCount;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final int TRANSFER_SIZE = 64 * 1024;
+
+    /**
+     * If the stream is read with {@link SharpStream#readMapped(int)}, the read buffer is a view
+     * of the stream memory and the primitives are decoded without copies
+     */
+    private final boolean mapped;
+    private final byte[] readArray;
+    private byte[] transferArray;
+
+    /**
+     * Unread bytes, between the position and the limit of the buffer
+     */
+    private ByteBuffer readBuffer;
+    private boolean eof;
+
+    private void dropBuffer() {
+        eof = false;
+
+        if (mapped) {
+            readBuffer = EMPTY;
+        } else {
+            readBuffer.limit(0);
+        }
+    }
 
     private boolean fillBuffer() throws IOException {
-        if (readCount < 0) {
+        if (eof) {
             return true;
         }
-        if (readOffset >= readBuffer.length) {
-            readCount = stream.read(readBuffer);
-            if (readCount < 1) {
-                readCount = -1;
-                return true;
-            }
-            readOffset = 0;
+        if (readBuffer.hasRemaining()) {
+            return false;
+        }
+
+        if (mapped) {
+            readBuffer = stream.readMapped(BUFFER_SIZE);
+            eof = !readBuffer.hasRemaining();
+        } else {
+            final int readCount = stream.read(readArray);
+            eof = readCount < 1;
+
+            readBuffer.clear();
+            readBuffer.limit(Math.max(readCount, 0));
         }
 
-        return readCount < 1;
+        return eof;
     }
 }
@@ -237,6 +237,7 @@ public class Mp4DashReader {
                     chunk.moof = moof;
                     if (!infoOnly) {
                         chunk.data = stream.getView(moof.traf.trun.chunkSize);
+                        chunk.source = stream;
                     }
 
                     moof = null;
@@ -792,20 +793,38 @@ public class Mp4DashReader {
         int entriesRowSize;
 
         public TrunEntry getEntry(final int i) {
-            final ByteBuffer buffer = ByteBuffer.wrap(bEntries, i * entriesRowSize, entriesRowSize);
-            final TrunEntry entry = new TrunEntry();
+            return getEntry(i, new TrunEntry());
+        }
+
+        /**
+         * Reads an entry into the given instance, used to avoid allocations on every sample
+         *
+         * @param i     index of the entry
+         * @param entry instance to fill
+         * @return the given instance
+         */
+        public TrunEntry getEntry(final int i, final TrunEntry entry) {
+            int offset = i * entriesRowSize;
+
+            entry.sampleDuration = 0;
+            entry.sampleSize = 0;
+            entry.sampleFlags = 0;
+            entry.sampleCompositionTimeOffset = 0;
 
             if (hasFlag(bFlags, 0x0100)) {
-                entry.sampleDuration = buffer.getInt();
+                entry.sampleDuration = getInt(bEntries, offset);
+                offset += 4;
             }
             if (hasFlag(bFlags, 0x0200)) {
-                entry.sampleSize = buffer.getInt();
+                entry.sampleSize = getInt(bEntries, offset);
+                offset += 4;
             }
             if (hasFlag(bFlags, 0x0400)) {
-                entry.sampleFlags = buffer.getInt();
+                entry.sampleFlags = getInt(bEntries, offset);
+                offset += 4;
             }
             if (hasFlag(bFlags, 0x0800)) {
-                entry.sampleCompositionTimeOffset = buffer.getInt();
+                entry.sampleCompositionTimeOffset = getInt(bEntries, offset);
             }
 
             entry.hasCompositionTimeOffset = hasFlag(bFlags, 0x0800);
@@ -815,7 +834,14 @@ public class Mp4DashReader {
         }
 
         public TrunEntry getAbsoluteEntry(final int i, final Tfhd header) {
-            final TrunEntry entry = getEntry(i);
+            return getAbsoluteEntry(i, header, new TrunEntry());
+        }
+
+        /**
+         * Same as {@link #getAbsoluteEntry(int, Tfhd)} but reusing the given instance
+         */
+        public TrunEntry getAbsoluteEntry(final int i, final Tfhd header, final TrunEntry entry) {
+            getEntry(i, entry);
 
             if (!hasFlag(bFlags, 0x0100) && hasFlag(header.bFlags, 0x20)) {
                 entry.sampleFlags = header.defaultSampleFlags;
@@ -835,6 +861,11 @@ public class Mp4DashReader {
 
             return entry;
         }
+
+        private static int getInt(final byte[] buffer, final int offset) {
+            return (buffer[offset] & 0xFF) << 24 | (buffer[offset + 1] & 0xFF) << 16
+                    | (buffer[offset + 2] & 0xFF) << 8 | (buffer[offset + 3] & 0xFF);
+        }
     }
 
     public static class Tkhd {
@@ -908,6 +939,7 @@ public class Mp4DashReader {
         public InputStream data;
         public Moof moof;
         private int i = 0;
+        private DataReader source;
 
         public TrunEntry getNextSampleInfo() {
             if (i >= moof.traf.trun.entryCount) {
@@ -916,6 +948,40 @@ public class Mp4DashReader {
             return moof.traf.trun.getAbsoluteEntry(i++, moof.traf.tfhd);
         }
 
+        /**
+         * Reads the info of the next sample into the given instance, the sample data (if any)
+         * must be consumed with {@link #transferSample(TrunEntry, SharpStream)} before calling
+         * this method again
+         *
+         * @param entry instance to fill
+         * @return {@code false} if there no more samples in this chunk
+         */
+        public boolean getNextSampleInfo(final TrunEntry entry) {
+            if (i >= moof.traf.trun.entryCount) {
+                return false;
+            }
+            moof.traf.trun.getAbsoluteEntry(i++, moof.traf.tfhd, entry);
+            return true;
+        }
+
+        /**
+         * Writes the data of the sample returned by {@link #getNextSampleInfo(TrunEntry)}
+         * straight from the source buffer to the given stream
+         *
+         * @param info   the sample info
+         * @param output the destination
+         * @throws IOException if an I/O error occurs
+         */
+        public void transferSample(final TrunEntry info, final SharpStream output)
+                throws IOException {
+            if (source == null) {
+                throw new IllegalStateException("This chunk has info only");
+            }
+            if (source.transferTo(output, info.sampleSize) != info.sampleSize) {
+                throw new EOFException("EOF reached while reading a sample");
+            }
+        }
+
         public Mp4DashSample getNextSample() throws IOException {
             if (data == null) {
                 throw new IllegalStateException("This chunk has info only");
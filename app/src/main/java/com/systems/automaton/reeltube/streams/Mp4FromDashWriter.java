@@ -3,7 +3,6 @@ package com.systems.automaton.reeltube.streams;
 import com.systems.automaton.reeltube.streams.Mp4DashReader.Hdlr;
 import com.systems.automaton.reeltube.streams.Mp4DashReader.Mdia;
 import com.systems.automaton.reeltube.streams.Mp4DashReader.Mp4DashChunk;
-import com.systems.automaton.reeltube.streams.Mp4DashReader.Mp4DashSample;
 import com.systems.automaton.reeltube.streams.Mp4DashReader.Mp4Track;
 import com.systems.automaton.reeltube.streams.Mp4DashReader.TrackKind;
 import com.systems.automaton.reeltube.streams.Mp4DashReader.TrunEntry;
@@ -24,19 +23,12 @@ public class Mp4FromDashWriter {
     private static final byte SAMPLES_PER_CHUNK = 6;
     // near 3.999 GiB
     private static final long THRESHOLD_FOR_CO64 = 0xFFFEFFFFL;
-    // 2.2 MiB enough for: 1080p 60fps 00h35m00s
-    private static final int THRESHOLD_MOOV_LENGTH = (256 * 1024) + (2048 * 1024);
 
     private final long time;
 
     private ByteBuffer auxBuffer;
     private SharpStream outStream;
 
-    private long lastWriteOffset = -1;
-    private long writeOffset;
-
-    private boolean moovSimulation = true;
-
     private boolean done = false;
     private boolean parsed = false;
 
@@ -46,6 +38,12 @@ public class Mp4FromDashWriter {
     private Mp4DashReader[] readers;
     private Mp4DashChunk[] readersChunks;
 
+    /**
+     * Reused for every sample, the muxing must not allocate memory per sample
+     */
+    private final TrunEntry sampleInfo = new TrunEntry();
+    private ByteBuffer entryBuffer = ByteBuffer.allocate(64);
+
     private int overrideMainBrand = 0x00;
 
     private final ArrayList<Integer> compatibleBrands = new ArrayList<>(5);
@@ -192,8 +190,8 @@ public class Mp4FromDashWriter {
                 read += chunk.moof.traf.trun.chunkSize;
                 sampleExtra[i] += chunk.moof.traf.trun.chunkDuration; // calculate track duration
 
-                TrunEntry info;
-                while ((info = chunk.getNextSampleInfo()) != null) {
+                final TrunEntry info = sampleInfo;
+                while (chunk.getNextSampleInfo(info)) {
                     if (info.isKeyframe) {
                         tablesInfo[i].stss++;
                     }
@@ -253,64 +251,105 @@ public class Mp4FromDashWriter {
 
         final boolean is64 = read > THRESHOLD_FOR_CO64;
 
-        // calculate the moov size
-        final int auxSize = makeMoov(defaultMediaTime, tablesInfo, is64);
-
-        if (auxSize < THRESHOLD_MOOV_LENGTH) {
-            auxBuffer = ByteBuffer.allocate(auxSize); // cache moov in the memory
-        }
-
-        moovSimulation = false;
-        writeOffset = 0;
-
-        final int ftypSize = makeFtyp();
-
-        // reserve moov space in the output stream
-        if (auxSize > 0) {
-            int length = auxSize;
-            final byte[] buffer = new byte[64 * 1024]; // 64 KiB
-            while (length > 0) {
-                final int count = Math.min(length, buffer.length);
-                outWrite(buffer, count);
-                length -= count;
-            }
-        }
-
-        if (auxBuffer == null) {
-            outSeek(ftypSize);
-        }
+        // the row counts are known, so the moov is built once in the memory with the exact size
+        final int moovSize = moovLength(tablesInfo, is64);
+        auxBuffer = ByteBuffer.allocate(moovSize);
 
         // tablesInfo contains row counts
         // and after returning from makeMoov() will contain those table offsets
-        makeMoov(defaultMediaTime, tablesInfo, is64);
+        if (makeMoov(defaultMediaTime, tablesInfo, is64) != moovSize) {
+            throw new IllegalStateException("moov length mismatch");
+        }
 
         // write tables: stts stsc sbgp
-        // reset for ctts table: sampleCount sampleExtra
         for (int i = 0; i < readers.length; i++) {
             writeEntryArray(tablesInfo[i].stts, 2, sampleCount[i], defaultSampleDuration[i]);
             writeEntryArray(tablesInfo[i].stsc, tablesInfo[i].stscBEntries.length,
                     tablesInfo[i].stscBEntries);
             tablesInfo[i].stscBEntries = null;
-            if (tablesInfo[i].ctts > 0) {
-                sampleCount[i] = 1; // the index is not base zero
-                sampleExtra[i] = -1;
-            }
             if (tablesInfo[i].sbgp > 0) {
                 writeEntryArray(tablesInfo[i].sbgp, 1, sampleCount[i]);
             }
         }
 
-        if (auxBuffer == null) {
-            outRestore();
+        final byte[] ftyp = makeFtyp();
+        final byte[] mdat = makeMdat(totalSampleSize, is64);
+
+        // fill the sample tables, the samples are laid out later in the same order
+        makeSampleTables(tablesInfo, singleSampleBuffer, is64,
+                ftyp.length + moovSize + mdat.length);
+
+        for (int i = 0; i < readers.length; i++) {
+            readers[i].rewind();
+            readersChunks[i] = null;
         }
 
-        outWrite(makeMdat(totalSampleSize, is64));
+        // everything is known, write the whole file sequentially (moov first)
+        outStream.write(ftyp);
+        outStream.write(auxBuffer.array());
+        outStream.write(mdat);
+        auxBuffer = null;
 
         final int[] sampleIndex = new int[readers.length];
+
+        int written = readers.length;
+        while (written > 0) {
+            written = 0;
+
+            for (int i = 0; i < readers.length; i++) {
+                if (sampleIndex[i] < 0) {
+                    continue; // track is done
+                }
+
+                final int limit = chunkLimit(singleSampleBuffer, sampleIndex[i]);
+
+                int j = 0;
+                for (; j < limit; j++) {
+                    final TrunEntry sample = getNextSample(i, false);
+
+                    if (sample == null) {
+                        sampleIndex[i] = -1;
+                        break;
+                    }
+
+                    sampleIndex[i]++;
+
+                    // copy the sample data without intermediate buffers
+                    readersChunks[i].transferSample(sample, outStream);
+                }
+
+                if (j > 0) {
+                    written++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the stsz, stss, ctts and stco tables of the moov by walking the samples info in the
+     * same order used to write the samples, the sample data is not read.
+     *
+     * @param tablesInfo         offsets of the tables in the moov
+     * @param singleSampleBuffer samples per chunk of a single audio track, or -1
+     * @param is64               if the chunk offsets are 64 bits
+     * @param dataOffset         offset of the first sample in the output
+     * @throws IOException if an I/O error occurs
+     */
+    private void makeSampleTables(final TablesInfo[] tablesInfo, final int singleSampleBuffer,
+                                  final boolean is64, final long dataOffset) throws IOException {
+        final int[] sampleIndex = new int[readers.length];
+        final int[] compositionCount = new int[readers.length];
+        final int[] compositionOffset = new int[readers.length];
         final int[] sizes
                 = new int[singleSampleBuffer > 0 ? singleSampleBuffer : SAMPLES_PER_CHUNK];
         final int[] sync = new int[singleSampleBuffer > 0 ? singleSampleBuffer : SAMPLES_PER_CHUNK];
 
+        for (int i = 0; i < readers.length; i++) {
+            compositionCount[i] = 1; // the index is not base zero
+            compositionOffset[i] = -1;
+        }
+
+        long offset = dataOffset;
         int written = readers.length;
         while (written > 0) {
             written = 0;
@@ -320,24 +359,18 @@ public class Mp4FromDashWriter {
                     continue; // track is done
                 }
 
-                final long chunkOffset = writeOffset;
+                final long chunkOffset = offset;
                 int syncCount = 0;
-                final int limit;
-                if (singleSampleBuffer > 0) {
-                    limit = singleSampleBuffer;
-                } else {
-                    limit = sampleIndex[i] == 0 ? SAMPLES_PER_CHUNK_INIT : SAMPLES_PER_CHUNK;
-                }
+                final int limit = chunkLimit(singleSampleBuffer, sampleIndex[i]);
 
                 int j = 0;
                 for (; j < limit; j++) {
-                    final Mp4DashSample sample = getNextSample(i);
+                    final TrunEntry sample = getNextSample(i, true);
 
                     if (sample == null) {
-                        if (tablesInfo[i].ctts > 0 && sampleExtra[i] >= 0) {
-                            writeEntryArray(tablesInfo[i].ctts, 1, sampleCount[i],
-                                    sampleExtra[i]); // flush last entries
-                            outRestore();
+                        if (tablesInfo[i].ctts > 0 && compositionOffset[i] >= 0) {
+                            writeEntryArray(tablesInfo[i].ctts, 1, compositionCount[i],
+                                    compositionOffset[i]); // flush last entries
                         }
                         sampleIndex[i] = -1;
                         break;
@@ -346,28 +379,27 @@ public class Mp4FromDashWriter {
                     sampleIndex[i]++;
 
                     if (tablesInfo[i].ctts > 0) {
-                        if (sample.info.sampleCompositionTimeOffset == sampleExtra[i]) {
-                            sampleCount[i]++;
+                        if (sample.sampleCompositionTimeOffset == compositionOffset[i]) {
+                            compositionCount[i]++;
                         } else {
-                            if (sampleExtra[i] >= 0) {
+                            if (compositionOffset[i] >= 0) {
                                 tablesInfo[i].ctts = writeEntryArray(tablesInfo[i].ctts, 2,
-                                        sampleCount[i], sampleExtra[i]);
-                                outRestore();
+                                        compositionCount[i], compositionOffset[i]);
                             }
-                            sampleCount[i] = 1;
-                            sampleExtra[i] = sample.info.sampleCompositionTimeOffset;
+                            compositionCount[i] = 1;
+                            compositionOffset[i] = sample.sampleCompositionTimeOffset;
                         }
                     }
 
-                    if (tablesInfo[i].stss > 0 && sample.info.isKeyframe) {
+                    if (tablesInfo[i].stss > 0 && sample.isKeyframe) {
                         sync[syncCount++] = sampleIndex[i];
                     }
 
                     if (tablesInfo[i].stsz > 0) {
-                        sizes[j] = sample.data.length;
+                        sizes[j] = sample.sampleSize;
                     }
 
-                    outWrite(sample.data, sample.data.length);
+                    offset += sample.sampleSize;
                 }
 
                 if (j > 0) {
@@ -389,80 +421,85 @@ public class Mp4FromDashWriter {
                                     (int) chunkOffset);
                         }
                     }
-
-                    outRestore();
                 }
             }
         }
+    }
 
-        if (auxBuffer != null) {
-            // dump moov
-            outSeek(ftypSize);
-            outStream.write(auxBuffer.array(), 0, auxBuffer.capacity());
-            auxBuffer = null;
+    /**
+     * @param singleSampleBuffer samples per chunk of a single audio track, or -1
+     * @param sampleIndex        amount of samples already written of the track
+     * @return the amount of samples of the next chunk, must match the stsc table
+     */
+    private static int chunkLimit(final int singleSampleBuffer, final int sampleIndex) {
+        if (singleSampleBuffer > 0) {
+            return singleSampleBuffer;
         }
+        return sampleIndex == 0 ? SAMPLES_PER_CHUNK_INIT : SAMPLES_PER_CHUNK;
     }
 
-    private Mp4DashSample getNextSample(final int track) throws IOException {
-        if (readersChunks[track] == null) {
-            readersChunks[track] = readers[track].getNextChunk(false);
+    /**
+     * Reads the info of the next sample, the data is left in the chunk of the track. Note: the
+     * returned instance is reused on every call
+     *
+     * @param track    index of the track
+     * @param infoOnly if the sample data is not going to be read
+     * @return the sample info, or {@code null} if there no more samples
+     * @throws IOException if an I/O error occurs
+     */
+    private TrunEntry getNextSample(final int track, final boolean infoOnly) throws IOException {
+        while (true) {
             if (readersChunks[track] == null) {
-                return null; // EOF reached
+                readersChunks[track] = readers[track].getNextChunk(infoOnly);
+                if (readersChunks[track] == null) {
+                    return null; // EOF reached
+                }
+            }
+
+            if (readersChunks[track].getNextSampleInfo(sampleInfo)) {
+                return sampleInfo;
             }
-        }
 
-        final Mp4DashSample sample = readersChunks[track].getNextSample();
-        if (sample == null) {
             readersChunks[track] = null;
-            return getNextSample(track);
-        } else {
-            return sample;
         }
     }
 
 
-    private int writeEntry64(final int offset, final long value) throws IOException {
-        outBackup();
-
+    private int writeEntry64(final int offset, final long value) {
         auxSeek(offset);
-        auxWrite(ByteBuffer.allocate(8).putLong(value).array());
+        auxWrite(entryBuffer(8).putLong(value).array(), 8);
 
         return offset + 8;
     }
 
-    private int writeEntryArray(final int offset, final int count, final int... values)
-            throws IOException {
-        outBackup();
-
+    private int writeEntryArray(final int offset, final int count, final int... values) {
         auxSeek(offset);
 
         final int size = count * 4;
-        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        final ByteBuffer buffer = entryBuffer(size);
 
         for (int i = 0; i < count; i++) {
             buffer.putInt(values[i]);
         }
 
-        auxWrite(buffer.array());
+        auxWrite(buffer.array(), size);
 
         return offset + size;
     }
 
-    private void outBackup() {
-        if (auxBuffer == null && lastWriteOffset < 0) {
-            lastWriteOffset = writeOffset;
-        }
-    }
-
     /**
-     * Restore to the previous position before the first call to writeEntry64()
-     * or writeEntryArray() methods.
+     * Gets a cleared buffer to write table entries, is reused between calls
+     *
+     * @param size the required capacity
+     * @return the buffer
      */
-    private void outRestore() throws IOException {
-        if (lastWriteOffset > 0) {
-            outSeek(lastWriteOffset);
-            lastWriteOffset = -1;
+    private ByteBuffer entryBuffer(final int size) {
+        if (entryBuffer.capacity() < size) {
+            entryBuffer = ByteBuffer.allocate(size);
         }
+
+        entryBuffer.clear();
+        return entryBuffer;
     }
 
     private void initChunkTables(final TablesInfo tables, final int firstCount,
@@ -503,40 +540,9 @@ public class Mp4FromDashWriter {
         }
     }
 
-    private void outWrite(final byte[] buffer) throws IOException {
-        outWrite(buffer, buffer.length);
-    }
-
-    private void outWrite(final byte[] buffer, final int count) throws IOException {
-        writeOffset += count;
-        outStream.write(buffer, 0, count);
-    }
-
-    private void outSeek(final long offset) throws IOException {
-        if (outStream.canSeek()) {
-            outStream.seek(offset);
-            writeOffset = offset;
-        } else if (outStream.canRewind()) {
-            outStream.rewind();
-            writeOffset = 0;
-            outSkip(offset);
-        } else {
-            throw new IOException("cannot seek or rewind the output stream");
-        }
-    }
-
-    private void outSkip(final long amount) throws IOException {
-        outStream.skip(amount);
-        writeOffset += amount;
-    }
-
-    private int lengthFor(final int offset) throws IOException {
+    private int lengthFor(final int offset) {
         final int size = auxOffset() - offset;
 
-        if (moovSimulation) {
-            return size;
-        }
-
         auxSeek(offset);
         auxWrite(size);
         auxSkip(size - 4);
@@ -544,8 +550,7 @@ public class Mp4FromDashWriter {
         return size;
     }
 
-    private int make(final int type, final int extra, final int columns, final int rows)
-            throws IOException {
+    private int make(final int type, final int extra, final int columns, final int rows) {
         final byte base = 16;
         final int size = columns * rows * 4;
         int total = size + base;
@@ -573,48 +578,31 @@ public class Mp4FromDashWriter {
         return offset + base;
     }
 
-    private void auxWrite(final int value) throws IOException {
-        auxWrite(ByteBuffer.allocate(4)
-                .putInt(value)
-                .array()
-        );
+    private void auxWrite(final int value) {
+        auxWrite(entryBuffer(4).putInt(value).array(), 4);
     }
 
-    private void auxWrite(final byte[] buffer) throws IOException {
-        if (moovSimulation) {
-            writeOffset += buffer.length;
-        } else if (auxBuffer == null) {
-            outWrite(buffer, buffer.length);
-        } else {
-            auxBuffer.put(buffer);
-        }
+    private void auxWrite(final byte[] buffer) {
+        auxWrite(buffer, buffer.length);
     }
 
-    private void auxSeek(final int offset) throws IOException {
-        if (moovSimulation) {
-            writeOffset = offset;
-        } else if (auxBuffer == null) {
-            outSeek(offset);
-        } else {
-            auxBuffer.position(offset);
-        }
+    private void auxWrite(final byte[] buffer, final int count) {
+        auxBuffer.put(buffer, 0, count);
     }
 
-    private void auxSkip(final int amount) throws IOException {
-        if (moovSimulation) {
-            writeOffset += amount;
-        } else if (auxBuffer == null) {
-            outSkip(amount);
-        } else {
-            auxBuffer.position(auxBuffer.position() + amount);
-        }
+    private void auxSeek(final int offset) {
+        auxBuffer.position(offset);
+    }
+
+    private void auxSkip(final int amount) {
+        auxBuffer.position(auxBuffer.position() + amount);
     }
 
     private int auxOffset() {
-        return auxBuffer == null ? (int) writeOffset : auxBuffer.position();
+        return auxBuffer.position();
     }
 
-    private int makeFtyp() throws IOException {
+    private byte[] makeFtyp() {
         int size = 16 + (compatibleBrands.size() * 4);
         if (overrideMainBrand != 0) {
             size += 4;
@@ -637,9 +625,7 @@ public class Mp4FromDashWriter {
             buffer.putInt(brand); // compatible brand
         }
 
-        outWrite(buffer.array());
-
-        return size;
+        return buffer.array();
     }
 
     private byte[] makeMdat(final long refSize, final boolean is64) {
@@ -661,7 +647,7 @@ public class Mp4FromDashWriter {
         return buffer.array();
     }
 
-    private void makeMvhd(final long longestTrack) throws IOException {
+    private void makeMvhd(final long longestTrack) {
         auxWrite(new byte[]{
                 0x00, 0x00, 0x00, 0x78, 0x6D, 0x76, 0x68, 0x64, 0x01, 0x00, 0x00, 0x00
         });
@@ -689,8 +675,50 @@ public class Mp4FromDashWriter {
         );
     }
 
+    /**
+     * Computes the exact moov length from the row count of every sample table
+     *
+     * @param tablesInfo row counts of the tables of every track
+     * @param is64       if the chunk offsets are 64 bits
+     * @return the moov length
+     */
+    private int moovLength(final TablesInfo[] tablesInfo, final boolean is64) {
+        long length = 8 + 0x78; // moov header and mvhd
+
+        for (int i = 0; i < tracks.length; i++) {
+            final Mdia mdia = tracks[i].trak.mdia;
+            final TablesInfo tables = tablesInfo[i];
+
+            length += 8 + 0x68 + 0x24; // trak header, tkhd and edts
+            length += 8 + mdia.mdhd.length + 0x21; // mdia header, mdhd and hdlr
+            length += 8 + mdia.minf.mhd.length + mdia.minf.dinf.length; // minf
+            length += 8 + mdia.minf.stblStsd.length; // stbl header and stsd
+
+            length += 16 + 8; // stts
+            if (tables.stss > 0) {
+                length += 16 + tables.stss * 4L;
+            }
+            if (tables.ctts > 0) {
+                length += 16 + tables.ctts * 8L;
+            }
+            length += 16 + tables.stsc * 12L;
+            length += 20 + tables.stsz * 4L;
+            length += 16 + tables.stco * (is64 ? 8L : 4L);
+
+            if (tracks[i].kind == TrackKind.Audio) {
+                length += 0x1A + 0x1C; // sgpd and sbgp
+            }
+        }
+
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("moov too big");
+        }
+
+        return (int) length;
+    }
+
     private int makeMoov(final int[] defaultMediaTime, final TablesInfo[] tablesInfo,
-                         final boolean is64) throws RuntimeException, IOException {
+                         final boolean is64) throws RuntimeException {
         final int start = auxOffset();
 
         auxWrite(new byte[]{
@@ -724,7 +752,7 @@ public class Mp4FromDashWriter {
     }
 
     private void makeTrak(final int index, final long duration, final int defaultMediaTime,
-                          final TablesInfo tables, final boolean is64) throws IOException {
+                          final TablesInfo tables, final boolean is64) {
         final int start = auxOffset();
 
         auxWrite(new byte[]{
@@ -785,7 +813,7 @@ public class Mp4FromDashWriter {
     }
 
     private void makeMdia(final Mdia mdia, final TablesInfo tablesInfo, final boolean is64,
-                          final boolean isAudio) throws IOException {
+                          final boolean isAudio) {
         final int startMdia = auxOffset();
         auxWrite(new byte[]{0x00, 0x00, 0x00, 0x00, 0x6D, 0x64, 0x69, 0x61}); // mdia
         auxWrite(mdia.mdhd);
@@ -804,34 +832,21 @@ public class Mp4FromDashWriter {
         // In audio tracks the following tables is not required: ssts ctts
         // And stsz can be empty if has a default sample size
         //
-        if (moovSimulation) {
-            make(0x73747473, -1, 2, 1); // stts
-            if (tablesInfo.stss > 0) {
-                make(0x73747373, -1, 1, tablesInfo.stss);
-            }
-            if (tablesInfo.ctts > 0) {
-                make(0x63747473, -1, 2, tablesInfo.ctts);
-            }
-            make(0x73747363, -1, 3, tablesInfo.stsc);
-            make(0x7374737A, tablesInfo.stszDefault, 1, tablesInfo.stsz);
-            make(is64 ? 0x636F3634 : 0x7374636F, -1, is64 ? 2 : 1, tablesInfo.stco);
-        } else {
-            tablesInfo.stts = make(0x73747473, -1, 2, 1);
-            if (tablesInfo.stss > 0) {
-                tablesInfo.stss = make(0x73747373, -1, 1, tablesInfo.stss);
-            }
-            if (tablesInfo.ctts > 0) {
-                tablesInfo.ctts = make(0x63747473, -1, 2, tablesInfo.ctts);
-            }
-            tablesInfo.stsc = make(0x73747363, -1, 3, tablesInfo.stsc);
-            tablesInfo.stsz = make(0x7374737A, tablesInfo.stszDefault, 1, tablesInfo.stsz);
-            tablesInfo.stco = make(is64 ? 0x636F3634 : 0x7374636F, -1, is64 ? 2 : 1,
-                    tablesInfo.stco);
+        tablesInfo.stts = make(0x73747473, -1, 2, 1);
+        if (tablesInfo.stss > 0) {
+            tablesInfo.stss = make(0x73747373, -1, 1, tablesInfo.stss);
+        }
+        if (tablesInfo.ctts > 0) {
+            tablesInfo.ctts = make(0x63747473, -1, 2, tablesInfo.ctts);
         }
+        tablesInfo.stsc = make(0x73747363, -1, 3, tablesInfo.stsc);
+        tablesInfo.stsz = make(0x7374737A, tablesInfo.stszDefault, 1, tablesInfo.stsz);
+        tablesInfo.stco = make(is64 ? 0x636F3634 : 0x7374636F, -1, is64 ? 2 : 1,
+                tablesInfo.stco);
 
         if (isAudio) {
             auxWrite(makeSgpd());
-            tablesInfo.sbgp = makeSbgp(); // during simulation the returned offset is ignored
+            tablesInfo.sbgp = makeSbgp();
         }
 
         lengthFor(startStbl);
@@ -855,7 +870,7 @@ public class Mp4FromDashWriter {
         return buffer.array();
     }
 
-    private int makeSbgp() throws IOException {
+    private int makeSbgp() {
         final int offset = auxOffset();
 
         auxWrite(new byte[] {
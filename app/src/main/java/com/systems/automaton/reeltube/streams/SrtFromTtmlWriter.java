@@ -1,18 +1,15 @@
 package com.systems.automaton.reeltube.streams;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
-import org.jsoup.nodes.TextNode;
-import org.jsoup.parser.Parser;
-import org.jsoup.select.Elements;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+import com.systems.automaton.reeltube.streams.io.SharpInputStream;
 import com.systems.automaton.reeltube.streams.io.SharpStream;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * @author kapodamy
@@ -20,6 +17,11 @@ import java.nio.charset.StandardCharsets;
 public class SrtFromTtmlWriter {
     private static final String NEW_LINE = "\r\n";
 
+    // kind of the open elements, enough to match "body > div > p" while streaming
+    private static final int ELEMENT_OTHER = 0;
+    private static final int ELEMENT_BODY = 1;
+    private static final int ELEMENT_BODY_DIV = 2;
+
     private final SharpStream out;
     private final boolean ignoreEmptyFrames;
     private final Charset charset = StandardCharsets.UTF_8;
@@ -31,12 +33,6 @@ public class SrtFromTtmlWriter {
         this.ignoreEmptyFrames = ignoreEmptyFrames;
     }
 
-    private static String getTimestamp(final Element frame, final String attr) {
-        return frame
-                .attr(attr)
-                .replace('.', ','); // SRT subtitles uses comma as decimal separator
-    }
-
     private void writeFrame(final String begin, final String end, final StringBuilder text)
             throws IOException {
         writeString(String.valueOf(frameIndex++));
@@ -54,50 +50,115 @@ public class SrtFromTtmlWriter {
         out.write(text.getBytes(charset));
     }
 
-    public void build(final SharpStream ttml) throws IOException {
-        /*
-         * TTML parser with BASIC support
-         * multiple CUE is not supported
-         * styling is not supported
-         * tag timestamps (in auto-generated subtitles) are not supported, maybe in the future
-         * also TimestampTagOption enum is not applicable
-         * Language parsing is not supported
-         */
-
-        // parse XML
-        final byte[] buffer = new byte[(int) ttml.available()];
-        ttml.read(buffer);
-        final Document doc = Jsoup.parse(new ByteArrayInputStream(buffer), "UTF-8", "",
-                Parser.xmlParser());
-
-        final StringBuilder text = new StringBuilder(128);
-        final Elements paragraphList = doc.select("body > div > p");
+    private static String getTimestamp(final XmlPullParser frame, final String attr) {
+        for (int i = 0; i < frame.getAttributeCount(); i++) {
+            if (frame.getAttributeName(i).equalsIgnoreCase(attr)) {
+                // SRT subtitles uses comma as decimal separator
+                return frame.getAttributeValue(i).replace('.', ',');
+            }
+        }
+        return "";
+    }
 
-        // check if has frames
-        if (paragraphList.size() < 1) {
-            return;
+    /**
+     * Same whitespace normalization done by Jsoup's {@code TextNode#text()}, the runs of whitespace
+     * are collapsed into a single space and the invisible characters are dropped.
+     */
+    private static void appendNormalized(final StringBuilder text, final CharSequence raw) {
+        boolean lastWasWhite = false;
+
+        for (int i = 0; i < raw.length(); i++) {
+            final char c = raw.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == 160) {
+                if (!lastWasWhite) {
+                    text.append(' ');
+                    lastWasWhite = true;
+                }
+            } else if (c != 8203 && c != 173) {
+                text.append(c);
+                lastWasWhite = false;
+            }
         }
+    }
 
-        for (final Element paragraph : paragraphList) {
-            text.setLength(0);
+    /**
+     * Converts the subtitle while is read, only the current paragraph is kept in memory. The
+     * paragraphs matching "body &gt; div &gt; p" are written, with their direct text normalized
+     * like Jsoup's {@code TextNode#text()} and the &lt;br&gt; as line breaks.
+     *
+     * @param ttml the subtitle to convert
+     * @throws IOException            if an I/O error occurs
+     * @throws XmlPullParserException if the subtitle is not a well-formed XML
+     */
+    public void build(final SharpStream ttml) throws IOException, XmlPullParserException {
+        final XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+        parser.setInput(new SharpInputStream(ttml), null);
 
-            for (final Node children : paragraph.childNodes()) {
-                if (children instanceof TextNode) {
-                    text.append(((TextNode) children).text());
-                } else if (children instanceof Element
-                        && ((Element) children).tagName().equalsIgnoreCase("br")) {
-                    text.append(NEW_LINE);
+        final StringBuilder text = new StringBuilder(128);
+        final StringBuilder textNode = new StringBuilder(128);
+        int[] path = new int[16];
+        int paragraphDepth = -1;
+        String begin = null;
+        String end = null;
+
+        int event = parser.nextToken();
+        while (event != XmlPullParser.END_DOCUMENT) {
+            final int depth = parser.getDepth();
+
+            if (paragraphDepth >= 0) {
+                if ((event == XmlPullParser.TEXT || event == XmlPullParser.ENTITY_REF
+                        || event == XmlPullParser.IGNORABLE_WHITESPACE)
+                        && depth == paragraphDepth) {
+                    // consecutive text and references are a single text node
+                    final String chars = parser.getText();
+                    if (chars != null) {
+                        textNode.append(chars);
+                    }
+                    event = parser.nextToken();
+                    continue;
                 }
-            }
 
-            if (ignoreEmptyFrames && text.length() < 1) {
-                continue;
+                appendNormalized(text, textNode);
+                textNode.setLength(0);
             }
 
-            final String begin = getTimestamp(paragraph, "begin");
-            final String end = getTimestamp(paragraph, "end");
+            if (event == XmlPullParser.START_TAG) {
+                if (depth >= path.length) {
+                    path = Arrays.copyOf(path, path.length * 2);
+                }
+
+                final String name = parser.getName();
+                final int parent = path[depth - 1];
+
+                if (name.equalsIgnoreCase("body")) {
+                    path[depth] = ELEMENT_BODY;
+                } else if (name.equalsIgnoreCase("div") && parent == ELEMENT_BODY) {
+                    path[depth] = ELEMENT_BODY_DIV;
+                } else {
+                    path[depth] = ELEMENT_OTHER;
+                }
+
+                if (paragraphDepth < 0 && parent == ELEMENT_BODY_DIV
+                        && name.equalsIgnoreCase("p")) {
+                    paragraphDepth = depth;
+                    begin = getTimestamp(parser, "begin");
+                    end = getTimestamp(parser, "end");
+                    text.setLength(0);
+                } else if (depth == paragraphDepth + 1 && name.equalsIgnoreCase("br")) {
+                    text.append(NEW_LINE);
+                }
+            } else if (event == XmlPullParser.CDSECT && depth == paragraphDepth) {
+                // not normalized, like CDataNode#text()
+                text.append(parser.getText());
+            } else if (event == XmlPullParser.END_TAG && depth == paragraphDepth) {
+                paragraphDepth = -1;
+
+                if (!ignoreEmptyFrames || text.length() > 0) {
+                    writeFrame(begin, end, text);
+                }
+            }
 
-            writeFrame(begin, end, text);
+            event = parser.nextToken();
         }
     }
 }
@@ -9,11 +9,13 @@ import com.systems.automaton.reeltube.streams.WebMReader.WebMTrack;
 import com.systems.automaton.reeltube.streams.io.SharpStream;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author kapodamy
@@ -26,6 +28,17 @@ public class WebMWriter implements Closeable {
     private static final byte CLUSTER_HEADER_SIZE = 8;
     private static final int CUE_RESERVE_SIZE = 65535;
     private static final byte MINIMUM_EBML_VOID_SIZE = 4;
+    private static final int BLOCKS_PER_TRACK = 32;
+
+    /**
+     * Returned instead of a block when the cluster of the track ends
+     */
+    private static final Block CLUSTER_END = new Block();
+
+    /**
+     * Queued after the last block of a track, used by {@link TrackReader}
+     */
+    private static final Block TRACK_END = new Block();
 
     private WebMReader.WebMTrack[] infoTracks;
     private SharpStream[] sourceTracks;
@@ -34,12 +47,15 @@ public class WebMWriter implements Closeable {
 
     private boolean done = false;
     private boolean parsed = false;
+    private boolean parallel = false;
 
     private long written = 0;
 
     private Segment[] readersSegment;
     private Cluster[] readersCluster;
 
+    private TrackReader[] trackReaders;
+
     private ArrayList<ClusterInfo> clustersOffsetsSizes;
 
     private byte[] outBuffer;
@@ -102,6 +118,16 @@ public class WebMWriter implements Closeable {
         return done;
     }
 
+    /**
+     * Parses each source in its own thread while the blocks are written, instead of reading
+     * and writing in the same thread. Must be set before calling {@link #build(SharpStream)}
+     *
+     * @param enabled {@code true} to read the sources in parallel
+     */
+    public void setParallelDemux(final boolean enabled) {
+        parallel = enabled;
+    }
+
     @Override
     public void close() {
         done = true;
@@ -210,65 +236,82 @@ public class WebMWriter implements Closeable {
 
         int newClusterByTrackId = -1;
 
-        while (blockWritten > 0) {
-            blockWritten = 0;
-            int i = 0;
-            while (i < readers.length) {
-                final Block bloq = getNextBlockFrom(i);
-                if (bloq == null) {
-                    i++;
-                    continue;
-                }
+        // in the serial mode, only one block is read at a time
+        final Block block = new Block();
 
-                if (bloq.data == null) {
-                    blockWritten = 1; // fake block
-                    newClusterByTrackId = i;
-                    i++;
-                    continue;
-                }
+        if (parallel) {
+            startTrackReaders();
+        }
 
-                if (newClusterByTrackId == i) {
-                    limitTimecodeByTrackId = i;
-                    newClusterByTrackId = -1;
-                    baseTimecode = bloq.absoluteTimecode;
-                    limitTimecode = baseTimecode + INTERV;
-                    currentClusterOffset = makeCluster(out, baseTimecode, currentClusterOffset,
-                            true);
-                }
+        try {
+            while (blockWritten > 0) {
+                blockWritten = 0;
+                int i = 0;
+                while (i < readers.length) {
+                    final Block bloq;
+                    if (trackReaders == null) {
+                        bloq = getNextBlockFrom(i, block);
+                    } else {
+                        bloq = trackReaders[i].next();
+                    }
+
+                    if (bloq == null) {
+                        i++;
+                        continue;
+                    }
 
-                if (cuesForTrackId == i) {
-                    if ((nextCueTime > -1 && bloq.absoluteTimecode >= nextCueTime)
-                            || (nextCueTime < 0 && bloq.isKeyframe())) {
-                        if (nextCueTime > -1) {
-                            nextCueTime += DEFAULT_CUES_EACH_MS;
+                    if (bloq == CLUSTER_END) {
+                        blockWritten = 1; // fake block
+                        newClusterByTrackId = i;
+                        i++;
+                        continue;
+                    }
+
+                    if (newClusterByTrackId == i) {
+                        limitTimecodeByTrackId = i;
+                        newClusterByTrackId = -1;
+                        baseTimecode = bloq.absoluteTimecode;
+                        limitTimecode = baseTimecode + INTERV;
+                        currentClusterOffset = makeCluster(out, baseTimecode, currentClusterOffset,
+                                true);
+                    }
+
+                    if (cuesForTrackId == i) {
+                        if ((nextCueTime > -1 && bloq.absoluteTimecode >= nextCueTime)
+                                || (nextCueTime < 0 && bloq.isKeyframe())) {
+                            if (nextCueTime > -1) {
+                                nextCueTime += DEFAULT_CUES_EACH_MS;
+                            }
+                            keyFrames.add(new KeyFrame(segmentOffset, currentClusterOffset, written,
+                                    bloq.absoluteTimecode));
                         }
-                        keyFrames.add(new KeyFrame(segmentOffset, currentClusterOffset, written,
-                                bloq.absoluteTimecode));
                     }
-                }
 
-                writeBlock(out, bloq, baseTimecode);
-                blockWritten++;
+                    writeBlock(out, bloq, baseTimecode);
+                    blockWritten++;
 
-                if (defaultSampleDuration[i] < 0 && duration[i] >= 0) {
-                    // if the sample duration in unknown,
-                    // calculate using current_duration - previous_duration
-                    defaultSampleDuration[i] = (int) (bloq.absoluteTimecode - duration[i]);
-                }
-                duration[i] = bloq.absoluteTimecode;
+                    if (defaultSampleDuration[i] < 0 && duration[i] >= 0) {
+                        // if the sample duration in unknown,
+                        // calculate using current_duration - previous_duration
+                        defaultSampleDuration[i] = (int) (bloq.absoluteTimecode - duration[i]);
+                    }
+                    duration[i] = bloq.absoluteTimecode;
 
-                if (limitTimecode < 0) {
-                    limitTimecode = bloq.absoluteTimecode + INTERV;
-                    continue;
-                }
+                    if (limitTimecode < 0) {
+                        limitTimecode = bloq.absoluteTimecode + INTERV;
+                        continue;
+                    }
 
-                if (bloq.absoluteTimecode >= limitTimecode) {
-                    if (limitTimecodeByTrackId != i) {
-                        limitTimecode += INTERV - (bloq.absoluteTimecode - limitTimecode);
+                    if (bloq.absoluteTimecode >= limitTimecode) {
+                        if (limitTimecodeByTrackId != i) {
+                            limitTimecode += INTERV - (bloq.absoluteTimecode - limitTimecode);
+                        }
+                        i++;
                     }
-                    i++;
                 }
             }
+        } finally {
+            stopTrackReaders();
         }
 
         makeCluster(out, -1, currentClusterOffset, false);
@@ -329,7 +372,17 @@ public class WebMWriter implements Closeable {
         }
     }
 
-    private Block getNextBlockFrom(final int internalTrackId) throws IOException {
+    /**
+     * Reads the next block of the given track
+     *
+     * @param internalTrackId index of the source
+     * @param bloq            block to fill, its buffer is reused
+     * @return the given block, {@link #CLUSTER_END} if the cluster ends here or {@code null} if
+     * there are no more blocks in the track
+     * @throws IOException if an I/O error occurs
+     */
+    private Block getNextBlockFrom(final int internalTrackId, final Block bloq)
+            throws IOException {
         if (readersSegment[internalTrackId] == null) {
             readersSegment[internalTrackId] = readers[internalTrackId].getNextSegment();
             if (readersSegment[internalTrackId] == null) {
@@ -341,18 +394,30 @@ public class WebMWriter implements Closeable {
             readersCluster[internalTrackId] = readersSegment[internalTrackId].getNextCluster();
             if (readersCluster[internalTrackId] == null) {
                 readersSegment[internalTrackId] = null;
-                return getNextBlockFrom(internalTrackId);
+                return getNextBlockFrom(internalTrackId, bloq);
             }
         }
 
         final SimpleBlock res = readersCluster[internalTrackId].getNextSimpleBlock();
         if (res == null) {
             readersCluster[internalTrackId] = null;
-            return new Block(); // fake block to indicate the end of the cluster
+            return CLUSTER_END;
+        }
+
+        if (bloq.data == null || bloq.data.length < res.dataSize) {
+            bloq.data = new byte[res.dataSize];
+        }
+
+        int read = 0;
+        while (read < res.dataSize) {
+            final int count = res.data.read(bloq.data, read, res.dataSize - read);
+            if (count < 1) {
+                throw new EOFException("Truncated SimpleBlock, missing "
+                        + (res.dataSize - read) + " bytes");
+            }
+            read += count;
         }
 
-        final Block bloq = new Block();
-        bloq.data = res.data;
         bloq.dataSize = res.dataSize;
         bloq.trackNumber = internalTrackId;
         bloq.flags = res.flags;
@@ -391,25 +456,49 @@ public class WebMWriter implements Closeable {
             throw new IndexOutOfBoundsException("SimpleBlock timecode overflow.");
         }
 
-        final ArrayList<byte[]> listBuffer = new ArrayList<>(5);
-        listBuffer.add(new byte[]{(byte) 0xa3});
-        listBuffer.add(null); // block size
-        listBuffer.add(encode(bloq.trackNumber + 1, false));
-        listBuffer.add(ByteBuffer.allocate(DataReader.SHORT_SIZE).putShort((short) relativeTimeCode)
-                .array());
-        listBuffer.add(new byte[]{bloq.flags});
+        final int trackNumber = bloq.trackNumber + 1;
+        final int blockSize = encodedLength(trackNumber) + DataReader.SHORT_SIZE + 1
+                + bloq.dataSize;
+
+        // the header is built in the output buffer, no arrays are created per block
+        int length = 0;
+        outBuffer[length++] = (byte) 0xa3;
+        length += encode(blockSize, false, outBuffer, length);
+        length += encode(trackNumber, false, outBuffer, length);
+        outByteBuffer.putShort(length, (short) relativeTimeCode);
+        length += DataReader.SHORT_SIZE;
+        outBuffer[length++] = bloq.flags;
 
-        int blockSize = bloq.dataSize;
-        for (int i = 2; i < listBuffer.size(); i++) {
-            blockSize += listBuffer.get(i).length;
+        dump(outBuffer, length, stream);
+        dump(bloq.data, bloq.dataSize, stream);
+    }
+
+    private void startTrackReaders() {
+        trackReaders = new TrackReader[readers.length];
+        for (int i = 0; i < trackReaders.length; i++) {
+            trackReaders[i] = new TrackReader(i);
+            trackReaders[i].start();
         }
-        listBuffer.set(1, encode(blockSize, false));
+    }
 
-        dump(listBuffer, stream);
+    private void stopTrackReaders() {
+        if (trackReaders == null) {
+            return;
+        }
 
-        int read;
-        while ((read = bloq.data.read(outBuffer)) > 0) {
-            dump(outBuffer, read, stream);
+        // the readers are already finished, unless the writing failed
+        for (final TrackReader reader : trackReaders) {
+            reader.interrupt();
+        }
+
+        try {
+            for (final TrackReader reader : trackReaders) {
+                reader.join();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            trackReaders = null;
         }
     }
 
@@ -634,6 +723,34 @@ public class WebMWriter implements Closeable {
     }
 
     private byte[] encode(final long number, final boolean withLength) {
+        final byte[] buffer = new byte[(withLength ? 1 : 0) + encodedLength(number)];
+        encode(number, withLength, buffer, 0);
+        return buffer;
+    }
+
+    private int encode(final long number, final boolean withLength, final byte[] buffer,
+                       final int offset) {
+        final int length = encodedLength(number);
+        final int start = withLength ? offset + 1 : offset;
+        final long marker = (long) Math.floor((length - 1f) / 8f);
+
+        int shift = 0;
+        for (int i = length - 1; i >= 0; i--, shift += 8) {
+            long b = number >>> shift;
+            if (!withLength && i == marker) {
+                b = b | (0x80 >>> (length - 1));
+            }
+            buffer[start + i] = (byte) b;
+        }
+
+        if (withLength) {
+            buffer[offset] = (byte) (0x80 | length);
+        }
+
+        return start - offset + length;
+    }
+
+    private int encodedLength(final long number) {
         int length = -1;
         for (int i = 1; i <= 7; i++) {
             if (number < Math.pow(2, 7 * i)) {
@@ -650,24 +767,7 @@ public class WebMWriter implements Closeable {
             length++;
         }
 
-        final int offset = withLength ? 1 : 0;
-        final byte[] buffer = new byte[offset + length];
-        final long marker = (long) Math.floor((length - 1f) / 8f);
-
-        int shift = 0;
-        for (int i = length - 1; i >= 0; i--, shift += 8) {
-            long b = number >>> shift;
-            if (!withLength && i == marker) {
-                b = b | (0x80 >>> (length - 1));
-            }
-            buffer[offset + i] = (byte) b;
-        }
-
-        if (withLength) {
-            buffer[0] = (byte) (0x80 | length);
-        }
-
-        return buffer;
+        return length;
     }
 
     private ArrayList<byte[]> encode(final String value) {
@@ -736,7 +836,7 @@ public class WebMWriter implements Closeable {
     }
 
     static class Block {
-        InputStream data;
+        byte[] data;
         int trackNumber;
         byte flags;
         int dataSize;
@@ -758,4 +858,129 @@ public class WebMWriter implements Closeable {
         long offset;
         int size;
     }
+
+    /**
+     * Parses the blocks of a source in its own thread. The blocks are written in a bounded ring
+     * of reusable blocks, the writer takes them in order and a slot is reused after its block
+     * was written. Only one thread writes and only one reads, so the ring is not locked, a
+     * thread only parks while the ring is full or empty.
+     */
+    private final class TrackReader extends Thread {
+        private final int internalTrackId;
+        private final Block[] pool;
+        private final Block[] ring;
+        private final int mask;
+
+        /**
+         * Amount of blocks taken by the writer and queued by the reader, the difference is the
+         * amount of blocks in the ring
+         */
+        private volatile long head;
+        private volatile long tail;
+
+        private volatile boolean readerParked;
+        private volatile boolean writerParked;
+        private final Thread writer;
+
+        private Exception error;
+        private boolean taken;
+        private boolean ended;
+
+        TrackReader(final int internalTrackId) {
+            super("WebMWriter-track" + internalTrackId);
+            this.internalTrackId = internalTrackId;
+            this.writer = Thread.currentThread();
+
+            pool = new Block[BLOCKS_PER_TRACK];
+            ring = new Block[BLOCKS_PER_TRACK];
+            mask = BLOCKS_PER_TRACK - 1;
+
+            for (int i = 0; i < BLOCKS_PER_TRACK; i++) {
+                pool[i] = new Block();
+            }
+        }
+
+        @Override
+        public void run() {
+            Block res;
+            do {
+                final long slot = tail;
+                while (slot - head >= ring.length) {
+                    readerParked = true;
+                    if (slot - head >= ring.length) {
+                        LockSupport.park(this);
+                    }
+                    readerParked = false;
+
+                    if (isInterrupted()) {
+                        return; // the writer was stopped
+                    }
+                }
+
+                final Block bloq = pool[(int) slot & mask];
+                try {
+                    res = getNextBlockFrom(internalTrackId, bloq);
+                } catch (final IOException | RuntimeException e) {
+                    error = e;
+                    res = null;
+                }
+
+                ring[(int) slot & mask] = res == null ? TRACK_END : res;
+                tail = slot + 1;
+
+                if (writerParked) {
+                    LockSupport.unpark(writer);
+                }
+            } while (res != null && !isInterrupted());
+        }
+
+        /**
+         * Takes the next block of the track, the block returned by the previous call is
+         * recycled
+         *
+         * @return same as {@link #getNextBlockFrom(int, Block)}
+         * @throws IOException if the track can not be read
+         */
+        Block next() throws IOException {
+            if (taken) {
+                taken = false;
+                head++;
+
+                // wake up the reader once half of the ring is free, not for every block
+                if (readerParked && tail - head <= ring.length / 2) {
+                    LockSupport.unpark(this);
+                }
+            }
+            if (ended) {
+                return null;
+            }
+
+            final long slot = head;
+            while (slot == tail) {
+                writerParked = true;
+                if (slot == tail) {
+                    LockSupport.park(this);
+                }
+                writerParked = false;
+
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("The muxing was interrupted");
+                }
+            }
+
+            final Block bloq = ring[(int) slot & mask];
+            if (bloq == TRACK_END) {
+                ended = true;
+                if (error instanceof IOException) {
+                    throw (IOException) error;
+                } else if (error != null) {
+                    throw (RuntimeException) error;
+                }
+                return null;
+            }
+
+            taken = true;
+            return bloq;
+        }
+    }
 }
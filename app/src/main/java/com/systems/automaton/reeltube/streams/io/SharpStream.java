@@ -3,6 +3,7 @@ package com.systems.automaton.reeltube.streams.io;
 import java.io.Closeable;
 import java.io.Flushable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Based on C#'s Stream class. SharpStream is a wrapper around the 2 different APIs for SAF
@@ -21,6 +22,26 @@ public abstract class SharpStream implements Closeable, Flushable {
 
     public abstract int read(byte[] buffer, int offset, int count) throws IOException;
 
+    /**
+     * Reads the next bytes without copying them, the returned buffer is a view of the content
+     * of the stream (for example, a file mapped in the memory). The stream position is
+     * advanced by the amount of bytes in the buffer.
+     *
+     * @param amount maximum amount of bytes to read
+     * @return a buffer with the bytes read, less than requested at the end of a mapped region
+     * or empty if the end of the stream was reached. The buffer must not be modified, and can be
+     * reused by the next read
+     * @throws IOException if an I/O error occurs
+     * @see #canReadMapped()
+     */
+    public ByteBuffer readMapped(final int amount) throws IOException {
+        throw new IOException("Not implemented");
+    }
+
+    public boolean canReadMapped() {
+        return false;
+    }
+
     public abstract long skip(long amount) throws IOException;
 
     public abstract long available();
@@ -52,6 +73,32 @@ public abstract class SharpStream implements Closeable, Flushable {
 
     public abstract void write(byte[] buffer, int offset, int count) throws IOException;
 
+    /**
+     * Writes the remaining bytes of the buffer at the given position. Implementations backed by
+     * a {@link java.nio.channels.FileChannel} neither use nor change the stream position, so
+     * multiple threads can write at once. The default implementation seeks and writes.
+     *
+     * @param buffer   the data to write, consumed by this method
+     * @param position absolute position in the stream
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(final ByteBuffer buffer, final long position) throws IOException {
+        seek(position);
+
+        if (buffer.hasArray()) {
+            write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        final byte[] chunk = new byte[Math.min(buffer.remaining(), 64 * 1024)];
+        while (buffer.hasRemaining()) {
+            final int length = Math.min(buffer.remaining(), chunk.length);
+            buffer.get(chunk, 0, length);
+            write(chunk, 0, length);
+        }
+    }
+
     public void flush() throws IOException {
         // STUB
     }
@@ -19,7 +19,10 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import static android.provider.DocumentsContract.Document.COLUMN_DISPLAY_NAME;
 import static android.provider.DocumentsContract.Root.COLUMN_DOCUMENT_ID;
@@ -126,6 +129,18 @@ public class StoredDirectoryHelper {
                 false);
     }
 
+    /**
+     * Creates a file whose name is known to be free, see {@link #listFileNames()}. Unlike
+     * {@link #createFile(String, String)} the directory is not searched again.
+     *
+     * @param filename the name of the file, not in use
+     * @param mime     the mime type of the file
+     * @return the file, or {@code null} if it cannot be created
+     */
+    public StoredFileHelper createNewFile(final String filename, final String mime) {
+        return createFile(filename, mime, true);
+    }
+
     private StoredFileHelper createFile(final String filename, final String mime,
                                         final boolean safe) {
         final StoredFileHelper storage;
@@ -219,6 +234,46 @@ public class StoredDirectoryHelper {
         return res == null ? null : res.getUri();
     }
 
+    /**
+     * Lists the names of the files in this directory, to check many names with a single listing
+     * ({@link #findFile(String)} lists the whole directory on each call when SAF is used).
+     *
+     * @return the names in lower case
+     */
+    @NonNull
+    public Set<String> listFileNames() {
+        final Set<String> names = new HashSet<>();
+
+        if (docTree == null) {
+            final File[] files = ioTree.listFiles();
+            if (files != null) {
+                for (final File file : files) {
+                    names.add(file.getName().toLowerCase());
+                }
+            }
+        } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            for (final DocumentFile file : docTree.listFiles()) {
+                addIfStartWith(names, "", file.getName());
+            }
+        } else {
+            // warning: SAF file listing is very slow
+            final Uri docTreeChildren = DocumentsContract.buildChildDocumentsUriUsingTree(
+                    docTree.getUri(), DocumentsContract.getDocumentId(docTree.getUri()));
+            final String[] projection = new String[]{COLUMN_DISPLAY_NAME};
+
+            try (Cursor cursor = context.getContentResolver().query(docTreeChildren, projection,
+                    null, null, null)) {
+                if (cursor != null) {
+                    while (cursor.moveToNext()) {
+                        addIfStartWith(names, "", cursor.getString(0));
+                    }
+                }
+            }
+        }
+
+        return names;
+    }
+
     public boolean canWrite() {
         return docTree == null ? ioTree.canWrite() : docTree.canWrite();
     }
@@ -242,7 +297,7 @@ public class StoredDirectoryHelper {
     //      Utils
     ///////////////////
 
-    private static void addIfStartWith(final ArrayList<String> list, @NonNull final String base,
+    private static void addIfStartWith(final Collection<String> list, @NonNull final String base,
                                        final String str) {
         if (isNullOrEmpty(str)) {
             return;
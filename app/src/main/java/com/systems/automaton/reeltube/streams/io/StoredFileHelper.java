@@ -27,6 +27,7 @@ import java.net.URI;
 
 import us.shandian.giga.io.FileStream;
 import us.shandian.giga.io.FileStreamSAF;
+import us.shandian.giga.io.MappedFileStream;
 
 public class StoredFileHelper implements Serializable {
     private static final boolean DEBUG = MainActivity.DEBUG;
@@ -196,6 +197,22 @@ public class StoredFileHelper implements Serializable {
         }
     }
 
+    /**
+     * Opens the file only for reading, a local file is mapped in the memory.
+     *
+     * @return the stream
+     * @throws IOException if the file cannot be opened
+     */
+    public SharpStream getReadStream() throws IOException {
+        assertValid();
+
+        if (docFile == null) {
+            return new MappedFileStream(ioFile);
+        } else {
+            return new FileStreamSAF(context.getContentResolver(), docFile.getUri());
+        }
+    }
+
     /**
      * Indicates whether it's using the {@code java.io} API.
      *
@@ -393,6 +410,25 @@ public class StoredFileHelper implements Serializable {
                 .equalsIgnoreCase(DocumentsContract.getDocumentId(storage.docFile.getUri()));
     }
 
+    /**
+     * Gets a key for lookups, two valid storages have the same key if
+     * {@link #equals(StoredFileHelper)} says they are the same file.
+     *
+     * @return the key, or {@code null} if this storage is invalid (matched by name and type)
+     */
+    @Nullable
+    public String getLookupKey() {
+        if (isInvalid()) {
+            return null;
+        }
+
+        if (isDirect()) {
+            return "file:" + getLowerCase(ioFile.getPath());
+        }
+
+        return "document:" + getLowerCase(DocumentsContract.getDocumentId(docFile.getUri()));
+    }
+
     @NonNull
     @Override
     public String toString() {
@@ -55,6 +55,9 @@ import com.systems.automaton.reeltube.util.external_communication.TextLinkifier;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.reactivex.rxjava3.core.Maybe;
 import io.reactivex.rxjava3.core.Single;
@@ -63,6 +66,19 @@ import io.reactivex.rxjava3.disposables.CompositeDisposable;
 public final class ExtractorHelper {
     private static final String TAG = ExtractorHelper.class.getSimpleName();
     private static final InfoCache CACHE = InfoCache.getInstance();
+    private static final InfoDiskCache DISK_CACHE = InfoDiskCache.getInstance();
+
+    /**
+     * The network loads in progress by key, shared by the callers asking for the same info.
+     *
+     * @see #loadShared(int, String, InfoItem.InfoType, Single)
+     */
+    private static final Map<String, Single<? extends Info>> LOADING = new ConcurrentHashMap<>();
+
+    private static final AtomicLong CACHE_HITS = new AtomicLong();
+    private static final AtomicLong DISK_CACHE_HITS = new AtomicLong();
+    private static final AtomicLong NETWORK_LOADS = new AtomicLong();
+    private static final AtomicLong COALESCED_LOADS = new AtomicLong();
 
     private ExtractorHelper() {
         //no instance
@@ -202,9 +218,9 @@ public final class ExtractorHelper {
     //////////////////////////////////////////////////////////////////////////*/
 
     /**
-     * Check if we can load it from the cache (forceLoad parameter), if we can't,
-     * load from the network (Single loadFromNetwork)
-     * and put the results in the cache.
+     * Check if we can load it from the cache (forceLoad parameter), first from the memory and
+     * then from the disk, if we can't, load from the network (Single loadFromNetwork)
+     * and put the results in both caches.
      *
      * @param <I>             the item type's class that extends {@link Info}
      * @param forceLoad       whether to force loading from the network instead of from the cache
@@ -220,15 +236,24 @@ public final class ExtractorHelper {
                                                          final Single<I> loadFromNetwork) {
         checkServiceId(serviceId);
         final Single<I> actualLoadFromNetwork = loadFromNetwork
-                .doOnSuccess(info -> CACHE.putInfo(serviceId, url, info, infoType));
+                .doOnSuccess(info -> {
+                    final long expireTimestamp = System.currentTimeMillis()
+                            + ServiceHelper.getCacheExpirationMillis(info.getServiceId());
+                    CACHE.putInfo(serviceId, url, info, infoType, expireTimestamp);
+                    DISK_CACHE.putInfo(serviceId, url, info, infoType, expireTimestamp);
+                });
 
         final Single<I> load;
         if (forceLoad) {
             CACHE.removeInfo(serviceId, url, infoType);
-            load = actualLoadFromNetwork;
+            DISK_CACHE.removeInfo(serviceId, url, infoType);
+            // Not shared, a load in progress may have started before what is being refreshed
+            load = actualLoadFromNetwork
+                    .doOnSubscribe(ignored -> NETWORK_LOADS.incrementAndGet());
         } else {
             load = Maybe.concat(ExtractorHelper.loadFromCache(serviceId, url, infoType),
-                    actualLoadFromNetwork.toMaybe())
+                    ExtractorHelper.loadFromDisk(serviceId, url, infoType),
+                    loadShared(serviceId, url, infoType, actualLoadFromNetwork).toMaybe())
                     .firstElement() // Take the first valid
                     .toSingle();
         }
@@ -257,6 +282,7 @@ public final class ExtractorHelper {
 
             // Only return info if it's not null (it is cached)
             if (info != null) {
+                CACHE_HITS.incrementAndGet();
                 return Maybe.just(info);
             }
 
@@ -264,6 +290,98 @@ public final class ExtractorHelper {
         });
     }
 
+    /**
+     * Falls back to the {@link InfoDiskCache}, the infos found there are put back in the
+     * {@link InfoCache} until they expire. Reads the disk on the subscribing thread, which is
+     * also the one loading from the network.
+     *
+     * @param <I>             the item type's class that extends {@link Info}
+     * @param serviceId       the service to load from
+     * @param url             the URL to load
+     * @param infoType        the {@link InfoItem.InfoType} of the item
+     * @return a {@link Maybe} that loads the item
+     */
+    private static <I extends Info> Maybe<I> loadFromDisk(final int serviceId, final String url,
+                                                          final InfoItem.InfoType infoType) {
+        return Maybe.defer(() -> {
+            final InfoDiskCache.CacheData data = DISK_CACHE.getFromKey(serviceId, url, infoType);
+            if (data == null) {
+                return Maybe.empty();
+            }
+
+            DISK_CACHE_HITS.incrementAndGet();
+            CACHE.putInfo(serviceId, url, data.getInfo(), infoType, data.getExpireTimestamp());
+            //noinspection unchecked
+            return Maybe.just((I) data.getInfo());
+        });
+    }
+
+    /**
+     * Shares a network load between all the callers asking for the same info while it is in
+     * progress, like the detail page and the player opening the same stream. The load keeps
+     * running if all the callers dispose it, so its result still reaches the caches. Once it
+     * ends, the next callers find the info in the {@link InfoCache}.
+     *
+     * @param <I>             the item type's class that extends {@link Info}
+     * @param serviceId       the service to load from
+     * @param url             the URL to load
+     * @param infoType        the {@link InfoItem.InfoType} of the item
+     * @param loadFromNetwork the {@link Single} to load the item from the network, which puts
+     *                        it in the caches
+     * @return a {@link Single} that loads the item or joins the load in progress
+     */
+    private static <I extends Info> Single<I> loadShared(final int serviceId, final String url,
+                                                         final InfoItem.InfoType infoType,
+                                                         final Single<I> loadFromNetwork) {
+        final String key = serviceId + ":" + infoType + ":" + url;
+        return Single.defer(() -> {
+            // Only one load per key is in the map, so it can only remove itself
+            final Single<I> load = loadFromNetwork
+                    .doOnSubscribe(ignored -> NETWORK_LOADS.incrementAndGet())
+                    .doOnTerminate(() -> LOADING.remove(key))
+                    .cache();
+
+            //noinspection unchecked
+            final Single<I> loading = (Single<I>) LOADING.putIfAbsent(key, load);
+            if (loading != null) {
+                COALESCED_LOADS.incrementAndGet();
+                if (MainActivity.DEBUG) {
+                    Log.d(TAG, "loadShared() joined the load in progress, key > " + key);
+                }
+                return loading;
+            }
+            return load;
+        });
+    }
+
+    /**
+     * @return the infos found in the {@link InfoCache} since the app started
+     */
+    public static long getCacheHits() {
+        return CACHE_HITS.get();
+    }
+
+    /**
+     * @return the infos found in the {@link InfoDiskCache} since the app started
+     */
+    public static long getDiskCacheHits() {
+        return DISK_CACHE_HITS.get();
+    }
+
+    /**
+     * @return the infos loaded from the network since the app started, forced loads included
+     */
+    public static long getNetworkLoads() {
+        return NETWORK_LOADS.get();
+    }
+
+    /**
+     * @return the callers which joined a network load in progress since the app started
+     */
+    public static long getCoalescedLoads() {
+        return COALESCED_LOADS.get();
+    }
+
     public static boolean isCached(final int serviceId, final String url,
                                    final InfoItem.InfoType infoType) {
         return null != loadFromCache(serviceId, url, infoType).blockingGet();
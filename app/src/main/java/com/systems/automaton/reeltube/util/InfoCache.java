@@ -23,26 +23,71 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.collection.LruCache;
 
 import com.systems.automaton.reeltube.MainActivity;
 import org.schabi.newpipe.extractor.Info;
 import org.schabi.newpipe.extractor.InfoItem;
+import org.schabi.newpipe.extractor.ListInfo;
+import org.schabi.newpipe.extractor.stream.StreamInfo;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * In memory cache of the extracted infos, the first tier before the {@link InfoDiskCache}.
+ * <p>
+ * The entries are spread by key over {@link #STRIPES} independently locked {@link Stripe}s, so
+ * the callers on different keys do not wait for each other. Every entry weighs an estimate of its
+ * size in bytes, a channel with hundreds of items takes the room of many streams, and the byte
+ * budget is a fraction of the heap available to the app, see {@link #MAX_BYTES}.
+ * </p>
+ * <p>
+ * Expired entries are dropped when read, or by the {@link ExpirationWheel} as time passes,
+ * which only visits the entries expiring in the elapsed time instead of the whole cache.
+ * </p>
+ */
 public final class InfoCache {
     private final String TAG = getClass().getSimpleName();
     private static final boolean DEBUG = MainActivity.DEBUG;
 
     private static final InfoCache INSTANCE = new InfoCache();
-    private static final int MAX_ITEMS_ON_CACHE = 60;
+    private static final int STRIPES = 4;
+
+    /**
+     * The byte budget, 1/32 of the maximum heap (the memory class of the device) between 4 MiB
+     * and 16 MiB.
+     */
+    private static final long MAX_BYTES = Math.max(4L * 1024 * 1024,
+            Math.min(16L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 32));
     /**
-     * Trim the cache to this size.
+     * Trim the cache to this size, in bytes.
      */
-    private static final int TRIM_CACHE_TO = 30;
+    private static final long TRIM_BYTES_TO = MAX_BYTES / 2;
 
-    private static final LruCache<String, CacheData> LRU_CACHE = new LruCache<>(MAX_ITEMS_ON_CACHE);
+    /**
+     * Estimated weight of the {@link Info} fields and the {@link CacheData}.
+     */
+    private static final int BASE_WEIGHT = 2048;
+    /**
+     * Estimated weight of a stream (url, format, itag data) of a {@link StreamInfo}.
+     */
+    private static final int STREAM_WEIGHT = 1024;
+    /**
+     * Estimated weight of an {@link InfoItem} (name, url, thumbnail, uploader) of a list.
+     */
+    private static final int ITEM_WEIGHT = 1024;
+
+    private static final Stripe[] STRIPES_CACHE = new Stripe[STRIPES];
+    private static final ExpirationWheel EXPIRATION_WHEEL = new ExpirationWheel();
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            STRIPES_CACHE[i] = new Stripe(MAX_BYTES / STRIPES);
+        }
+    }
 
     private InfoCache() {
         // no instance
@@ -58,28 +103,56 @@ public final class InfoCache {
         return serviceId + url + infoType.toString();
     }
 
+    @NonNull
+    private static Stripe stripeOf(@NonNull final String key) {
+        // spread the hash, the keys of a service share their prefix
+        final int hash = key.hashCode();
+        return STRIPES_CACHE[((hash ^ (hash >>> 16)) & 0x7fffffff) % STRIPES];
+    }
+
+    /**
+     * Estimates the bytes taken by an info, only the parts growing with the content are
+     * counted.
+     *
+     * @param key  the key of the entry
+     * @param info the info
+     * @return the estimated weight in bytes
+     */
+    private static int weightOf(@NonNull final String key, @NonNull final Info info) {
+        long weight = BASE_WEIGHT + key.length() * 2L;
+
+        if (info instanceof StreamInfo) {
+            final StreamInfo streamInfo = (StreamInfo) info;
+            weight += (long) STREAM_WEIGHT * (streamInfo.getVideoStreams().size()
+                    + streamInfo.getVideoOnlyStreams().size()
+                    + streamInfo.getAudioStreams().size()
+                    + streamInfo.getSubtitles().size());
+            weight += (long) ITEM_WEIGHT * streamInfo.getRelatedItems().size();
+        } else if (info instanceof ListInfo) {
+            weight += (long) ITEM_WEIGHT * ((ListInfo<?>) info).getRelatedItems().size();
+        }
+
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Drops the entries which expired since the last call, visiting only their slots of the
+     * {@link #EXPIRATION_WHEEL}.
+     */
     private static void removeStaleCache() {
-        for (final Map.Entry<String, CacheData> entry : InfoCache.LRU_CACHE.snapshot().entrySet()) {
-            final CacheData data = entry.getValue();
-            if (data != null && data.isExpired()) {
-                InfoCache.LRU_CACHE.remove(entry.getKey());
+        for (final ExpirationWheel.Expiration expiration
+                : EXPIRATION_WHEEL.advance(System.currentTimeMillis())) {
+            if (stripeOf(expiration.key).expire(expiration.key, expiration.timestamp)) {
+                // expires after a whole turn of the wheel
+                EXPIRATION_WHEEL.schedule(expiration.key, expiration.timestamp);
             }
         }
     }
 
     @Nullable
     private static Info getInfo(@NonNull final String key) {
-        final CacheData data = InfoCache.LRU_CACHE.get(key);
-        if (data == null) {
-            return null;
-        }
-
-        if (data.isExpired()) {
-            InfoCache.LRU_CACHE.remove(key);
-            return null;
-        }
-
-        return data.info;
+        final CacheData data = stripeOf(key).get(key);
+        return data == null ? null : data.info;
     }
 
     @Nullable
@@ -89,9 +162,7 @@ public final class InfoCache {
             Log.d(TAG, "getFromKey() called with: "
                     + "serviceId = [" + serviceId + "], url = [" + url + "]");
         }
-        synchronized (LRU_CACHE) {
-            return getInfo(keyOf(serviceId, url, infoType));
-        }
+        return getInfo(keyOf(serviceId, url, infoType));
     }
 
     public void putInfo(final int serviceId, @NonNull final String url, @NonNull final Info info,
@@ -101,10 +172,27 @@ public final class InfoCache {
         }
 
         final long expirationMillis = ServiceHelper.getCacheExpirationMillis(info.getServiceId());
-        synchronized (LRU_CACHE) {
-            final CacheData data = new CacheData(info, expirationMillis);
-            LRU_CACHE.put(keyOf(serviceId, url, infoType), data);
-        }
+        putInfo(serviceId, url, info, infoType, System.currentTimeMillis() + expirationMillis);
+    }
+
+    /**
+     * Puts an info which expires at a known time, like the infos read from the
+     * {@link InfoDiskCache}.
+     *
+     * @param serviceId       the service of the info
+     * @param url             the url of the info
+     * @param info            the info
+     * @param infoType        the {@link InfoItem.InfoType} of the info
+     * @param expireTimestamp when the info expires, in milliseconds since the epoch
+     */
+    public void putInfo(final int serviceId, @NonNull final String url, @NonNull final Info info,
+                        @NonNull final InfoItem.InfoType infoType, final long expireTimestamp) {
+        final String key = keyOf(serviceId, url, infoType);
+        stripeOf(key).put(key, new CacheData(info, expireTimestamp, weightOf(key, info)));
+        EXPIRATION_WHEEL.schedule(key, expireTimestamp);
+
+        // cheap while no slot of the wheel has been passed
+        removeStaleCache();
     }
 
     public void removeInfo(final int serviceId, @NonNull final String url,
@@ -113,43 +201,239 @@ public final class InfoCache {
             Log.d(TAG, "removeInfo() called with: "
                     + "serviceId = [" + serviceId + "], url = [" + url + "]");
         }
-        synchronized (LRU_CACHE) {
-            LRU_CACHE.remove(keyOf(serviceId, url, infoType));
-        }
+        final String key = keyOf(serviceId, url, infoType);
+        stripeOf(key).remove(key);
     }
 
     public void clearCache() {
         if (DEBUG) {
             Log.d(TAG, "clearCache() called");
         }
-        synchronized (LRU_CACHE) {
-            LRU_CACHE.evictAll();
+        for (final Stripe stripe : STRIPES_CACHE) {
+            stripe.evictAll();
         }
+        InfoDiskCache.getInstance().clearCache();
     }
 
     public void trimCache() {
         if (DEBUG) {
             Log.d(TAG, "trimCache() called");
         }
-        synchronized (LRU_CACHE) {
-            removeStaleCache();
-            LRU_CACHE.trimToSize(TRIM_CACHE_TO);
+        removeStaleCache();
+        for (final Stripe stripe : STRIPES_CACHE) {
+            stripe.trimToSize(TRIM_BYTES_TO / STRIPES);
         }
     }
 
+    /**
+     * @return the amount of entries
+     */
     public long getSize() {
-        synchronized (LRU_CACHE) {
-            return LRU_CACHE.size();
+        long size = 0;
+        for (final Stripe stripe : STRIPES_CACHE) {
+            size += stripe.count();
+        }
+        return size;
+    }
+
+    /**
+     * @return the estimated bytes taken by the entries
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (final Stripe stripe : STRIPES_CACHE) {
+            weight += stripe.weight();
+        }
+        return weight;
+    }
+
+    /**
+     * One of the independently locked parts of the cache, a least recently used cache weighing
+     * the entries in bytes.
+     */
+    private static final class Stripe {
+        private final Object lock = new Object();
+        /**
+         * From the least to the most recently used, the entries are moved to the end when read.
+         */
+        private final LinkedHashMap<String, CacheData> entries = new LinkedHashMap<>();
+        private final long maxBytes;
+        private long bytes = 0;
+
+        private Stripe(final long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * @return the entry, made the most recently used, or {@code null} if absent or expired
+         */
+        @Nullable
+        CacheData get(@NonNull final String key) {
+            synchronized (lock) {
+                final CacheData data = entries.remove(key);
+                if (data == null) {
+                    return null;
+                }
+
+                if (data.isExpired()) {
+                    bytes -= data.weight;
+                    return null;
+                }
+
+                entries.put(key, data);
+                return data;
+            }
+        }
+
+        void put(@NonNull final String key, @NonNull final CacheData data) {
+            synchronized (lock) {
+                final CacheData previous = entries.remove(key);
+                if (previous != null) {
+                    bytes -= previous.weight;
+                }
+
+                entries.put(key, data);
+                bytes += data.weight;
+                trimToSize(maxBytes);
+            }
+        }
+
+        void remove(@NonNull final String key) {
+            synchronized (lock) {
+                final CacheData data = entries.remove(key);
+                if (data != null) {
+                    bytes -= data.weight;
+                }
+            }
+        }
+
+        /**
+         * Drops the entry of an expiration if it expired, its place in the order is not changed.
+         *
+         * @param key       the key of the entry
+         * @param timestamp the expiration of the entry when it was scheduled
+         * @return {@code true} if the entry is still there and expires later
+         */
+        boolean expire(@NonNull final String key, final long timestamp) {
+            synchronized (lock) {
+                final CacheData data = entries.get(key);
+                if (data == null || data.expireTimestamp != timestamp) {
+                    return false; // removed or replaced, the new entry has its own expiration
+                }
+
+                if (!data.isExpired()) {
+                    return true;
+                }
+
+                entries.remove(key);
+                bytes -= data.weight;
+                return false;
+            }
+        }
+
+        void trimToSize(final long size) {
+            synchronized (lock) {
+                final Iterator<CacheData> iterator = entries.values().iterator();
+                while (bytes > size && iterator.hasNext()) {
+                    bytes -= iterator.next().weight;
+                    iterator.remove();
+                }
+            }
+        }
+
+        void evictAll() {
+            synchronized (lock) {
+                entries.clear();
+                bytes = 0;
+            }
+        }
+
+        int count() {
+            synchronized (lock) {
+                return entries.size();
+            }
+        }
+
+        long weight() {
+            synchronized (lock) {
+                return bytes;
+            }
+        }
+    }
+
+    /**
+     * Hashed timer wheel of the expirations, with one slot per {@link #TICK_MILLIS}. The slots
+     * are visited as time passes, an expiration further than a whole turn is found early and
+     * scheduled again.
+     */
+    private static final class ExpirationWheel {
+        private static final long TICK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+        /**
+         * A turn lasts longer than the expiration of every service.
+         */
+        private static final int SLOTS = 64;
+
+        private final List<List<Expiration>> slots = new ArrayList<>(SLOTS);
+        private long currentTick = System.currentTimeMillis() / TICK_MILLIS;
+
+        private ExpirationWheel() {
+            for (int i = 0; i < SLOTS; i++) {
+                slots.add(new ArrayList<>());
+            }
+        }
+
+        synchronized void schedule(@NonNull final String key, final long timestamp) {
+            // never in a slot already passed, it would wait a whole turn
+            final long tick = Math.max(timestamp / TICK_MILLIS, currentTick + 1);
+            slots.get((int) (tick % SLOTS)).add(new Expiration(key, timestamp));
+        }
+
+        /**
+         * Moves the wheel to the given time.
+         *
+         * @param now the current time in milliseconds since the epoch
+         * @return the expirations of the slots passed, to be checked by the caller
+         */
+        @NonNull
+        synchronized List<Expiration> advance(final long now) {
+            final long tick = now / TICK_MILLIS;
+            if (tick <= currentTick) {
+                return new ArrayList<>(0);
+            }
+
+            final List<Expiration> passed = new ArrayList<>();
+            final long end = Math.min(tick, currentTick + SLOTS);
+            for (long t = currentTick + 1; t <= end; t++) {
+                final List<Expiration> slot = slots.get((int) (t % SLOTS));
+                passed.addAll(slot);
+                slot.clear();
+            }
+
+            currentTick = tick;
+            return passed;
+        }
+
+        private static final class Expiration {
+            private final String key;
+            private final long timestamp;
+
+            private Expiration(@NonNull final String key, final long timestamp) {
+                this.key = key;
+                this.timestamp = timestamp;
+            }
         }
     }
 
     private static final class CacheData {
         private final long expireTimestamp;
         private final Info info;
+        private final int weight;
 
-        private CacheData(@NonNull final Info info, final long timeoutMillis) {
-            this.expireTimestamp = System.currentTimeMillis() + timeoutMillis;
+        private CacheData(@NonNull final Info info, final long expireTimestamp,
+                          final int weight) {
+            this.expireTimestamp = expireTimestamp;
             this.info = info;
+            this.weight = weight;
         }
 
         private boolean isExpired() {
@@ -0,0 +1,298 @@
+package com.systems.automaton.reeltube.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.systems.automaton.reeltube.BuildConfig;
+import com.systems.automaton.reeltube.MainActivity;
+import org.schabi.newpipe.extractor.Info;
+import org.schabi.newpipe.extractor.InfoItem;
+import org.schabi.newpipe.extractor.stream.StreamInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Second tier of the {@link InfoCache}, keeps the {@link StreamInfo}s on the disk so they
+ * survive the process death. Used by {@link ExtractorHelper} for the player, the detail page and
+ * the downloads alike.
+ * <p>
+ * Every entry is a gzipped serialized {@link Info} with its expiration, taken from
+ * {@link ServiceHelper#getCacheExpirationMillis(int)} when it was extracted. Expired entries are
+ * not swept, they are dropped when read, so the stream is extracted again only if it is needed.
+ * The entries written by another app version are dropped too. Once the cache exceeds
+ * {@link #MAX_DISK_BYTES} the least recently used entries are deleted.
+ * </p>
+ * <p>
+ * Only {@link #getFromKey} does disk I/O on the calling thread, the other methods work in the
+ * background.
+ * </p>
+ */
+public final class InfoDiskCache {
+    private static final String TAG = "InfoDiskCache";
+    private static final boolean DEBUG = MainActivity.DEBUG;
+
+    private static final InfoDiskCache INSTANCE = new InfoDiskCache();
+    private static final String CACHE_DIR_NAME = "info_cache";
+    private static final long MAX_DISK_BYTES = 16 * 1024 * 1024;
+    /**
+     * Trim the cache to this size.
+     */
+    private static final long TRIM_DISK_BYTES_TO = MAX_DISK_BYTES * 3 / 4;
+
+    @Nullable
+    private static File cacheDir;
+
+    private InfoDiskCache() {
+        // no instance
+    }
+
+    public static InfoDiskCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Initialize the cache, usually you want to call this in the Application class.
+     *
+     * @param context used to get the cache dir
+     */
+    public static void init(@NonNull final Context context) {
+        cacheDir = new File(context.getCacheDir(), CACHE_DIR_NAME);
+    }
+
+    /**
+     * Only the stream infos are kept, they are requested by most screens and the player.
+     *
+     * @param infoType the {@link InfoItem.InfoType} of the item
+     * @return whether the infos of this type are kept on the disk
+     */
+    public static boolean isCacheable(@NonNull final InfoItem.InfoType infoType) {
+        return infoType == InfoItem.InfoType.STREAM;
+    }
+
+    @Nullable
+    private static File fileOf(final int serviceId, @NonNull final String url,
+                               @NonNull final InfoItem.InfoType infoType) {
+        if (cacheDir == null) {
+            return null;
+        }
+        // the full key is stored in the file, to tell apart the hash collisions
+        return new File(cacheDir, Integer.toHexString(keyOf(serviceId, url, infoType).hashCode())
+                + ".cache");
+    }
+
+    @NonNull
+    private static String keyOf(final int serviceId, @NonNull final String url,
+                                @NonNull final InfoItem.InfoType infoType) {
+        return serviceId + url + infoType.toString();
+    }
+
+    /**
+     * Reads an info from the disk.
+     *
+     * @param serviceId the service of the info
+     * @param url       the url of the info
+     * @param infoType  the {@link InfoItem.InfoType} of the info
+     * @return the info and its expiration, or {@code null} if it is not cached or expired
+     */
+    @Nullable
+    public CacheData getFromKey(final int serviceId, @NonNull final String url,
+                                @NonNull final InfoItem.InfoType infoType) {
+        final File file = fileOf(serviceId, url, infoType);
+        if (file == null || !isCacheable(infoType) || !file.exists()) {
+            return null;
+        }
+
+        try (ObjectInputStream input = new ObjectInputStream(new GZIPInputStream(
+                new BufferedInputStream(new FileInputStream(file))))) {
+            final int versionCode = input.readInt();
+            final long expireTimestamp = input.readLong();
+            final String key = input.readUTF();
+
+            if (!key.equals(keyOf(serviceId, url, infoType))) {
+                return null;
+            }
+            if (versionCode != BuildConfig.VERSION_CODE
+                    || System.currentTimeMillis() > expireTimestamp) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return null;
+            }
+
+            final Info info = (Info) input.readObject();
+            // used for the least recently used trimming
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+
+            if (DEBUG) {
+                Log.d(TAG, "getFromKey() hit, url = [" + url + "]");
+            }
+            return new CacheData(info, expireTimestamp);
+        } catch (final Exception e) {
+            Log.w(TAG, "Failed to read cached info, url = [" + url + "]", e);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Writes an info to the disk in the background, if its type is cacheable.
+     *
+     * @param serviceId       the service of the info
+     * @param url             the url of the info
+     * @param info            the info
+     * @param infoType        the {@link InfoItem.InfoType} of the info
+     * @param expireTimestamp when the info expires, in milliseconds since the epoch
+     */
+    public void putInfo(final int serviceId, @NonNull final String url, @NonNull final Info info,
+                        @NonNull final InfoItem.InfoType infoType, final long expireTimestamp) {
+        final File file = fileOf(serviceId, url, infoType);
+        if (file == null || !isCacheable(infoType)) {
+            return;
+        }
+
+        Schedulers.io().scheduleDirect(() -> {
+            if (!write(file, keyOf(serviceId, url, infoType), info, expireTimestamp)) {
+                return;
+            }
+            trimCache();
+        });
+    }
+
+    /**
+     * Deletes an entry in the background.
+     *
+     * @param serviceId the service of the info
+     * @param url       the url of the info
+     * @param infoType  the {@link InfoItem.InfoType} of the info
+     */
+    public void removeInfo(final int serviceId, @NonNull final String url,
+                           @NonNull final InfoItem.InfoType infoType) {
+        final File file = fileOf(serviceId, url, infoType);
+        if (file != null && isCacheable(infoType)) {
+            //noinspection ResultOfMethodCallIgnored
+            Schedulers.io().scheduleDirect(file::delete);
+        }
+    }
+
+    /**
+     * Deletes all the entries in the background.
+     */
+    public void clearCache() {
+        if (DEBUG) {
+            Log.d(TAG, "clearCache() called");
+        }
+
+        Schedulers.io().scheduleDirect(() -> {
+            for (final File file : listFiles()) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        });
+    }
+
+    private static boolean write(@NonNull final File file, @NonNull final String key,
+                                 @NonNull final Info info, final long expireTimestamp) {
+        final File parent = file.getParentFile();
+        if (parent == null || (!parent.exists() && !parent.mkdirs())) {
+            Log.e(TAG, "Failed to create cache directory " + parent);
+            return false;
+        }
+
+        // written aside and renamed, a reader never sees a partial entry
+        final File temp = new File(parent,
+                file.getName() + ".tmp" + Thread.currentThread().getId());
+        try (ObjectOutputStream output = new ObjectOutputStream(new GZIPOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp))))) {
+            output.writeInt(BuildConfig.VERSION_CODE);
+            output.writeLong(expireTimestamp);
+            output.writeUTF(key);
+            output.writeObject(info);
+        } catch (final Exception e) {
+            Log.w(TAG, "Failed to write info, url = [" + info.getUrl() + "]", e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return false;
+        }
+
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private static synchronized void trimCache() {
+        final File[] files = listFiles();
+        long size = 0;
+        for (final File file : files) {
+            size += file.length();
+        }
+        if (size <= MAX_DISK_BYTES) {
+            return;
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "trimCache() called, size = [" + size + "]");
+        }
+
+        // read once, the readers touch the files while sorting
+        final Map<File, Long> lastModified = new HashMap<>();
+        for (final File file : files) {
+            lastModified.put(file, file.lastModified());
+        }
+        Arrays.sort(files, Comparator.comparingLong(lastModified::get));
+        for (final File file : files) {
+            if (size <= TRIM_DISK_BYTES_TO) {
+                break;
+            }
+            final long length = file.length();
+            if (file.delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    @NonNull
+    private static File[] listFiles() {
+        final File[] files = cacheDir == null ? null : cacheDir.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    public static final class CacheData {
+        private final Info info;
+        private final long expireTimestamp;
+
+        private CacheData(@NonNull final Info info, final long expireTimestamp) {
+            this.info = info;
+            this.expireTimestamp = expireTimestamp;
+        }
+
+        @NonNull
+        public Info getInfo() {
+            return info;
+        }
+
+        public long getExpireTimestamp() {
+            return expireTimestamp;
+        }
+    }
+}
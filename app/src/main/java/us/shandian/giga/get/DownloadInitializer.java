@@ -8,11 +8,11 @@ import androidx.annotation.NonNull;
 import com.systems.automaton.reeltube.streams.io.SharpStream;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InterruptedIOException;
-import java.net.HttpURLConnection;
 import java.nio.channels.ClosedByInterruptException;
 
-import us.shandian.giga.util.Utility;
+import us.shandian.giga.transport.Connection;
 
 import static com.systems.automaton.reeltube.BuildConfig.DEBUG;
 import static us.shandian.giga.get.DownloadMission.ERROR_HTTP_FORBIDDEN;
@@ -24,7 +24,8 @@ public class DownloadInitializer extends Thread {
     private final static int RESERVE_SPACE_MAXIMUM = 150 * 1024 * 1024;// 150 MiB
 
     private final DownloadMission mMission;
-    private HttpURLConnection mConn;
+    private Connection mConn;
+    private Probe[] mProbes;
 
     DownloadInitializer(@NonNull DownloadMission mission) {
         mMission = mission;
@@ -39,35 +40,101 @@ public class DownloadInitializer extends Thread {
         }
     }
 
+    /**
+     * Requests the first block of the current resource. The response tells the length and if
+     * range requests are supported, if so, the body is kept and written as the first block.
+     *
+     * @return {@code true} if the server responded with the requested range
+     */
+    private boolean probeFirstBlock() throws IOException, DownloadMission.HttpError {
+        mConn = mMission.openConnection(false, 0, DownloadMission.BLOCK_SIZE - 1);
+        mMission.establishConnection(mId, mConn);
+
+        switch (mConn.getResponseCode()) {
+            case 206:
+                mMission.length = mConn.getTotalLength();
+                if (mMission.length != -1) return true;
+                break;
+            case 416:
+                mMission.length = 0;// nothing to request, the resource is empty
+                break;
+            default:
+                mMission.length = mConn.getContentLength();
+                break;
+        }
+
+        dispose();
+        return false;
+    }
+
+    /**
+     * Writes the body of the first block request, what is not written here is downloaded later
+     * by the download threads.
+     *
+     * @param fs the output stream, positioned at the start of the resource
+     */
+    private void transferFirstBlock(SharpStream fs) {
+        long limit = Math.min(mMission.length, DownloadMission.BLOCK_SIZE);
+        long written = 0;
+
+        mMission.prepareProgress();
+
+        try (InputStream is = mConn.getInputStream()) {
+            byte[] buf = new byte[DownloadMission.BUFFER_SIZE];
+            int len;
+
+            while (written < limit && mMission.running && (len = is.read(buf, 0, (int) Math.min(buf.length, limit - written))) != -1) {
+                fs.write(buf, 0, len);
+                written += len;
+                mMission.notifyProgress(mId, len);
+            }
+        } catch (IOException e) {
+            if (DEBUG) Log.w(TAG, "first block transfer stopped at " + written, e);
+        }
+
+        if (mMission.blocks.length > 0)
+            mMission.blocks[0] = written < limit ? (int) written : -1;
+        else
+            mMission.fallbackResumeOffset = written;
+    }
+
     @Override
     public void run() {
         if (mMission.current > 0) mMission.resetState(false, true, DownloadMission.ERROR_NOTHING);
 
         int retryCount = 0;
-        int httpCode = 204;
+        int httpCode;
+        boolean rangeSupported;
 
         while (true) {
             try {
                 if (mMission.blocks == null && mMission.current == 0) {
-                    // calculate the whole size of the mission
-                    long finalLength = 0;
-                    long lowestSize = Long.MAX_VALUE;
+                    // calculate the whole size of the mission, the other resources are asked
+                    // meanwhile the first one is requested
+                    mProbes = new Probe[mMission.urls.length - 1];
+                    for (int i = 0; i < mProbes.length; i++) {
+                        mProbes[i] = new Probe(mMission.urls[i + 1]);
+                        mProbes[i].start();
+                    }
 
-                    for (int i = 0; i < mMission.urls.length && mMission.running; i++) {
-                        mConn = mMission.openConnection(mMission.urls[i], true, -1, -1);
-                        mMission.establishConnection(mId, mConn);
-                        dispose();
+                    rangeSupported = probeFirstBlock();
+                    httpCode = mConn.getResponseCode();
 
-                        if (Thread.interrupted()) return;
-                        long length = Utility.getContentLength(mConn);
+                    long finalLength = Math.max(mMission.length, 0);
+                    long lowestSize = mMission.length;
 
-                        if (i == 0) {
-                            httpCode = mConn.getResponseCode();
-                            mMission.length = length;
-                        }
+                    for (Probe probe : mProbes) {
+                        probe.join();
+                        if (probe.error != null) throw probe.error;
+
+                        if (probe.length > 0) finalLength += probe.length;
+                        if (probe.length < lowestSize) lowestSize = probe.length;
+                    }
 
-                        if (length > 0) finalLength += length;
-                        if (length < lowestSize) lowestSize = length;
+                    mProbes = null;
+                    if (!mMission.running || Thread.interrupted()) {
+                        dispose();
+                        return;
                     }
 
                     mMission.nearLength = finalLength;
@@ -84,72 +151,62 @@ public class DownloadInitializer extends Thread {
                     }
                 } else {
                     // ask for the current resource length
-                    mConn = mMission.openConnection(true, -1, -1);
-                    mMission.establishConnection(mId, mConn);
-                    dispose();
-
-                    if (!mMission.running || Thread.interrupted()) return;
-
+                    rangeSupported = probeFirstBlock();
                     httpCode = mConn.getResponseCode();
-                    mMission.length = Utility.getContentLength(mConn);
+
+                    if (!mMission.running || Thread.interrupted()) {
+                        dispose();
+                        return;
+                    }
                 }
 
                 if (mMission.length == 0 || httpCode == 204) {
+                    dispose();
                     mMission.notifyError(DownloadMission.ERROR_HTTP_NO_CONTENT, null);
                     return;
                 }
 
-                // check for dynamic generated content
-                if (mMission.length == -1 && mConn.getResponseCode() == 200) {
-                    mMission.blocks = new int[0];
-                    mMission.length = 0;
-                    mMission.unknownLength = true;
-
-                    if (DEBUG) {
-                        Log.d(TAG, "falling back (unknown length)");
-                    }
-                } else {
-                    // Open again
-                    mConn = mMission.openConnection(true, mMission.length - 10, mMission.length);
-                    mMission.establishConnection(mId, mConn);
-                    dispose();
+                synchronized (mMission.LOCK) {
+                    if (mMission.length == -1) {
+                        // dynamic generated content
+                        mMission.blocks = new int[0];
+                        mMission.length = 0;
+                        mMission.unknownLength = true;
 
-                    if (!mMission.running || Thread.interrupted()) return;
-
-                    synchronized (mMission.LOCK) {
-                        if (mConn.getResponseCode() == 206) {
-
-                            if (mMission.threadCount > 1) {
-                                int count = (int) (mMission.length / DownloadMission.BLOCK_SIZE);
-                                if ((count * DownloadMission.BLOCK_SIZE) < mMission.length) count++;
-
-                                mMission.blocks = new int[count];
-                            } else {
-                                // if one thread is required don't calculate blocks, is useless
-                                mMission.blocks = new int[0];
-                                mMission.unknownLength = false;
-                            }
+                        if (DEBUG) {
+                            Log.d(TAG, "falling back (unknown length)");
+                        }
+                    } else if (rangeSupported) {
+                        if (mMission.threadCount > 1) {
+                            int count = (int) (mMission.length / DownloadMission.BLOCK_SIZE);
+                            if ((count * DownloadMission.BLOCK_SIZE) < mMission.length) count++;
 
-                            if (DEBUG) {
-                                Log.d(TAG, "http response code = " + mConn.getResponseCode());
-                            }
+                            mMission.blocks = new int[count];
                         } else {
-                            // Fallback to single thread
+                            // if one thread is required don't calculate blocks, is useless
                             mMission.blocks = new int[0];
                             mMission.unknownLength = false;
+                        }
 
-                            if (DEBUG) {
-                                Log.d(TAG, "falling back due http response code = " + mConn.getResponseCode());
-                            }
+                        if (DEBUG) {
+                            Log.d(TAG, "http response code = " + httpCode);
                         }
-                    }
+                    } else {
+                        // Fallback to single thread
+                        mMission.blocks = new int[0];
+                        mMission.unknownLength = false;
 
-                    if (!mMission.running || Thread.interrupted()) return;
+                        if (DEBUG) {
+                            Log.d(TAG, "falling back due http response code = " + httpCode);
+                        }
+                    }
                 }
 
                 try (SharpStream fs = mMission.storage.getStream()) {
                     fs.setLength(mMission.offsets[mMission.current] + mMission.length);
                     fs.seek(mMission.offsets[mMission.current]);
+
+                    if (rangeSupported && !mMission.unknownLength) transferFirstBlock(fs);
                 }
 
                 if (!mMission.running || Thread.interrupted()) return;
@@ -173,6 +230,10 @@ public class DownloadInitializer extends Thread {
             } catch (InterruptedIOException | ClosedByInterruptException e) {
                 return;
             } catch (Exception e) {
+                // discard the pending requests before retrying
+                if (mConn != null) dispose();
+                cancelProbes();
+
                 if (!mMission.running || super.isInterrupted()) return;
 
                 if (e instanceof DownloadMission.HttpError && ((DownloadMission.HttpError) e).statusCode == ERROR_HTTP_FORBIDDEN) {
@@ -204,5 +265,55 @@ public class DownloadInitializer extends Thread {
     public void interrupt() {
         super.interrupt();
         if (mConn != null) dispose();
+        cancelProbes();
+    }
+
+    private void cancelProbes() {
+        Probe[] probes = mProbes;
+        if (probes == null) return;
+
+        for (Probe probe : probes) probe.interrupt();
+        mProbes = null;
+    }
+
+    /**
+     * Asks for the length of a resource
+     */
+    private class Probe extends Thread {
+        private final String url;
+        private Connection conn;
+        long length = -1;
+        Exception error;
+
+        Probe(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public void run() {
+            try {
+                conn = mMission.openConnection(url, true, -1, -1);
+                mMission.establishConnection(mId, conn);
+                length = conn.getContentLength();
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                dispose();
+            }
+        }
+
+        private void dispose() {
+            try {
+                if (conn != null) conn.getInputStream().close();
+            } catch (Exception e) {
+                // nothing to do
+            }
+        }
+
+        @Override
+        public void interrupt() {
+            super.interrupt();
+            dispose();
+        }
     }
 }
@@ -3,6 +3,7 @@ package us.shandian.giga.get;
 import android.os.Build;
 import android.os.Handler;
 import android.system.ErrnoException;
+import android.system.Os;
 import android.system.OsConstants;
 import android.util.Log;
 
@@ -17,18 +18,27 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.net.ConnectException;
-import java.net.HttpURLConnection;
 import java.net.SocketTimeoutException;
-import java.net.URL;
 import java.net.UnknownHostException;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.net.ssl.SSLException;
 
+import com.systems.automaton.reeltube.streams.io.SharpStream;
 import com.systems.automaton.reeltube.streams.io.StoredFileHelper;
 import us.shandian.giga.postprocessing.Postprocessing;
+import us.shandian.giga.service.BandwidthManager;
 import us.shandian.giga.service.DownloadManagerService;
+import us.shandian.giga.transport.Connection;
+import us.shandian.giga.transport.HttpUrlTransport;
+import us.shandian.giga.transport.Transport;
+import us.shandian.giga.util.StripedCounter;
+import us.shandian.giga.util.TokenBucket;
 import us.shandian.giga.util.Utility;
 
 import static com.systems.automaton.reeltube.BuildConfig.DEBUG;
@@ -39,6 +49,27 @@ public class DownloadMission extends Mission {
     static final int BUFFER_SIZE = 64 * 1024;
     static final int BLOCK_SIZE = 512 * 1024;
 
+    /**
+     * Maximum amount of consecutive blocks that a thread can acquire in a single range request
+     */
+    static final int MAX_SPAN_BLOCKS = 32;// 16 MiB
+
+    /**
+     * Minimum amount of untouched blocks in an acquired span before splitting it
+     */
+    static final int MIN_STEAL_BLOCKS = 2;
+
+    private static final int BLOCK_FREE = 0;
+    private static final int BLOCK_ACQUIRED = 1;
+    private static final int BLOCK_FINISHED = 2;
+
+    private static final int PROGRESS_STRIPES = 8;
+
+    /**
+     * Interval used by the pipelined post-processing to check the download progress
+     */
+    private static final int PIPELINE_POLL_MILLIS = 100;
+
     private static final String TAG = "DownloadMission";
 
     public static final int ERROR_NOTHING = -1;
@@ -59,13 +90,18 @@ public class DownloadMission extends Mission {
     public static final int ERROR_HTTP_NO_CONTENT = 204;
     static final int ERROR_HTTP_FORBIDDEN = 403;
 
+    public static final int PRIORITY_LOW = -1;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 1;
+
     /**
-     * The urls of the file to download
+     * The urls of the file to download, replaced as a whole (copy on write) while downloading
      */
-    public String[] urls;
+    public volatile String[] urls;
 
     /**
-     * Number of bytes downloaded and written
+     * Number of bytes downloaded and written, while running this is updated by
+     * {@link #sampleProgress()}
      */
     public volatile long done;
 
@@ -99,7 +135,7 @@ public class DownloadMission extends Mission {
     public int current;
 
     /**
-     * Metadata where the mission state is saved
+     * Metadata where the mission state is saved, see {@link MissionJournal}
      */
     public transient File metadata;
 
@@ -117,6 +153,8 @@ public class DownloadMission extends Mission {
      * Download blocks, the size is multiple of {@link DownloadMission#BLOCK_SIZE}.
      * Every entry (block) in this array holds an offset, used to resume the download.
      * An block offset can be -1 if the block was downloaded successfully.
+     * <p>
+     * Threads acquire spans of consecutive blocks, see {@link #acquireBlock(int, int)}
      */
     int[] blocks;
 
@@ -139,14 +177,60 @@ public class DownloadMission extends Mission {
     public transient volatile boolean running;
     public boolean enqueued;
 
+    /**
+     * Order in the download queue, the missions with higher priority start first
+     */
+    public int priority = PRIORITY_NORMAL;
+
+    /**
+     * A finished download of the same source and variant, its file is copied (or linked) instead
+     * of downloading it again. Set by the download manager, see {@link #getVariant()}
+     */
+    public transient FinishedMission duplicate = null;
+
     public int errCode = ERROR_NOTHING;
     public Exception errObject = null;
 
     public transient Handler mHandler;
-    private transient boolean[] blockAcquired;
+
+    /**
+     * Creates the connections of this mission, if not set {@link HttpUrlTransport} is used
+     */
+    public transient Transport transport;
+
+    /**
+     * Limits the throughput of this mission, if not set the mission runs unlimited
+     */
+    public transient BandwidthManager bandwidth;
+
+    private transient TokenBucket bandwidthBucket;
+
+    /**
+     * Throughput counters of the download threads, kept while the app is running
+     */
+    public transient MissionMetrics metrics;
+
+    /**
+     * State of every block, one of {@code BLOCK_FREE}, {@code BLOCK_ACQUIRED} or {@code BLOCK_FINISHED}
+     */
+    private transient AtomicIntegerArray blockState;
+    private transient AtomicReferenceArray<Block> activeBlocks;
+    private transient AtomicInteger freeBlocks;
+
+    /**
+     * Lowest index of a block that can be free (low 32 bits), the high 32 bits are a version
+     * number, changed on every update
+     */
+    private transient AtomicLong freeBlockHint;
+
+    /**
+     * Bytes written by the download threads, not yet added to {@link #done}
+     */
+    private transient StripedCounter progress;
 
     private transient long writingToFileNext;
     private transient volatile boolean writingToFile;
+    transient MissionJournal journal;
 
     final Object LOCK = new Lock();
 
@@ -154,6 +238,22 @@ public class DownloadMission extends Mission {
     public transient Thread[] threads = new Thread[0];
     public transient Thread init = null;
 
+    /**
+     * Post-processing started while the last resource is downloading, see {@link #isPsStreaming()}
+     */
+    private transient Thread psPipeline = null;
+
+    /**
+     * Refreshes the url of the current resource before it expires, see {@link UrlRefresher}
+     */
+    private transient volatile UrlRefresher urlRefresher = null;
+    private transient volatile boolean psStreaming;
+
+    /**
+     * Amount of leading blocks already downloaded, only used by the pipelined post-processing
+     */
+    private transient int psContiguousBlocks;
+
     public DownloadMission(String[] urls, StoredFileHelper storage, char kind, Postprocessing psInstance) {
         if (Objects.requireNonNull(urls).length < 1)
             throw new IllegalArgumentException("urls array is empty");
@@ -171,39 +271,244 @@ public class DownloadMission extends Mission {
     }
 
     /**
-     * Acquire a block
+     * Prepares the block bookkeeping before starting the download threads
      *
+     * @param threadCount amount of download threads that will acquire blocks
+     * @return amount of blocks left to download
+     */
+    int prepareBlocks(int threadCount) {
+        int free = 0;
+
+        blockState = new AtomicIntegerArray(blocks.length);
+        activeBlocks = new AtomicReferenceArray<>(Math.max(threadCount, 1));
+
+        for (int i = 0; i < blocks.length; i++) {
+            if (blocks[i] < 0) {
+                blockState.set(i, BLOCK_FINISHED);
+            } else {
+                free++;
+            }
+        }
+
+        freeBlocks = new AtomicInteger(free);
+        freeBlockHint = new AtomicLong(0);
+
+        return free;
+    }
+
+    /**
+     * Acquire a span of consecutive blocks. If all blocks are already acquired, the untouched
+     * tail of the biggest span held by another thread is stolen.
+     *
+     * @param threadId id of the calling thread
+     * @param desired  amount of blocks wanted by the calling thread, based on its throughput
      * @return the block or {@code null} if no more blocks left
      */
     @Nullable
-    Block acquireBlock() {
-        synchronized (LOCK) {
-            for (int i = 0; i < blockAcquired.length; i++) {
-                if (!blockAcquired[i] && blocks[i] >= 0) {
-                    Block block = new Block();
-                    block.position = i;
-                    block.done = blocks[i];
-
-                    blockAcquired[i] = true;
-                    return block;
+    Block acquireBlock(int threadId, int desired) {
+        // never take more than the fair share, so the last blocks are spread between threads
+        int share = Math.max(1, freeBlocks.get() / activeBlocks.length());
+        int limit = Math.max(1, Math.min(Math.min(desired, share), MAX_SPAN_BLOCKS));
+
+        long hint = freeBlockHint.get();
+        Block block = null;
+
+        for (int i = (int) hint; i < blocks.length; i++) {
+            if (!blockState.compareAndSet(i, BLOCK_FREE, BLOCK_ACQUIRED)) continue;
+
+            // only untouched blocks can be appended, the range request must be contiguous
+            int count = 1;
+            while (count < limit && (i + count) < blocks.length) {
+                int next = i + count;
+                if (!blockState.compareAndSet(next, BLOCK_FREE, BLOCK_ACQUIRED)) break;
+
+                if (blocks[next] != 0) {
+                    blockState.set(next, BLOCK_FREE);
+                    break;
                 }
+
+                count++;
             }
+
+            freeBlocks.addAndGet(-count);
+            freeBlockHint.compareAndSet(hint, nextHint(hint, i + count));
+
+            block = new Block(i, count, blocks[i]);
+            break;
         }
 
-        return null;
+        if (block == null) block = stealBlock();
+        if (block != null) activeBlocks.set(threadId, block);
+
+        return block;
+    }
+
+    private static long nextHint(long hint, int index) {
+        return (((hint >>> 32) + 1) << 32) | index;
     }
 
     /**
-     * Release an block
+     * Splits the span with more untouched blocks, the caller takes the second half of them.
      *
-     * @param position the index of the block
-     * @param done     amount of bytes downloaded
+     * @return the stolen block or {@code null} if there nothing worth to steal
      */
-    void releaseBlock(int position, int done) {
-        synchronized (LOCK) {
-            blockAcquired[position] = false;
-            blocks[position] = done;
+    @Nullable
+    private Block stealBlock() {
+        while (true) {
+            Block victim = null;
+            int most = MIN_STEAL_BLOCKS - 1;
+
+            for (int i = 0; i < activeBlocks.length(); i++) {
+                Block active = activeBlocks.get(i);
+                if (active == null) continue;
+
+                long state = active.state.get();
+                if (Block.sealed(state)) continue;
+
+                int untouched = Block.untouched(state);
+                if (untouched > most) {
+                    most = untouched;
+                    victim = active;
+                }
+            }
+
+            if (victim == null) return null;
+
+            long state = victim.state.get();
+            if (Block.sealed(state)) continue;// released meanwhile, pick again
+
+            int untouched = Block.untouched(state);
+            if (untouched < MIN_STEAL_BLOCKS) continue;// the victim is faster, pick again
+
+            int count = Block.count(state);
+            int stolen = untouched / 2;
+
+            // the owner of the span will notice the new count on the next reservation
+            if (victim.state.compareAndSet(state, Block.pack(count - stolen, Block.done(state)))) {
+                return new Block(victim.position + count - stolen, stolen, 0);
+            }
+        }
+    }
+
+    /**
+     * Reserves bytes in an acquired span before writing them. The tail of the span can be
+     * stolen by another thread at any time, but never the reserved bytes.
+     *
+     * @param block  the span
+     * @param amount amount of bytes to write
+     * @return amount of bytes that can be written, zero if there nothing left in the span
+     */
+    int reserveBlock(Block block, int amount) {
+        long start = (long) block.position * BLOCK_SIZE;
+
+        while (true) {
+            long state = block.state.get();
+            int done = Block.done(state);
+            long end = Math.min(((long) block.position + Block.count(state)) * BLOCK_SIZE, length) - start;
+            int reserved = (int) Math.min(amount, end - done);
+
+            if (reserved < 1) return 0;
+            if (block.state.compareAndSet(state, Block.pack(Block.count(state), done + reserved))) {
+                return reserved;
+            }
+        }
+    }
+
+    /**
+     * Gives back reserved bytes that could not be written
+     *
+     * @param block  the span
+     * @param amount amount of bytes reserved
+     */
+    void unreserveBlock(Block block, int amount) {
+        long state;
+        do {
+            state = block.state.get();
+        } while (!block.state.compareAndSet(state, Block.pack(Block.count(state), Block.done(state) - amount)));
+    }
+
+    /**
+     * Commits written bytes in an acquired span, completed blocks are marked as downloaded
+     * so the progress is not lost if the metadata is saved while the span is still in use.
+     *
+     * @param block  the span
+     * @param offset offset of the written bytes, relative to the span start
+     * @param amount amount of bytes written
+     */
+    void commitBlock(Block block, int offset, int amount) {
+        int from = offset / BLOCK_SIZE;
+        int to = (offset + amount) / BLOCK_SIZE;
+
+        for (int i = from; i < to; i++) blocks[block.position + i] = -1;
+    }
+
+    /**
+     * Forgets the progress of an acquired span, used when the server refuses to resume it
+     *
+     * @param block the span
+     */
+    void rollbackBlock(Block block) {
+        long state;
+        do {
+            state = block.state.get();
+        } while (!block.state.compareAndSet(state, Block.pack(Block.count(state), 0)));
+
+        for (int i = 0; i < Block.count(state); i++) blocks[block.position + i] = 0;
+    }
+
+    /**
+     * Gets the last byte (inclusive) of an acquired span
+     *
+     * @param block the span
+     * @return absolute offset in the current resource
+     */
+    long getBlockEnd(Block block) {
+        long end = ((long) block.position + block.getCount()) * BLOCK_SIZE - 1;
+        return Math.min(end, length - 1);
+    }
+
+    /**
+     * Release an acquired span
+     *
+     * @param threadId  id of the calling thread
+     * @param block     the span
+     * @param completed {@code true} if the whole span was downloaded
+     */
+    void releaseBlock(int threadId, Block block, boolean completed) {
+        activeBlocks.compareAndSet(threadId, block, null);
+
+        // a thief can still hold the span, sealing it fails any pending steal
+        long state = block.seal();
+        int count = Block.count(state);
+        int done = Block.done(state);
+        int released = 0;
+        int lowest = -1;
+
+        for (int i = 0; i < count; i++) {
+            int index = block.position + i;
+            long offset = done - (long) i * BLOCK_SIZE;
+
+            if (completed || offset >= BLOCK_SIZE) {
+                blocks[index] = -1;
+                blockState.set(index, BLOCK_FINISHED);
+                continue;
+            }
+
+            blocks[index] = offset > 0 ? (int) offset : 0;
+            blockState.set(index, BLOCK_FREE);
+
+            if (lowest < 0) lowest = index;
+            released++;
         }
+
+        if (released < 1) return;
+
+        freeBlocks.addAndGet(released);
+
+        long hint;
+        do {
+            hint = freeBlockHint.get();
+        } while (!freeBlockHint.compareAndSet(hint, nextHint(hint, Math.min(lowest, (int) hint))));
     }
 
     /**
@@ -215,22 +520,18 @@ public class DownloadMission extends Mission {
      * @return a {@link java.net.URLConnection URLConnection} linking to the URL.
      * @throws IOException if an I/O exception occurs.
      */
-    HttpURLConnection openConnection(boolean headRequest, long rangeStart, long rangeEnd) throws IOException {
+    Connection openConnection(boolean headRequest, long rangeStart, long rangeEnd) throws IOException {
         return openConnection(urls[current], headRequest, rangeStart, rangeEnd);
     }
 
-    HttpURLConnection openConnection(String url, boolean headRequest, long rangeStart, long rangeEnd) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-        conn.setInstanceFollowRedirects(true);
+    Connection openConnection(String url, boolean headRequest, long rangeStart, long rangeEnd) throws IOException {
+        if (transport == null) transport = new HttpUrlTransport();
+
+        Connection conn = transport.open(url, headRequest);
         conn.setRequestProperty("User-Agent", DownloaderImpl.USER_AGENT);
         conn.setRequestProperty("Accept", "*/*");
         conn.setRequestProperty("Accept-Encoding", "*");
 
-        if (headRequest) conn.setRequestMethod("HEAD");
-
-        // BUG workaround: switching between networks can freeze the download forever
-        conn.setConnectTimeout(30000);
-
         if (rangeStart >= 0) {
             String req = "bytes=" + rangeStart + "-";
             if (rangeEnd > 0) req += rangeEnd;
@@ -243,12 +544,18 @@ public class DownloadMission extends Mission {
 
     /**
      * @param threadId id of the calling thread
-     * @param conn     Opens and establish the communication
+     * @param conn     Opens and establish the communication, disconnected if an error is thrown
      * @throws IOException if an error occurred connecting to the server.
      * @throws HttpError   if the HTTP Status-Code is not satisfiable
      */
-    void establishConnection(int threadId, HttpURLConnection conn) throws IOException, HttpError {
-        int statusCode = conn.getResponseCode();
+    void establishConnection(int threadId, Connection conn) throws IOException, HttpError {
+        int statusCode;
+        try {
+            statusCode = conn.getResponseCode();
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        }
 
         if (DEBUG) {
             Log.d(TAG, threadId + ":[request]  Range=" + conn.getRequestProperty("Range"));
@@ -262,11 +569,13 @@ public class DownloadMission extends Mission {
             case 204:
             case 205:
             case 207:
+                conn.disconnect();
                 throw new HttpError(statusCode);
             case 416:
                 return;// let the download thread handle this error
             default:
                 if (statusCode < 200 || statusCode > 299) {
+                    conn.disconnect();
                     throw new HttpError(statusCode);
                 }
         }
@@ -278,19 +587,84 @@ public class DownloadMission extends Mission {
         mHandler.obtainMessage(what, this).sendToTarget();
     }
 
-    synchronized void notifyProgress(long deltaLen) {
-        if (unknownLength) {
-            length += deltaLen;// Update length before proceeding
+    /**
+     * Reports written bytes, this is called from the download loop and never blocks
+     *
+     * @param threadId id of the calling thread
+     * @param deltaLen amount of bytes written, negative if the progress was lost
+     */
+    void notifyProgress(int threadId, long deltaLen) {
+        progress.add(threadId, deltaLen);
+    }
+
+    /**
+     * Adds the bytes reported by the download threads to {@link #done}, also schedules the
+     * metadata saving if enough progress was made
+     *
+     * @return the amount of bytes downloaded
+     */
+    public long sampleProgress() {
+        StripedCounter counter = progress;
+        if (counter == null) return done;
+
+        synchronized (counter) {
+            long deltaLen = foldProgress(counter);
+
+            if (metadata != null && !writingToFile && (done > writingToFileNext || deltaLen < 0)) {
+                writingToFile = true;
+                writingToFileNext = done + BLOCK_SIZE;
+                runAsync(-2, this::writeProgressToFile);
+            }
         }
 
-        done += deltaLen;
+        return done;
+    }
 
-        if (metadata == null) return;
+    /**
+     * Waits if the bandwidth limits are exceeded, called by the download threads after
+     * writing the received bytes
+     *
+     * @param amount amount of bytes received
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void throttle(long amount) throws InterruptedException {
+        BandwidthManager manager = bandwidth;
+        if (manager != null) manager.acquire(bandwidthBucket, amount);
+    }
+
+    void prepareProgress() {
+        if (progress == null) progress = new StripedCounter(PROGRESS_STRIPES);
+    }
+
+    /**
+     * Discards the bytes reported by the download threads and sets the progress
+     *
+     * @param value amount of bytes downloaded
+     */
+    void resetProgress(long value) {
+        StripedCounter counter = progress;
+        if (counter == null) {
+            done = value;
+            return;
+        }
 
-        if (!writingToFile && (done > writingToFileNext || deltaLen < 0)) {
-            writingToFile = true;
-            writingToFileNext = done + BLOCK_SIZE;
-            writeThisToFileAsync();
+        synchronized (counter) {
+            counter.drain();
+            done = value;
+        }
+    }
+
+    private long foldProgress(@NonNull StripedCounter counter) {
+        synchronized (counter) {
+            long deltaLen = counter.drain();
+            if (deltaLen == 0) return 0;
+
+            if (unknownLength) {
+                length += deltaLen;// Update length before proceeding
+            }
+
+            done += deltaLen;
+            return deltaLen;
         }
     }
 
@@ -364,9 +738,14 @@ public class DownloadMission extends Mission {
     }
 
     synchronized void notifyFinished() {
+        if (progress != null) foldProgress(progress);
+
         if (current < urls.length) {
             if (++finishCount < threads.length) return;
 
+            // the url of this resource is not needed anymore
+            stopUrlRefresher();
+
             if (DEBUG) {
                 Log.d(TAG, "onFinish: downloaded " + (current + 1) + "/" + urls.length);
             }
@@ -381,6 +760,8 @@ public class DownloadMission extends Mission {
         }
 
         if (psAlgorithm != null && psState == 0) {
+            if (handoffPipeline()) return;
+
             threads = new Thread[]{
                     runAsync(1, this::doPostprocessing)
             };
@@ -423,6 +804,9 @@ public class DownloadMission extends Mission {
             psState = state;
             writeThisToFile();
         }
+
+        // the download is done, the next mission in the queue can start
+        if (state == 1) notify(DownloadManagerService.MESSAGE_POSTPROCESSING);
     }
 
 
@@ -450,6 +834,11 @@ public class DownloadMission extends Mission {
 
         notify(DownloadManagerService.MESSAGE_RUNNING);
 
+        if (duplicate != null && current == 0 && blocks == null) {
+            threads = new Thread[]{runAsync(1, this::copyDuplicate)};
+            return;
+        }
+
         if (urls[current] == null) {
             doRecover(ERROR_RESOURCE_GONE);
             return;
@@ -462,9 +851,13 @@ public class DownloadMission extends Mission {
 
         init = null;
         finishCount = 0;
-        blockAcquired = new boolean[blocks.length];
+
+        prepareProgress();
+        if (bandwidthBucket == null) bandwidthBucket = new TokenBucket();
+        if (metrics == null) metrics = new MissionMetrics(this);
 
         if (blocks.length < 1) {
+            metrics.prepare(1);
             threads = new Thread[]{runAsync(1, new DownloadRunnableFallback(this))};
         } else {
             int remainingBlocks = 0;
@@ -476,10 +869,23 @@ public class DownloadMission extends Mission {
             }
 
             threads = new Thread[Math.min(threadCount, remainingBlocks)];
+            prepareBlocks(threads.length);
+            metrics.prepare(threads.length);
 
             for (int i = 0; i < threads.length; i++) {
                 threads[i] = runAsync(i + 1, new DownloadRunnable(this, i));
             }
+
+            if (source != null && recoveryInfo != null && current < recoveryInfo.length) {
+                urlRefresher = new UrlRefresher(this);
+                runAsync(UrlRefresher.mID, urlRefresher);
+            }
+
+            if (canPipelinePostprocessing()) {
+                psContiguousBlocks = 0;
+                psStreaming = true;
+                psPipeline = runAsync(-3, this::doPipelinedPostprocessing);
+            }
         }
     }
 
@@ -552,7 +958,8 @@ public class DownloadMission extends Mission {
         threads = new Thread[0];
         fallbackResumeOffset = 0;
         blocks = null;
-        blockAcquired = null;
+        blockState = null;
+        activeBlocks = null;
 
         if (rollback) current = 0;
         if (persistChanges) writeThisToFile();
@@ -570,14 +977,43 @@ public class DownloadMission extends Mission {
      * Write this {@link DownloadMission} to the meta file asynchronously
      * if no thread is already running.
      */
-    void writeThisToFile() {
+    public void writeThisToFile() {
+        synchronized (LOCK) {
+            if (metadata == null) return;
+            if (progress != null) foldProgress(progress);
+
+            try {
+                getJournal().writeSnapshot(this);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to save the mission state", e);
+            }
+            writingToFile = false;
+        }
+    }
+
+    /**
+     * Appends the download progress to the meta file, cheaper than {@link #writeThisToFile()}
+     */
+    private void writeProgressToFile() {
         synchronized (LOCK) {
             if (metadata == null) return;
-            Utility.writeToFile(metadata, this);
+            if (progress != null) foldProgress(progress);
+
+            try {
+                getJournal().append(this);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to save the mission progress", e);
+            }
             writingToFile = false;
         }
     }
 
+    @NonNull
+    private MissionJournal getJournal() {
+        if (journal == null || !journal.file.equals(metadata)) journal = new MissionJournal(metadata);
+        return journal;
+    }
+
     /**
      * Indicates if the download if fully finished
      *
@@ -587,6 +1023,115 @@ public class DownloadMission extends Mission {
         return current >= urls.length && (psAlgorithm == null || psState == 2);
     }
 
+    /**
+     * Indicates if the post-processing is running while the last resource is downloading. Meanwhile,
+     * the post-processing can only write in the reserved space and must not report any progress
+     *
+     * @return {@code true} if the download is not completed yet, otherwise, {@code false}
+     */
+    public boolean isPsStreaming() {
+        return psStreaming;
+    }
+
+    /**
+     * Blocks the pipelined post-processing until the last resource is downloaded up to the given
+     * offset. Returns immediately if the post-processing is not pipelined
+     *
+     * @param offset absolute offset in the file, use {@link Long#MAX_VALUE} to wait for the whole download
+     * @throws InterruptedIOException if the download was paused or failed
+     */
+    public void waitForDownload(long offset) throws InterruptedIOException {
+        while (psStreaming) {
+            if (!running || errCode != ERROR_NOTHING) {
+                throw new InterruptedIOException("the download was stopped");
+            }
+
+            if (getContiguousEnd() >= offset) return;
+
+            try {
+                Thread.sleep(PIPELINE_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("the download was stopped");
+            }
+        }
+    }
+
+    /**
+     * Gets the end of the data downloaded without gaps from the start of the current resource
+     *
+     * @return absolute offset in the file
+     */
+    private long getContiguousEnd() {
+        int[] blocks = this.blocks;
+        AtomicIntegerArray state = blockState;
+
+        if (current >= urls.length) return Long.MAX_VALUE;// downloaded, not handed off yet
+        if (blocks == null || state == null) return -1;
+
+        int index = psContiguousBlocks;
+        while (index < blocks.length && (blocks[index] == -1 || state.get(index) == BLOCK_FINISHED)) {
+            index++;
+        }
+        psContiguousBlocks = index;
+
+        return offsets[current] + Math.min((long) index * BLOCK_SIZE, length);
+    }
+
+    /**
+     * Indicates if the post-processing can run while the last resource is downloading, only for
+     * algorithms reading the resources from the same file and with space reserved at the start
+     */
+    private boolean canPipelinePostprocessing() {
+        if (psAlgorithm == null || psState != 0) return false;
+        if (!psAlgorithm.worksOnSameFile || !psAlgorithm.reserveSpace || offsets[0] < 1) return false;
+        if (unknownLength || blocks == null || blocks.length < 1 || current != urls.length - 1) {
+            return false;
+        }
+
+        return psPipeline == null || !psPipeline.isAlive();
+    }
+
+    /**
+     * Turns the pipelined post-processing into a regular one, all resources are downloaded
+     *
+     * @return {@code false} if there no pipelined post-processing running
+     */
+    private boolean handoffPipeline() {
+        synchronized (LOCK) {
+            if (!psStreaming) return false;
+
+            if (!psPipeline.isAlive()) {
+                psStreaming = false;
+                return false;
+            }
+
+            threads = new Thread[]{psPipeline};
+            notifyPostProcessing(1);
+
+            done = 0;
+            length = Math.max(storage.length() - offsets[0], nearLength);
+
+            // from now the post-processing can overwrite the downloaded data
+            psStreaming = false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Discards the pipelined post-processing, is executed again once the download is completed
+     *
+     * @return {@code false} if is too late, the post-processing was already handed off
+     */
+    private boolean abandonPipeline() {
+        synchronized (LOCK) {
+            if (!psStreaming) return false;
+
+            psStreaming = false;
+            return true;
+        }
+    }
+
     /**
      * Indicates if the download file is corrupt due a failed post-processing
      *
@@ -658,6 +1203,121 @@ public class DownloadMission extends Mission {
         threads[0].interrupt();
     }
 
+    /**
+     * Describes what is downloaded from the source: the kind, the post-processing and the
+     * formats and qualities. Two missions of the same source and variant produce the same file
+     *
+     * @return the variant, or {@code null} if unknown
+     */
+    @Nullable
+    public String getVariant() {
+        if (recoveryInfo == null || recoveryInfo.length < 1) return null;
+
+        // persisted, built from stable keys only
+        StringBuilder str = new StringBuilder().append(kind);
+        str.append(' ').append(psAlgorithm == null ? "-" : psAlgorithm.getVariantKey());
+        for (MissionRecoveryInfo info : recoveryInfo) str.append(' ').append(info.getVariantKey());
+
+        return str.toString();
+    }
+
+    /**
+     * Reuses the file of {@link #duplicate} if it was not modified since it was fingerprinted,
+     * otherwise, the mission is downloaded as usual
+     */
+    private void copyDuplicate() {
+        FinishedMission source = duplicate;
+        long size;
+
+        try {
+            size = source.storage.length();
+            if (!Objects.equals(source.fingerprint, Utility.fingerprint(source.storage)))
+                throw new IOException("the file was modified after downloaded");
+
+            if (!linkDuplicate(source.storage)) copyFile(source.storage, size);
+        } catch (Exception e) {
+            if (!running) return;// paused, try again on the next start
+
+            Log.w(TAG, "cannot reuse " + source.storage.getName() + ", downloading it", e);
+            duplicate = null;
+            length = 0;
+            done = 0;
+
+            try {
+                if (storage.length() > 0) storage.truncate();
+            } catch (IOException err) {
+                notifyError(err);
+                return;
+            }
+
+            if (urls[current] == null)
+                doRecover(ERROR_RESOURCE_GONE);
+            else
+                initializer();
+            return;
+        }
+
+        if (DEBUG) {
+            Log.d(TAG, "reused " + source.storage.getName() + " for " + storage.getName());
+        }
+
+        synchronized (this) {
+            duplicate = null;
+            length = size;
+            done = size;
+            current = urls.length;
+            if (psAlgorithm != null) psState = 2;
+            notifyFinished();
+        }
+    }
+
+    /**
+     * Replaces the file of this mission with a hard link to the given file, only possible if both
+     * files are local and in the same filesystem
+     *
+     * @return {@code true} if linked, otherwise, {@code false} to copy the file
+     */
+    private boolean linkDuplicate(StoredFileHelper source) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) return false;
+        if (!source.isDirect() || !storage.isDirect()) return false;
+
+        File target = new File(storage.getUri().getPath());
+        File link = new File(target.getParentFile(), target.getName() + ".link");
+
+        try {
+            Os.link(source.getUri().getPath(), link.getPath());
+        } catch (ErrnoException e) {
+            if (DEBUG) Log.d(TAG, "cannot link " + source.getName() + ": " + e.getMessage());
+            return false;
+        }
+
+        if (link.renameTo(target)) return true;
+
+        //noinspection ResultOfMethodCallIgnored
+        link.delete();
+        return false;
+    }
+
+    private void copyFile(StoredFileHelper source, long size) throws IOException {
+        if (storage.length() > 0) storage.truncate();
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        length = size;
+        done = 0;
+
+        try (SharpStream input = source.getReadStream(); SharpStream output = storage.getStream()) {
+            int read;
+            while (done < size && (read = input.read(buffer)) > 0) {
+                if (!running) throw new InterruptedIOException("paused");
+
+                output.write(buffer, 0, read);
+                done += read;
+            }
+        }
+
+        if (done != size) throw new IOException("the file is shorter than expected");
+    }
+
     /**
      * Indicates whatever the backed storage is invalid
      *
@@ -689,12 +1349,11 @@ public class DownloadMission extends Mission {
     private void doPostprocessing() {
         errCode = ERROR_NOTHING;
         errObject = null;
-        Thread thread = Thread.currentThread();
 
         notifyPostProcessing(1);
 
         if (DEBUG) {
-            thread.setName("[" + TAG + "]  ps = " + psAlgorithm + "  filename = " + storage.getName());
+            Thread.currentThread().setName("[" + TAG + "]  ps = " + psAlgorithm + "  filename = " + storage.getName());
         }
 
         Exception exception = null;
@@ -702,20 +1361,53 @@ public class DownloadMission extends Mission {
         try {
             psAlgorithm.run(this);
         } catch (Exception err) {
-            Log.e(TAG, "Post-processing failed. " + psAlgorithm.toString(), err);
+            exception = err;
+        }
 
-            if (err instanceof InterruptedIOException || err instanceof ClosedByInterruptException || thread.isInterrupted()) {
+        finishPostprocessing(exception);
+    }
+
+    /**
+     * Runs the post-processing while the last resource is downloading. If the download is completed
+     * the post-processing continues as a regular one, otherwise, is discarded and executed later
+     */
+    private void doPipelinedPostprocessing() {
+        if (DEBUG) {
+            Thread.currentThread().setName("[" + TAG + "]  pipelined ps = " + psAlgorithm + "  filename = " + storage.getName());
+        }
+
+        Exception exception = null;
+
+        try {
+            psAlgorithm.run(this);
+        } catch (Exception err) {
+            if (abandonPipeline()) {
+                // nothing was written over the downloaded data
+                if (DEBUG) Log.d(TAG, "pipelined post-processing stopped: " + err);
+                return;
+            }
+
+            exception = err;
+        }
+
+        finishPostprocessing(exception);
+    }
+
+    private void finishPostprocessing(@Nullable Exception exception) {
+        if (exception != null) {
+            Log.e(TAG, "Post-processing failed. " + psAlgorithm.toString(), exception);
+
+            if (exception instanceof InterruptedIOException || exception instanceof ClosedByInterruptException || Thread.currentThread().isInterrupted()) {
                 notifyError(DownloadMission.ERROR_POSTPROCESSING_STOPPED, null);
+                notifyPostProcessing(0);
                 return;
             }
 
             if (errCode == ERROR_NOTHING) errCode = ERROR_POSTPROCESSING;
-
-            exception = err;
-        } finally {
-            notifyPostProcessing(errCode == ERROR_NOTHING ? 2 : 0);
         }
 
+        notifyPostProcessing(errCode == ERROR_NOTHING ? 2 : 0);
+
         if (errCode != ERROR_NOTHING) {
             if (exception == null) exception = errObject;
             notifyError(ERROR_POSTPROCESSING, exception);
@@ -725,6 +1417,18 @@ public class DownloadMission extends Mission {
         notifyFinished();
     }
 
+    /**
+     * Asks for a fresh url of the current resource and waits for it, the threads keep downloading
+     * while the url is refreshed
+     *
+     * @param expired the url rejected by the server
+     * @return {@code true} if the url was replaced, otherwise, {@code false} to recover the mission
+     */
+    boolean refreshUrl(String expired) {
+        UrlRefresher refresher = urlRefresher;
+        return refresher != null && refresher.isAlive() && refresher.refresh(expired);
+    }
+
     /**
      * Attempts to recover the download
      *
@@ -740,6 +1444,7 @@ public class DownloadMission extends Mission {
         }
 
         joinForThreads(0);
+        if (metrics != null) metrics.recoveries.incrementAndGet();
 
         threads = new Thread[]{
                 runAsync(DownloadMissionRecover.mID, new DownloadMissionRecover(this, errorCode))
@@ -773,8 +1478,10 @@ public class DownloadMission extends Mission {
      */
     private Thread runAsync(int id, Thread who) {
         // known thread ids:
-        //   -2:     state saving by  notifyProgress()  method
+        //   -2:     state saving by  sampleProgress()  method
         //   -1:     wait for saving the state by  pause()  method
+        //   -3:     post-processing pipelined with the download
+        //   -4:     url refresher, see  UrlRefresher
         //    0:     initializer
         //  >=1:     any download thread
 
@@ -787,6 +1494,13 @@ public class DownloadMission extends Mission {
         return who;
     }
 
+    private void stopUrlRefresher() {
+        Thread refresher = urlRefresher;
+        urlRefresher = null;
+
+        if (refresher != null && refresher != Thread.currentThread()) refresher.interrupt();
+    }
+
     /**
      * Waits at most {@code millis} milliseconds for the thread to die
      *
@@ -808,6 +1522,19 @@ public class DownloadMission extends Mission {
             }
         }
 
+        stopUrlRefresher();
+
+        Thread pipeline = psPipeline;
+        if (pipeline != null && pipeline != currentThread && pipeline.isAlive()) {
+            pipeline.interrupt();
+
+            try {
+                if (millis > 0) pipeline.join(millis);
+            } catch (InterruptedException e) {
+                throw new RuntimeException("The post-processing thread is still running", e);
+            }
+        }
+
         // if a thread is still alive, possible reasons:
         //      slow device
         //      the user is spamming start/pause buttons
@@ -846,8 +1573,68 @@ public class DownloadMission extends Mission {
     }
 
     public static class Block {
-        public int position;
-        public int done;
+        public final int position;
+
+        /**
+         * Set in {@link #state} once the span is released, a sealed span can not be stolen
+         */
+        private static final long SEALED = 1L << 63;
+
+        /**
+         * Amount of consecutive blocks in this span (high 32 bits) and the bytes reserved for
+         * writing (low 32 bits). The count shrinks if other thread steals the tail
+         */
+        final AtomicLong state;
+
+        Block(int position, int count, int done) {
+            this.position = position;
+            this.state = new AtomicLong(pack(count, done));
+        }
+
+        public int getCount() {
+            return count(state.get());
+        }
+
+        public int getDone() {
+            return done(state.get());
+        }
+
+        /**
+         * Seals the span, the count can not change after this
+         *
+         * @return the last state before sealing
+         */
+        long seal() {
+            long current;
+            do {
+                current = state.get();
+            } while (!state.compareAndSet(current, current | SEALED));
+
+            return current;
+        }
+
+        static long pack(int count, int done) {
+            return ((long) count << 32) | (done & 0xFFFFFFFFL);
+        }
+
+        static int count(long state) {
+            return (int) ((state & ~SEALED) >>> 32);
+        }
+
+        static boolean sealed(long state) {
+            return (state & SEALED) != 0;
+        }
+
+        static int done(long state) {
+            return (int) state;
+        }
+
+        /**
+         * @return amount of blocks in the span not reached yet by the owner thread
+         */
+        static int untouched(long state) {
+            return count(state) - (done(state) / BLOCK_SIZE) - 1;
+        }
     }
 
     private static class Lock implements Serializable {
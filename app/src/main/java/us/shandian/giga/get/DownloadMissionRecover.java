@@ -13,11 +13,11 @@ import org.schabi.newpipe.extractor.stream.VideoStream;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
-import java.net.HttpURLConnection;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.List;
 
 import us.shandian.giga.get.DownloadMission.HttpError;
+import us.shandian.giga.transport.Connection;
 
 import static us.shandian.giga.get.DownloadMission.ERROR_RESOURCE_GONE;
 
@@ -30,7 +30,7 @@ public class DownloadMissionRecover extends Thread {
 
     private final int mErrCode;
 
-    private HttpURLConnection mConn;
+    private Connection mConn;
     private MissionRecoveryInfo mRecovery;
     private StreamExtractor mExtractor;
 
@@ -128,51 +128,56 @@ public class DownloadMissionRecover extends Thread {
             return;
         }*/
 
-        String url = null;
+        resolve(findUrl(mExtractor, mRecovery));
+    }
 
-        switch (mRecovery.getKind()) {
+    /**
+     * Finds the url of the stream described by the recovery info
+     *
+     * @param extractor the extractor of the mission source, the page must be fetched
+     * @param recovery  the recovery info of the resource
+     * @return the url, or {@code null} if the stream is not available anymore
+     */
+    static String findUrl(StreamExtractor extractor, MissionRecoveryInfo recovery)
+            throws IOException, ExtractionException {
+        switch (recovery.getKind()) {
             case 'a':
-                for (final AudioStream audio : mExtractor.getAudioStreams()) {
-                    if (audio.getAverageBitrate() == mRecovery.getDesiredBitrate()
-                            && audio.getFormat() == mRecovery.getFormat()
+                for (final AudioStream audio : extractor.getAudioStreams()) {
+                    if (audio.getAverageBitrate() == recovery.getDesiredBitrate()
+                            && audio.getFormat() == recovery.getFormat()
                             && audio.getDeliveryMethod() == DeliveryMethod.PROGRESSIVE_HTTP) {
-                        url = audio.getContent();
-                        break;
+                        return audio.getContent();
                     }
                 }
-                break;
+                return null;
             case 'v':
                 final List<VideoStream> videoStreams;
-                if (mRecovery.isDesired2())
-                    videoStreams = mExtractor.getVideoOnlyStreams();
+                if (recovery.isDesired2())
+                    videoStreams = extractor.getVideoOnlyStreams();
                 else
-                    videoStreams = mExtractor.getVideoStreams();
+                    videoStreams = extractor.getVideoStreams();
                 for (final VideoStream video : videoStreams) {
-                    if (video.getResolution().equals(mRecovery.getDesired())
-                            && video.getFormat() == mRecovery.getFormat()
+                    if (video.getResolution().equals(recovery.getDesired())
+                            && video.getFormat() == recovery.getFormat()
                             && video.getDeliveryMethod() == DeliveryMethod.PROGRESSIVE_HTTP) {
-                        url = video.getContent();
-                        break;
+                        return video.getContent();
                     }
                 }
-                break;
+                return null;
             case 's':
-                for (final SubtitlesStream subtitles : mExtractor.getSubtitles(mRecovery
+                for (final SubtitlesStream subtitles : extractor.getSubtitles(recovery
                         .getFormat())) {
                     String tag = subtitles.getLanguageTag();
-                    if (tag.equals(mRecovery.getDesired())
-                            && subtitles.isAutoGenerated() == mRecovery.isDesired2()
+                    if (tag.equals(recovery.getDesired())
+                            && subtitles.isAutoGenerated() == recovery.isDesired2()
                             && subtitles.getDeliveryMethod() == DeliveryMethod.PROGRESSIVE_HTTP) {
-                        url = subtitles.getContent();
-                        break;
+                        return subtitles.getContent();
                     }
                 }
-                break;
+                return null;
             default:
                 throw new RuntimeException("Unknown stream type");
         }
-
-        resolve(url);
     }
 
     private void resolve(String url) throws IOException, HttpError {
@@ -243,7 +248,7 @@ public class DownloadMissionRecover extends Thread {
         mMission.start();
     }
 
-    private long[] parseContentRange(String value) {
+    static long[] parseContentRange(String value) {
         long[] range = new long[3];
 
         if (value == null) {
@@ -5,13 +5,16 @@ import android.util.Log;
 import com.systems.automaton.reeltube.streams.io.SharpStream;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Objects;
 
 import us.shandian.giga.get.DownloadMission.Block;
 import us.shandian.giga.get.DownloadMission.HttpError;
+import us.shandian.giga.get.MissionMetrics.ThreadMetrics;
+import us.shandian.giga.io.DirectBufferPool;
+import us.shandian.giga.transport.Connection;
 
 import static com.systems.automaton.reeltube.BuildConfig.DEBUG;
 import static us.shandian.giga.get.DownloadMission.ERROR_HTTP_FORBIDDEN;
@@ -24,19 +27,70 @@ import static us.shandian.giga.get.DownloadMission.ERROR_HTTP_FORBIDDEN;
 public class DownloadRunnable extends Thread {
     private static final String TAG = "DownloadRunnable";
 
+    /**
+     * Desired duration of every range request, used to choose the amount of blocks to acquire
+     */
+    private static final int SPAN_DURATION_MILLIS = 3000;
+
+    /**
+     * Weight of the last measured throughput in the average
+     */
+    private static final double SPEED_SMOOTHING = 0.3;
+
+    /**
+     * Buffers shared by all download threads, written to the file without intermediate copies
+     */
+    private static final DirectBufferPool BUFFERS = new DirectBufferPool(DownloadMission.BUFFER_SIZE, 16);
+
     private final DownloadMission mMission;
     private final int mId;
 
-    private HttpURLConnection mConn;
+    private final ThreadMetrics mMetrics;
+
+    private Connection mConn;
+
+    /**
+     * Average throughput of this connection in bytes per second, zero if is not measured yet
+     */
+    private double mSpeed = 0;
 
     DownloadRunnable(DownloadMission mission, int id) {
         mMission = Objects.requireNonNull(mission);
         mId = id;
+        mMetrics = mission.metrics.thread(id);
     }
 
     private void releaseBlock(Block block, long remain) {
-        // set the block offset to -1 if it is completed
-        mMission.releaseBlock(block.position, remain < 0 ? -1 : block.done);
+        // the whole span is completed if there nothing remaining
+        mMission.releaseBlock(mId, block, remain < 0);
+    }
+
+    /**
+     * Calculates the amount of blocks to request, big spans for fast connections (less requests)
+     * and small spans for the slow ones (less work to steal at the end of the download)
+     *
+     * @return amount of blocks
+     */
+    private int desiredBlocks() {
+        if (mSpeed <= 0) return 1;
+
+        double bytes = mSpeed * SPAN_DURATION_MILLIS / 1000d;
+        return (int) Math.max(1, Math.min(bytes / DownloadMission.BLOCK_SIZE, DownloadMission.MAX_SPAN_BLOCKS));
+    }
+
+    private void measureSpeed(long bytes, long elapsedNanos) {
+        // ignore tiny samples, are dominated by the latency
+        if (bytes < DownloadMission.BUFFER_SIZE || elapsedNanos < 1) return;
+
+        double speed = bytes * 1e9d / elapsedNanos;
+
+        if (mSpeed <= 0)
+            mSpeed = speed;
+        else
+            mSpeed = (speed * SPEED_SMOOTHING) + (mSpeed * (1d - SPEED_SMOOTHING));
+
+        mMetrics.throughput.record((long) (speed / 1024d));
+        mMetrics.speed = (long) mSpeed;
     }
 
     @Override
@@ -55,7 +109,9 @@ public class DownloadRunnable extends Thread {
 
         while (mMission.running && mMission.errCode == DownloadMission.ERROR_NOTHING) {
             if (!retry) {
-                block = mMission.acquireBlock();
+                long waitStart = System.nanoTime();
+                block = mMission.acquireBlock(mId, desiredBlocks());
+                mMetrics.acquireWait.record((System.nanoTime() - waitStart) / 1000);
             }
 
             if (block == null) {
@@ -67,30 +123,33 @@ public class DownloadRunnable extends Thread {
                 if (retry)
                     Log.d(TAG, mId + ":retry block at position=" + block.position + " from the start");
                 else
-                    Log.d(TAG, mId + ":acquired block at position=" + block.position + " done=" + block.done);
+                    Log.d(TAG, mId + ":acquired block at position=" + block.position + " count=" + block.getCount() + " done=" + block.getDone());
             }
 
-            long start = (long)block.position * DownloadMission.BLOCK_SIZE;
-            long end = start + DownloadMission.BLOCK_SIZE - 1;
-
-            start += block.done;
+            long origin = (long) block.position * DownloadMission.BLOCK_SIZE;
+            long start = origin + block.getDone();
+            long end = mMission.getBlockEnd(block);
+            long began = System.nanoTime();
+            String url = mMission.urls[mMission.current];
 
-            if (end >= mMission.length) {
-                end = mMission.length - 1;
-            }
+            mConn = null;
 
             try {
-                mConn = mMission.openConnection(false, start, end);
+                mConn = mMission.openConnection(url, false, start, end);
+                mMetrics.requests.incrementAndGet();
                 mMission.establishConnection(mId, mConn);
+                mMetrics.firstByte.record((System.nanoTime() - began) / 1000000);
 
                 // check if the download can be resumed
                 if (mConn.getResponseCode() == 416) {
-                    if (block.done > 0) {
+                    mMetrics.unsatisfiable.incrementAndGet();
+
+                    if (block.getDone() > 0) {
                         // try again from the start (of the block)
-                        mMission.notifyProgress(-block.done);
-                        block.done = 0;
+                        mMission.notifyProgress(mId, -block.getDone());
+                        mMission.rollbackBlock(block);
+                        mMetrics.retries.incrementAndGet();
                         retry = true;
-                        mConn.disconnect();
                         continue;
                     }
 
@@ -108,22 +167,46 @@ public class DownloadRunnable extends Thread {
                     break;
                 }
 
-                f.seek(mMission.offsets[mMission.current] + start);
-
-                try (InputStream is = mConn.getInputStream()) {
-                    byte[] buf = new byte[DownloadMission.BUFFER_SIZE];
-                    int len;
+                // positional writes, the threads do not depend on the stream position
+                long offset = mMission.offsets[mMission.current];
+                long received = 0;
+                ByteBuffer buffer = BUFFERS.acquire();
 
+                try (ReadableByteChannel source = mConn.getChannel()) {
                     // use always start <= end
                     // fixes a deadlock because in some videos, youtube is sending one byte alone
-                    while (start <= end && mMission.running && (len = is.read(buf, 0, buf.length)) != -1) {
-                        f.write(buf, 0, len);
+                    while (start <= end && mMission.running) {
+                        buffer.clear();
+                        if (source.read(buffer) == -1) break;
+                        buffer.flip();
+
+                        // the tail of the span can be stolen by other thread
+                        int len = mMission.reserveBlock(block, buffer.remaining());
+                        if (len < 1) break;
+
+                        buffer.limit(len);
+
+                        try {
+                            f.write(buffer, offset + start);
+                        } catch (IOException e) {
+                            mMission.unreserveBlock(block, len);
+                            throw e;
+                        }
+
+                        mMission.commitBlock(block, (int) (start - origin), len);
                         start += len;
-                        block.done += len;
-                        mMission.notifyProgress(len);
+                        received += len;
+                        mMetrics.bytes.addAndGet(len);
+                        mMission.notifyProgress(mId, len);
+                        mMission.throttle(len);
                     }
+                } finally {
+                    BUFFERS.release(buffer);
                 }
 
+                measureSpeed(received, System.nanoTime() - began);
+                end = mMission.getBlockEnd(block);
+
                 if (DEBUG && mMission.running) {
                     Log.d(TAG, mId + ":position " + block.position + " stopped " + start + "/" + end);
                 }
@@ -131,10 +214,20 @@ public class DownloadRunnable extends Thread {
                 if (!mMission.running || e instanceof ClosedByInterruptException) break;
 
                 if (e instanceof HttpError && ((HttpError) e).statusCode == ERROR_HTTP_FORBIDDEN) {
-                    // for youtube streams. The url has expired, recover
+                    mMetrics.forbidden.incrementAndGet();
+
+                    // for youtube streams. The url has expired, swap it without stopping
+                    if (retryCount++ < mMission.maxRetry && mMission.refreshUrl(url)) {
+                        if (DEBUG) Log.d(TAG, mId + ":the url expired, using the refreshed one");
+                        mMetrics.retries.incrementAndGet();
+                        retry = true;
+                        continue;
+                    }
+
+                    // the url cannot be swapped, recover
                     f.close();
 
-                    if (mId == 1) {
+                    if (mId == 0) {
                         // only the first thread will execute the recovery procedure
                         mMission.doRecover(ERROR_HTTP_FORBIDDEN);
                     }
@@ -146,9 +239,16 @@ public class DownloadRunnable extends Thread {
                     break;
                 }
 
+                mMetrics.retries.incrementAndGet();
                 retry = true;
             } finally {
-                if (!retry) releaseBlock(block, end - start);
+                // every request is closed, the pooled connections (or HTTP/2 streams) are reused
+                if (mConn != null) mConn.disconnect();
+
+                if (!retry) {
+                    releaseBlock(block, end - start);
+                    mMission.sampleProgress();
+                }
             }
         }
 
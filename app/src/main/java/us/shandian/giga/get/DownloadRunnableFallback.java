@@ -8,11 +8,11 @@ import com.systems.automaton.reeltube.streams.io.SharpStream;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
 import java.nio.channels.ClosedByInterruptException;
 
 import us.shandian.giga.get.DownloadMission.HttpError;
-import us.shandian.giga.util.Utility;
+import us.shandian.giga.get.MissionMetrics.ThreadMetrics;
+import us.shandian.giga.transport.Connection;
 
 import static com.systems.automaton.reeltube.BuildConfig.DEBUG;
 import static us.shandian.giga.get.DownloadMission.ERROR_HTTP_FORBIDDEN;
@@ -24,14 +24,16 @@ public class DownloadRunnableFallback extends Thread {
     private static final String TAG = "DownloadRunnableFallback";
 
     private final DownloadMission mMission;
+    private final ThreadMetrics mMetrics;
 
     private int mRetryCount = 0;
     private InputStream mIs;
     private SharpStream mF;
-    private HttpURLConnection mConn;
+    private Connection mConn;
 
     DownloadRunnableFallback(@NonNull DownloadMission mission) {
         mMission = mission;
+        mMetrics = mission.metrics.thread(0);
     }
 
     private void dispose() {
@@ -68,11 +70,15 @@ public class DownloadRunnableFallback extends Thread {
                 mConn.setRequestProperty("Range", "bytes=0-");
             }
 
+            long began = System.nanoTime();
+            mMetrics.requests.incrementAndGet();
             mMission.establishConnection(mId, mConn);
+            mMetrics.firstByte.record((System.nanoTime() - began) / 1000000);
 
             // check if the download can be resumed
             if (mConn.getResponseCode() == 416 && start > 0) {
-                mMission.notifyProgress(-start);
+                mMetrics.unsatisfiable.incrementAndGet();
+                mMission.notifyProgress(mId, -start);
                 start = 0;
                 mRetryCount--;
                 throw new DownloadMission.HttpError(416);
@@ -80,11 +86,11 @@ public class DownloadRunnableFallback extends Thread {
 
             // secondary check for the file length
             if (!mMission.unknownLength)
-                mMission.unknownLength = Utility.getContentLength(mConn) == -1;
+                mMission.unknownLength = mConn.getContentLength() == -1;
 
             if (mMission.unknownLength || mConn.getResponseCode() == 200) {
                 // restart amount of bytes downloaded
-                mMission.done = mMission.offsets[mMission.current] - mMission.offsets[0];
+                mMission.resetProgress(mMission.offsets[mMission.current] - mMission.offsets[0]);
             }
 
             mF = mMission.storage.getStream();
@@ -94,11 +100,19 @@ public class DownloadRunnableFallback extends Thread {
 
             byte[] buf = new byte[DownloadMission.BUFFER_SIZE];
             int len = 0;
+            long sampleNext = start + DownloadMission.BLOCK_SIZE;
 
             while (mMission.running && (len = mIs.read(buf, 0, buf.length)) != -1) {
                 mF.write(buf, 0, len);
                 start += len;
-                mMission.notifyProgress(len);
+                mMetrics.bytes.addAndGet(len);
+                mMission.notifyProgress(mId, len);
+                mMission.throttle(len);
+
+                if (start > sampleNext) {
+                    sampleNext = start + DownloadMission.BLOCK_SIZE;
+                    mMission.sampleProgress();
+                }
             }
 
             dispose();
@@ -114,6 +128,7 @@ public class DownloadRunnableFallback extends Thread {
 
             if (e instanceof HttpError && ((HttpError) e).statusCode == ERROR_HTTP_FORBIDDEN) {
                 // for youtube streams. The url has expired, recover
+                mMetrics.forbidden.incrementAndGet();
                 dispose();
                 mMission.doRecover(ERROR_HTTP_FORBIDDEN);
                 return;
@@ -128,6 +143,8 @@ public class DownloadRunnableFallback extends Thread {
                 Log.e(TAG, "got exception, retrying...", e);
             }
 
+            mMetrics.retries.incrementAndGet();
+
             run();// try again
             return;
         }
@@ -4,6 +4,17 @@ import androidx.annotation.NonNull;
 
 public class FinishedMission extends Mission {
 
+    /**
+     * What was downloaded from the source, see {@link DownloadMission#getVariant()}
+     */
+    public String variant;
+
+    /**
+     * Fingerprint of the file, taken in background after the download finishes, see
+     * {@link us.shandian.giga.util.Utility#fingerprint}
+     */
+    public volatile String fingerprint;
+
     public FinishedMission() {
     }
 
@@ -13,6 +24,7 @@ public class FinishedMission extends Mission {
         timestamp = mission.timestamp;
         kind = mission.kind;
         storage = mission.storage;
+        variant = mission.getVariant();
     }
 
 }
@@ -0,0 +1,279 @@
+package us.shandian.giga.get;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import us.shandian.giga.util.Utility;
+
+/**
+ * Metadata file of a pending {@link DownloadMission}. The file is composed by a snapshot of the
+ * whole mission followed by an append-only journal of the progress made since the snapshot.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ *   int     magic
+ *   int     version
+ *   int     snapshot length
+ *   byte[]  snapshot, the mission serialized with {@link ObjectOutputStream}
+ *   record* journal, every record is {@code byte type, int index, long value}
+ * </pre>
+ * The journal is compacted (the snapshot is written again) once is bigger than the snapshot.
+ * Files written by older versions (plain serialized missions) are still readable and are
+ * rewritten in this format on the next save.
+ */
+public final class MissionJournal {
+    static final int MAGIC = 0x47494741;// "GIGA"
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_SIZE = 13;
+
+    private static final byte RECORD_BLOCK = 1;
+    private static final byte RECORD_DONE = 2;
+    private static final byte RECORD_FALLBACK_OFFSET = 3;
+
+    /**
+     * Compact the journal only if is bigger than this, avoids rewriting tiny snapshots too often
+     */
+    private static final int COMPACT_THRESHOLD = 4 * 1024;
+
+    final File file;
+
+    /**
+     * Mission state already written in the file, {@code null} if there no snapshot yet
+     */
+    private int[] persistedBlocks;
+    private long persistedDone;
+    private long persistedFallbackOffset;
+
+    private long snapshotLength = -1;
+    private long journalLength;
+
+    MissionJournal(@NonNull File file) {
+        this.file = file;
+    }
+
+    /**
+     * Writes a full snapshot of the mission, discarding the journal
+     *
+     * @param mission the mission to save
+     * @throws IOException if an I/O error occurs
+     */
+    void writeSnapshot(@NonNull DownloadMission mission) throws IOException {
+        // copy the state before serializing, changes made meanwhile will be journaled later
+        int[] blocks = mission.blocks == null ? null : mission.blocks.clone();
+        long done = mission.done;
+        long fallbackOffset = mission.fallbackResumeOffset;
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream(4 * 1024);
+        try (ObjectOutputStream stream = new ObjectOutputStream(snapshot)) {
+            stream.writeObject(mission);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(snapshot.size());
+        header.flip();
+
+        // write in other file and replace, the old metadata must survive a crash
+        File temp = new File(file.getParentFile(), file.getName() + ".new");
+
+        try (FileOutputStream output = new FileOutputStream(temp)) {
+            FileChannel channel = output.getChannel();
+            writeFully(channel, header);
+            writeFully(channel, ByteBuffer.wrap(snapshot.toByteArray()));
+        }
+
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Cannot replace the metadata file " + file.getName());
+        }
+
+        persistedBlocks = blocks;
+        persistedDone = done;
+        persistedFallbackOffset = fallbackOffset;
+        snapshotLength = HEADER_SIZE + snapshot.size();
+        journalLength = 0;
+    }
+
+    /**
+     * Appends the progress made since the last save. A snapshot is written instead if the
+     * journal is too big or the mission state can not be expressed as journal records.
+     *
+     * @param mission the mission to save
+     * @throws IOException if an I/O error occurs
+     */
+    void append(@NonNull DownloadMission mission) throws IOException {
+        int[] blocks = mission.blocks;
+
+        if (snapshotLength < 0 || blocks == null || persistedBlocks == null
+                || blocks.length != persistedBlocks.length
+                || journalLength > Math.max(snapshotLength, COMPACT_THRESHOLD)) {
+            writeSnapshot(mission);
+            return;
+        }
+
+        long done = mission.done;
+        long fallbackOffset = mission.fallbackResumeOffset;
+
+        int changes = 0;
+        for (int i = 0; i < blocks.length; i++) if (blocks[i] != persistedBlocks[i]) changes++;
+
+        ByteBuffer buffer = ByteBuffer.allocate((changes + 2) * RECORD_SIZE);
+
+        for (int i = 0; i < blocks.length && changes > 0; i++) {
+            int value = blocks[i];
+            if (value == persistedBlocks[i]) continue;
+
+            buffer.put(RECORD_BLOCK).putInt(i).putLong(value);
+            persistedBlocks[i] = value;
+            changes--;
+        }
+
+        if (done != persistedDone) {
+            buffer.put(RECORD_DONE).putInt(0).putLong(done);
+            persistedDone = done;
+        }
+
+        if (fallbackOffset != persistedFallbackOffset) {
+            buffer.put(RECORD_FALLBACK_OFFSET).putInt(0).putLong(fallbackOffset);
+            persistedFallbackOffset = fallbackOffset;
+        }
+
+        buffer.flip();
+        if (!buffer.hasRemaining()) return;
+
+        try (FileOutputStream output = new FileOutputStream(file, true)) {
+            writeFully(output.getChannel(), buffer);
+        }
+
+        journalLength += buffer.limit();
+    }
+
+    /**
+     * Reads a mission from a metadata file, written by this class or by older versions
+     *
+     * @param file the metadata file
+     * @return the mission or {@code null} if the file is not readable
+     */
+    @Nullable
+    public static DownloadMission read(@NonNull File file) {
+        ByteBuffer buffer;
+
+        try (FileInputStream input = new FileInputStream(file)) {
+            FileChannel channel = input.getChannel();
+            long size = channel.size();
+
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) return readLegacy(file);
+
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // read the whole file at once
+            }
+            buffer.flip();
+        } catch (IOException e) {
+            return null;
+        }
+
+        if (buffer.getInt() != MAGIC) return readLegacy(file);
+        if (buffer.getInt() > VERSION) return null;// written by a newer version
+
+        int snapshotSize = buffer.getInt();
+        if (snapshotSize < 0 || snapshotSize > buffer.remaining()) return null;
+
+        DownloadMission mission;
+        try (ObjectInputStream stream = new ObjectInputStream(
+                new ByteArrayInputStream(buffer.array(), buffer.position(), snapshotSize))) {
+            mission = (DownloadMission) stream.readObject();
+        } catch (Exception e) {
+            return null;
+        }
+
+        buffer.position(buffer.position() + snapshotSize);
+
+        MissionJournal journal = new MissionJournal(file);
+        journal.snapshotLength = HEADER_SIZE + snapshotSize;
+
+        // an incomplete record at the end is ignored, the process died while writing it
+        while (buffer.remaining() >= RECORD_SIZE) {
+            byte type = buffer.get();
+            int index = buffer.getInt();
+            long value = buffer.getLong();
+
+            switch (type) {
+                case RECORD_BLOCK:
+                    if (mission.blocks != null && index >= 0 && index < mission.blocks.length) {
+                        mission.blocks[index] = (int) value;
+                    }
+                    break;
+                case RECORD_DONE:
+                    mission.done = value;
+                    break;
+                case RECORD_FALLBACK_OFFSET:
+                    mission.fallbackResumeOffset = value;
+                    break;
+                default:
+                    return mission;// corrupted journal, keep what was replayed
+            }
+
+            journal.journalLength += RECORD_SIZE;
+        }
+
+        // cut the incomplete record off, the next records would be appended after it and
+        // replayed shifted. If not possible, the next save writes a snapshot instead
+        if (buffer.hasRemaining()
+                && !truncate(file, journal.snapshotLength + journal.journalLength)) {
+            return mission;
+        }
+
+        journal.persistedBlocks = mission.blocks == null ? null : mission.blocks.clone();
+        journal.persistedDone = mission.done;
+        journal.persistedFallbackOffset = mission.fallbackResumeOffset;
+
+        mission.journal = journal;
+        return mission;
+    }
+
+    /**
+     * Reads a metadata file written with {@link Utility#writeToFile(File, java.io.Serializable)}.
+     * The journal is not attached, so the next save writes a snapshot in the new format.
+     */
+    @Nullable
+    private static DownloadMission readLegacy(@NonNull File file) {
+        Object object = Utility.readFromFile(file);
+        return object instanceof DownloadMission ? (DownloadMission) object : null;
+    }
+
+    /**
+     * @param file a file in the pending downloads directory
+     * @return {@code true} if the file was left by an interrupted snapshot write
+     */
+    public static boolean isTemporal(@NonNull File file) {
+        return file.getName().endsWith(".new");
+    }
+
+    private static boolean truncate(@NonNull File file, long length) {
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.getChannel().truncate(length);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+}
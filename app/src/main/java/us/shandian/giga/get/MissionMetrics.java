@@ -0,0 +1,218 @@
+package us.shandian.giga.get;
+
+import androidx.annotation.NonNull;
+
+import com.grack.nanojson.JsonStringWriter;
+import com.grack.nanojson.JsonWriter;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import us.shandian.giga.util.Histogram;
+
+/**
+ * Throughput counters of a mission, recorded by the download threads while the app is running.
+ * Used to tune the amount of threads and the block size from real downloads, the counters can
+ * be exported as CSV (one row per thread) or as a JSON trace with the histogram buckets.
+ */
+public class MissionMetrics {
+
+    /**
+     * Counters of one download thread, only written by that thread
+     */
+    public static class ThreadMetrics {
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong forbidden = new AtomicLong();
+        final AtomicLong unsatisfiable = new AtomicLong();
+
+        /**
+         * Time to the response headers of every request, in milliseconds
+         */
+        public final Histogram firstByte = new Histogram();
+
+        /**
+         * Time spent acquiring blocks, in microseconds
+         */
+        public final Histogram acquireWait = new Histogram();
+
+        /**
+         * Throughput of every range request, in KiB per second
+         */
+        public final Histogram throughput = new Histogram();
+
+        /**
+         * Smoothed throughput of the connection in bytes per second
+         */
+        volatile long speed;
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        public long getRetries() {
+            return retries.get();
+        }
+
+        public long getForbidden() {
+            return forbidden.get();
+        }
+
+        public long getUnsatisfiable() {
+            return unsatisfiable.get();
+        }
+
+        public long getSpeed() {
+            return speed;
+        }
+    }
+
+    private final DownloadMission mMission;
+    private final long mSince = System.currentTimeMillis();
+    private volatile ThreadMetrics[] mThreads = new ThreadMetrics[0];
+
+    final AtomicInteger recoveries = new AtomicInteger();
+    final AtomicInteger refreshes = new AtomicInteger();
+
+    MissionMetrics(DownloadMission mission) {
+        mMission = mission;
+    }
+
+    /**
+     * Ensures there are counters for the given amount of threads, the counters of a previous
+     * run are kept
+     *
+     * @param count amount of download threads
+     */
+    synchronized void prepare(int count) {
+        ThreadMetrics[] threads = mThreads;
+        if (threads.length >= count) return;
+
+        ThreadMetrics[] grown = new ThreadMetrics[count];
+        System.arraycopy(threads, 0, grown, 0, threads.length);
+        for (int i = threads.length; i < count; i++) grown[i] = new ThreadMetrics();
+
+        mThreads = grown;
+    }
+
+    /**
+     * @param threadId id of the download thread
+     * @return the counters of the thread, must be prepared before
+     */
+    @NonNull
+    ThreadMetrics thread(int threadId) {
+        ThreadMetrics[] threads = mThreads;
+        return threads[Math.max(0, Math.min(threadId, threads.length - 1))];
+    }
+
+    @NonNull
+    public ThreadMetrics[] getThreads() {
+        return mThreads.clone();
+    }
+
+    /**
+     * @return time when the counting started, in milliseconds since the epoch
+     */
+    public long getSince() {
+        return mSince;
+    }
+
+    public long getBytes() {
+        long bytes = 0;
+        for (ThreadMetrics thread : mThreads) bytes += thread.getBytes();
+        return bytes;
+    }
+
+    public int getRecoveries() {
+        return recoveries.get();
+    }
+
+    public int getRefreshes() {
+        return refreshes.get();
+    }
+
+    /**
+     * @return the counters as CSV, one row per thread
+     */
+    public String toCsv() {
+        StringBuilder csv = new StringBuilder(512);
+        csv.append("thread,bytes,requests,retries,http_403,http_416,speed_bps,")
+                .append("ttfb_p50_ms,ttfb_p90_ms,ttfb_max_ms,")
+                .append("acquire_p50_us,acquire_p99_us,acquire_max_us,")
+                .append("span_p10_kibps,span_p50_kibps,span_p90_kibps\n");
+
+        ThreadMetrics[] threads = mThreads;
+        for (int i = 0; i < threads.length; i++) {
+            ThreadMetrics thread = threads[i];
+            csv.append(String.format(Locale.US,
+                    "%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d\n",
+                    i, thread.getBytes(), thread.getRequests(), thread.getRetries(),
+                    thread.getForbidden(), thread.getUnsatisfiable(), thread.getSpeed(),
+                    thread.firstByte.getPercentile(0.5), thread.firstByte.getPercentile(0.9),
+                    thread.firstByte.getMax(),
+                    thread.acquireWait.getPercentile(0.5), thread.acquireWait.getPercentile(0.99),
+                    thread.acquireWait.getMax(),
+                    thread.throughput.getPercentile(0.1), thread.throughput.getPercentile(0.5),
+                    thread.throughput.getPercentile(0.9)
+            ));
+        }
+
+        return csv.toString();
+    }
+
+    /**
+     * @return the counters and the histogram buckets of every thread as JSON
+     */
+    public String toJson() {
+        JsonStringWriter json = JsonWriter.string().object()
+                .value("name", mMission.storage == null ? null : mMission.storage.getName())
+                .value("since", mSince)
+                .value("now", System.currentTimeMillis())
+                .value("length", mMission.length)
+                .value("thread_count", mMission.threadCount)
+                .value("block_size", DownloadMission.BLOCK_SIZE)
+                .value("recoveries", getRecoveries())
+                .value("url_refreshes", getRefreshes())
+                .array("threads");
+
+        for (ThreadMetrics thread : mThreads) {
+            json.object()
+                    .value("bytes", thread.getBytes())
+                    .value("requests", thread.getRequests())
+                    .value("retries", thread.getRetries())
+                    .value("http_403", thread.getForbidden())
+                    .value("http_416", thread.getUnsatisfiable())
+                    .value("speed_bps", thread.getSpeed());
+
+            writeHistogram(json, "ttfb_ms", thread.firstByte);
+            writeHistogram(json, "acquire_us", thread.acquireWait);
+            writeHistogram(json, "span_kibps", thread.throughput);
+
+            json.end();
+        }
+
+        return json.end().end().done();
+    }
+
+    private static void writeHistogram(JsonStringWriter json, String key, Histogram histogram) {
+        json.object(key)
+                .value("count", histogram.getCount())
+                .value("mean", histogram.getMean())
+                .value("max", histogram.getMax())
+                .object("buckets");
+
+        // only the used buckets, keyed by their upper bound
+        long[] buckets = histogram.getBuckets();
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] > 0) json.value(String.valueOf(Histogram.upperBound(i)), buckets[i]);
+        }
+
+        json.end().end();
+    }
+}
@@ -39,6 +39,18 @@ class MissionRecoveryInfo(
         }
     }
 
+    /**
+     * Identifies the kind, format and quality of the stream, stored by the finished missions.
+     * Unlike [toString] must never change, see [DownloadMission.getVariant]
+     */
+    fun getVariantKey(): String {
+        val quality = when (kind) {
+            'a' -> desiredBitrate.toString()
+            else -> "$desired,$isDesired2"
+        }
+        return "$kind,${format?.id},$quality"
+    }
+
     override fun toString(): String {
         val info: String
         val str = StringBuilder()
@@ -0,0 +1,217 @@
+package us.shandian.giga.get;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.schabi.newpipe.extractor.NewPipe;
+import org.schabi.newpipe.extractor.stream.StreamExtractor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import us.shandian.giga.transport.Connection;
+
+import static com.systems.automaton.reeltube.BuildConfig.DEBUG;
+
+/**
+ * Refreshes the url of the resource being downloaded before it expires, like the YouTube urls
+ * do after some hours. The fresh url is swapped in {@link DownloadMission#urls} while the
+ * download threads keep running, each one uses it in its next range request.
+ * <p>
+ * A download thread rejected with 403 can wait here for a fresh url, instead of recovering the
+ * whole mission. If the url cannot be swapped (the resource changed or is gone), the mission is
+ * recovered as usual, see {@link DownloadMissionRecover}.
+ */
+class UrlRefresher extends Thread {
+    private static final String TAG = "UrlRefresher";
+    static final int mID = -4;
+
+    /**
+     * How long before the expiration the url is refreshed
+     */
+    private static final long REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * How long a download thread waits for a fresh url
+     */
+    private static final long REFRESH_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final Pattern EXPIRE = Pattern.compile("[?&/]expire[=/](\\d+)");
+
+    private final DownloadMission mMission;
+    private final int mCurrent;
+
+    // not the thread itself, join() waits on it
+    private final Object mLock = new Object();
+    private String mRequested = null;
+    private boolean mDead = false;
+
+    UrlRefresher(DownloadMission mission) {
+        mMission = mission;
+        mCurrent = mission.current;
+    }
+
+    /**
+     * Reads the expiration of the url, from the {@code expire} parameter used by YouTube
+     *
+     * @param url the url
+     * @return the expiration in milliseconds since the epoch, or {@code -1} if unknown
+     */
+    static long getExpiration(@Nullable String url) {
+        if (url == null) return -1;
+
+        Matcher matcher = EXPIRE.matcher(url);
+        if (!matcher.find()) return -1;
+
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(matcher.group(1)));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Asks for a fresh url and waits for it. Called by the download threads
+     *
+     * @param expired the url rejected by the server
+     * @return {@code true} if the url was replaced, otherwise, {@code false}
+     */
+    boolean refresh(String expired) {
+        long deadline = System.currentTimeMillis() + REFRESH_TIMEOUT_MILLIS;
+
+        synchronized (mLock) {
+            while (expired.equals(mMission.urls[mCurrent])) {
+                if (mDead) return false;
+
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) return false;
+
+                mRequested = expired;
+                mLock.notifyAll();
+
+                try {
+                    mLock.wait(wait);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (mMission.running && mMission.current == mCurrent) {
+                String url = mMission.urls[mCurrent];
+                if (url == null) return;
+
+                awaitRefresh(url);
+                if (isStale()) return;
+
+                String fresh = resolve();
+                if (isStale()) return;
+
+                if (fresh == null || !isSameResource(fresh)) {
+                    Log.w(TAG, "cannot refresh the url of " + mMission.storage.getName());
+                    return;
+                }
+
+                synchronized (mLock) {
+                    // copy on write, other threads are reading the array
+                    String[] urls = mMission.urls.clone();
+                    urls[mCurrent] = fresh;
+                    mMission.urls = urls;
+                    mRequested = null;
+                    mLock.notifyAll();
+                }
+
+                if (mMission.metrics != null) mMission.metrics.refreshes.incrementAndGet();
+
+                if (DEBUG) {
+                    Log.d(TAG, "url refreshed, expires at " + getExpiration(fresh));
+                }
+
+                mMission.writeThisToFile();
+            }
+        } catch (InterruptedException e) {
+            // paused or the next resource is being downloaded
+        } finally {
+            synchronized (mLock) {
+                mDead = true;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the mission was paused, finished or moved to the next resource
+     */
+    private boolean isStale() {
+        return !mMission.running || mMission.current != mCurrent || isInterrupted();
+    }
+
+    /**
+     * Waits until the url is about to expire or a download thread asks for a fresh one
+     */
+    private void awaitRefresh(String url) throws InterruptedException {
+        long expiration = getExpiration(url);
+
+        synchronized (mLock) {
+            while (!url.equals(mRequested)) {
+                if (expiration < 0) {
+                    mLock.wait();
+                    continue;
+                }
+
+                long wait = expiration - REFRESH_MARGIN_MILLIS - System.currentTimeMillis();
+                if (wait <= 0) return;
+
+                mLock.wait(wait);
+            }
+        }
+    }
+
+    @Nullable
+    private String resolve() {
+        try {
+            StreamExtractor extractor = NewPipe.getServiceByUrl(mMission.source)
+                    .getStreamExtractor(mMission.source);
+            extractor.fetchPage();
+
+            return DownloadMissionRecover.findUrl(extractor, mMission.recoveryInfo[mCurrent]);
+        } catch (Exception e) {
+            if (DEBUG) Log.w(TAG, "cannot resolve the stream of " + mMission.source, e);
+            return null;
+        }
+    }
+
+    /**
+     * Checks with a range request if the fresh url points to the same file, so the downloaded
+     * data can be kept
+     */
+    private boolean isSameResource(String url) {
+        MissionRecoveryInfo recovery = mMission.recoveryInfo[mCurrent];
+        Connection conn = null;
+
+        try {
+            conn = mMission.openConnection(url, true, mMission.length - 10, mMission.length);
+            if (recovery.getValidateCondition() != null)
+                conn.setRequestProperty("If-Range", recovery.getValidateCondition());
+
+            mMission.establishConnection(mID, conn);
+            if (conn.getResponseCode() != 206) return false;
+
+            long[] range = DownloadMissionRecover.parseContentRange(conn.getHeaderField("Content-Range"));
+            return range[2] == mMission.length;
+        } catch (Exception e) {
+            if (DEBUG) Log.w(TAG, "cannot validate the fresh url", e);
+            return false;
+        } finally {
+            if (conn != null) conn.disconnect();
+        }
+    }
+}
@@ -27,7 +27,7 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
     // TODO: use NewPipeSQLiteHelper ('s constants) when playlist branch is merged (?)
     private static final String DATABASE_NAME = "downloads.db";
 
-    private static final int DATABASE_VERSION = 4;
+    private static final int DATABASE_VERSION = 5;
 
     /**
      * The table name of download missions (old)
@@ -56,6 +56,16 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
 
     private static final String KEY_PATH = "path";
 
+    /**
+     * The key to what was downloaded from the source, see {@link DownloadMission#getVariant()}
+     */
+    private static final String KEY_VARIANT = "variant";
+
+    /**
+     * The key to the fingerprint of the file, taken after the download finishes
+     */
+    private static final String KEY_FINGERPRINT = "fingerprint";
+
     /**
      * The statement to create the table
      */
@@ -66,6 +76,8 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
                     KEY_DONE + " INTEGER NOT NULL, " +
                     KEY_TIMESTAMP + " INTEGER NOT NULL, " +
                     KEY_KIND + " TEXT NOT NULL, " +
+                    KEY_VARIANT + " TEXT, " +
+                    KEY_FINGERPRINT + " TEXT, " +
                     " UNIQUE(" + KEY_TIMESTAMP + ", " + KEY_PATH + "));";
 
 
@@ -121,6 +133,12 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
 
             cursor.close();
             db.execSQL("DROP TABLE " + MISSIONS_TABLE_NAME_v2);
+            return;// the table was created with the current columns
+        }
+
+        if (oldVersion == 4) {
+            db.execSQL("ALTER TABLE " + FINISHED_TABLE_NAME + " ADD COLUMN " + KEY_VARIANT + " TEXT;");
+            db.execSQL("ALTER TABLE " + FINISHED_TABLE_NAME + " ADD COLUMN " + KEY_FINGERPRINT + " TEXT;");
         }
     }
 
@@ -137,6 +155,13 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
         values.put(KEY_DONE, downloadMission.length);
         values.put(KEY_TIMESTAMP, downloadMission.timestamp);
         values.put(KEY_KIND, String.valueOf(downloadMission.kind));
+
+        if (downloadMission instanceof DownloadMission) {
+            values.put(KEY_VARIANT, ((DownloadMission) downloadMission).getVariant());
+        } else if (downloadMission instanceof FinishedMission) {
+            values.put(KEY_VARIANT, ((FinishedMission) downloadMission).variant);
+            values.put(KEY_FINGERPRINT, ((FinishedMission) downloadMission).fingerprint);
+        }
         return values;
     }
 
@@ -152,6 +177,8 @@ public class FinishedMissionStore extends SQLiteOpenHelper {
         mission.length = cursor.getLong(cursor.getColumnIndexOrThrow(KEY_DONE));
         mission.timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(KEY_TIMESTAMP));
         mission.kind = kind.charAt(0);
+        mission.variant = cursor.getString(cursor.getColumnIndexOrThrow(KEY_VARIANT));
+        mission.fingerprint = cursor.getString(cursor.getColumnIndexOrThrow(KEY_FINGERPRINT));
 
         try {
             mission.storage = new StoredFileHelper(context,null, Uri.parse(path), "");
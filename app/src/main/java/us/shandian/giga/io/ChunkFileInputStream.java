@@ -3,6 +3,7 @@ package us.shandian.giga.io;
 import com.systems.automaton.reeltube.streams.io.SharpStream;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class ChunkFileInputStream extends SharpStream {
     private static final int REPORT_INTERVAL = 256 * 1024;
@@ -12,16 +13,34 @@ public class ChunkFileInputStream extends SharpStream {
     private final long length;
     private long position;
 
+    /**
+     * Amount of bytes not needed anymore, behind the position if the last buffer returned by
+     * {@link #readMapped(int)} is not parsed yet (is a view of the file). Can be read from
+     * other threads
+     */
+    private volatile long consumed;
+
     private long progressReport;
     private final ProgressReport onProgress;
+    private final DataWaiter waiter;
 
     public ChunkFileInputStream(SharpStream target, long start, long end, ProgressReport callback) throws IOException {
+        this(target, start, end, callback, null);
+    }
+
+    /**
+     * Creates a chunk of a file that can be still written, reads block until the data is available
+     *
+     * @param waiter blocks the reads until the data is written, {@code null} if the file is complete
+     */
+    public ChunkFileInputStream(SharpStream target, long start, long end, ProgressReport callback, DataWaiter waiter) throws IOException {
         source = target;
         offset = start;
         length = end - start;
         position = 0;
         onProgress = callback;
         progressReport = REPORT_INTERVAL;
+        this.waiter = waiter;
 
         if (length < 1) {
             source.close();
@@ -44,18 +63,32 @@ public class ChunkFileInputStream extends SharpStream {
      * @return the position
      */
     public long getFilePointer() {
-        return offset + position;
+        return offset + consumed;
+    }
+
+    /**
+     * Indicates if all the bytes of the chunk were read and are not needed anymore
+     *
+     * @return {@code true} if the chunk can be overwritten, otherwise, {@code false}
+     */
+    public boolean isConsumed() {
+        return consumed >= length;
     }
 
     @Override
     public int read() throws IOException {
+        consumed = position;
         if ((position + 1) > length) {
-            return 0;
+            return -1;
+        }
+        if (waiter != null) {
+            waiter.waitFor(offset + position + 1);
         }
 
         int res = source.read();
         if (res >= 0) {
             position++;
+            consumed = position;
         }
 
         return res;
@@ -68,15 +101,56 @@ public class ChunkFileInputStream extends SharpStream {
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
+        consumed = position;
+        if (len == 0) {
+            return 0;
+        }
         if ((position + len) > length) {
             len = (int) (length - position);
         }
-        if (len == 0) {
-            return 0;
+        if (len < 1) {
+            // end of the chunk, InputStream wrappers (like SharpInputStream) fail on 0 bytes
+            return -1;
+        }
+        if (waiter != null) {
+            waiter.waitFor(offset + position + len);
         }
 
         int res = source.read(b, off, len);
+        if (res < 1) return res;
+
         position += res;
+        consumed = position;
+
+        if (onProgress != null && position > progressReport) {
+            onProgress.report(position);
+            progressReport = position + REPORT_INTERVAL;
+        }
+
+        return res;
+    }
+
+    @Override
+    public boolean canReadMapped() {
+        return source.canReadMapped();
+    }
+
+    @Override
+    public ByteBuffer readMapped(int amount) throws IOException {
+        // the previous buffer was consumed, the caller asks for the next one
+        consumed = position;
+        if ((position + amount) > length) {
+            amount = (int) (length - position);
+        }
+        if (amount < 1) {
+            return ByteBuffer.allocate(0);
+        }
+        if (waiter != null) {
+            waiter.waitFor(offset + position + amount);
+        }
+
+        ByteBuffer res = source.readMapped(amount);
+        position += res.remaining();
 
         if (onProgress != null && position > progressReport) {
             onProgress.report(position);
@@ -88,6 +162,7 @@ public class ChunkFileInputStream extends SharpStream {
 
     @Override
     public long skip(long pos) throws IOException {
+        consumed = position;
         pos = Math.min(pos + position, length);
 
         if (pos == 0) {
@@ -98,6 +173,7 @@ public class ChunkFileInputStream extends SharpStream {
 
         long oldPos = position;
         position = pos;
+        consumed = pos;
 
         return pos - oldPos;
     }
@@ -122,6 +198,7 @@ public class ChunkFileInputStream extends SharpStream {
     @Override
     public void rewind() throws IOException {
         position = 0;
+        consumed = 0;
         source.seek(offset);
     }
 
@@ -5,7 +5,6 @@ import androidx.annotation.NonNull;
 import com.systems.automaton.reeltube.streams.io.SharpStream;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Objects;
 
@@ -15,6 +14,7 @@ public class CircularFileWriter extends SharpStream {
     private final static int COPY_BUFFER_SIZE = 128 * 1024; // 128 KiB
     private final static int NOTIFY_BYTES_INTERVAL = 64 * 1024;// 64 KiB
     private final static int THRESHOLD_AUX_LENGTH = 15 * 1024 * 1024;// 15 MiB
+    private final static int AUX_MEMORY_LIMIT = 4 * 1024 * 1024;// 4 MiB
 
     private final OffsetChecker callback;
 
@@ -27,16 +27,19 @@ public class CircularFileWriter extends SharpStream {
     private BufferedFile out;
     private BufferedFile aux;
 
-    public CircularFileWriter(SharpStream target, File temp, OffsetChecker checker) throws IOException {
-        Objects.requireNonNull(checker);
+    /**
+     * Used to move the auxiliar data, kept since small writes can flush it often
+     */
+    private byte[] copyBuffer;
 
-        if (!temp.exists()) {
-            if (!temp.createNewFile()) {
-                throw new IOException("Cannot create a temporal file");
-            }
-        }
+    /**
+     * @param temp file used only if the data written ahead of the checker offset does not fit
+     *             in the memory, it is created when needed
+     */
+    public CircularFileWriter(SharpStream target, File temp, OffsetChecker checker) {
+        Objects.requireNonNull(checker);
 
-        aux = new BufferedFile(temp);
+        aux = new BufferedFile(new MemorySpillStream(temp, AUX_MEMORY_LIMIT));
         out = new BufferedFile(target);
 
         callback = checker;
@@ -53,7 +56,10 @@ public class CircularFileWriter extends SharpStream {
         aux.flush();
 
         boolean underflow = aux.offset < aux.length || out.offset < out.length;
-        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        if (copyBuffer == null) {
+            copyBuffer = new byte[COPY_BUFFER_SIZE];
+        }
+        byte[] buffer = copyBuffer;
 
         aux.target.seek(0);
         out.target.seek(out.length);
@@ -129,6 +135,10 @@ public class CircularFileWriter extends SharpStream {
         aux.reset();
     }
 
+    private boolean isAuxSpilled() {
+        return ((MemorySpillStream) aux.target).isSpilled();
+    }
+
     /**
      * Flush any buffer and close the output file. Use this method if the
      * operation is successful
@@ -165,6 +175,7 @@ public class CircularFileWriter extends SharpStream {
             aux.close();
             aux = null;
         }
+        copyBuffer = null;
     }
 
     @Override
@@ -214,6 +225,10 @@ public class CircularFileWriter extends SharpStream {
 
             if (length >= THRESHOLD_AUX_LENGTH && length <= available) {
                 flushAuxiliar(available);
+            } else if (!underflow && !isAuxSpilled() && length <= available) {
+                // while aux is in the memory, move it to the file as soon as it fits, so the
+                // data is written only once and the temporal file is never created
+                flushAuxiliar(aux.length);
             }
         } else {
             if (underflow) {
@@ -378,10 +393,6 @@ public class CircularFileWriter extends SharpStream {
         private byte[] queue = new byte[QUEUE_BUFFER_SIZE];
         private int queueSize;
 
-        BufferedFile(File file) throws FileNotFoundException {
-            this.target = new FileStream(file);
-        }
-
         BufferedFile(SharpStream target) {
             this.target = target;
         }
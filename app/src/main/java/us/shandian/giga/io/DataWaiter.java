@@ -0,0 +1,14 @@
+package us.shandian.giga.io;
+
+import java.io.IOException;
+
+public interface DataWaiter {
+
+    /**
+     * Blocks until the file is written up to the given offset
+     *
+     * @param offset absolute offset in the file
+     * @throws IOException if the data never will be written, the download was stopped
+     */
+    void waitFor(long offset) throws IOException;
+}
@@ -0,0 +1,51 @@
+package us.shandian.giga.io;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers. Direct memory is expensive to allocate and only released by the GC,
+ * so buffers are reused between download threads.
+ */
+public class DirectBufferPool {
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger(0);
+    private final int capacity;
+    private final int maximum;
+
+    /**
+     * @param capacity size of every buffer
+     * @param maximum  maximum amount of idle buffers kept in the pool
+     */
+    public DirectBufferPool(int capacity, int maximum) {
+        this.capacity = capacity;
+        this.maximum = maximum;
+    }
+
+    /**
+     * @return a cleared buffer, must be given back with {@link #release(ByteBuffer)}
+     */
+    @NonNull
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) return ByteBuffer.allocateDirect(capacity);
+
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(@NonNull ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != capacity) return;
+
+        if (pooled.incrementAndGet() > maximum) {
+            pooled.decrementAndGet();
+            return;// let the GC release it
+        }
+
+        buffers.offer(buffer);
+    }
+}
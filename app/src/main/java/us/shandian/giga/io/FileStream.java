@@ -8,6 +8,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * @author kapodamy
@@ -114,6 +116,14 @@ public class FileStream extends SharpStream {
         source.write(buffer, offset, count);
     }
 
+    @Override
+    public void write(ByteBuffer buffer, long position) throws IOException {
+        FileChannel channel = source.getChannel();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
     @Override
     public void setLength(long length) throws IOException {
         source.setLength(length);
@@ -12,6 +12,7 @@ import com.systems.automaton.reeltube.streams.io.SharpStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 public class FileStreamSAF extends SharpStream {
@@ -133,6 +134,13 @@ public class FileStreamSAF extends SharpStream {
         out.write(buffer, offset, count);
     }
 
+    @Override
+    public void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
     @Override
     public void setLength(long length) throws IOException {
         channel.truncate(length);
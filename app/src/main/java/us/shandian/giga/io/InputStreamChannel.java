@@ -0,0 +1,52 @@
+package us.shandian.giga.io;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Channel reading from a {@link InputStream}. Unlike {@link java.nio.channels.Channels#newChannel(InputStream)}
+ * the reads are not split in 8 KiB pieces and heap buffers are filled without an extra copy.
+ */
+public class InputStreamChannel implements ReadableByteChannel {
+    private final InputStream source;
+    private final byte[] chunk;
+    private boolean open = true;
+
+    public InputStreamChannel(@NonNull InputStream source, int chunkSize) {
+        this.source = source;
+        this.chunk = new byte[chunkSize];
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        if (!open) throw new ClosedChannelException();
+        if (!buffer.hasRemaining()) return 0;
+
+        if (buffer.hasArray()) {
+            int read = source.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (read > 0) buffer.position(buffer.position() + read);
+            return read;
+        }
+
+        int read = source.read(chunk, 0, Math.min(buffer.remaining(), chunk.length));
+        if (read > 0) buffer.put(chunk, 0, read);
+
+        return read;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        source.close();
+    }
+}
@@ -0,0 +1,245 @@
+package us.shandian.giga.io;
+
+import androidx.annotation.NonNull;
+
+import com.systems.automaton.reeltube.streams.io.SharpStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only stream of a local file mapped in the memory, the reads are served without syscalls.
+ * The file is mapped in windows, so files bigger than 2 GiB (the limit of a single mapping) can
+ * be read, and the address space used is small (important in 32 bits devices).
+ * <p>
+ * The content written by other streams of the same file is visible immediately, both share the
+ * page cache.
+ * <p>
+ * A window is only unmapped by the garbage collector, there is no public way to unmap it. So
+ * after {@link #MAX_WINDOWS} windows the rest of the file is read with positional reads,
+ * {@link #readMapped(int)} copies into a buffer reused on every call.
+ */
+public class MappedFileStream extends SharpStream {
+    private static final long WINDOW_SIZE = 32 * 1024 * 1024;// 32 MiB
+
+    /**
+     * Maximum amount of windows mapped by a stream
+     */
+    private static final int MAX_WINDOWS = 4;// 128 MiB of address space
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private RandomAccessFile source;
+    private final FileChannel channel;
+    private final long windowSize;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+    private int windows;
+    private ByteBuffer copyBuffer;
+
+    public MappedFileStream(@NonNull File target) throws IOException {
+        this(target, WINDOW_SIZE);
+    }
+
+    MappedFileStream(@NonNull File target, long windowSize) throws IOException {
+        source = new RandomAccessFile(target, "r");
+        channel = source.getChannel();
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Maps the window that contains the current position, if is not already mapped
+     *
+     * @return {@code false} if the end of the file was reached or no more windows can be mapped,
+     * see {@link #isMappingExhausted()}
+     */
+    private boolean ensureWindow() throws IOException {
+        if (window != null && position >= windowStart && position < windowStart + window.capacity())
+            return true;
+        if (isMappingExhausted()) return false;
+
+        long size = Math.min(windowSize, channel.size() - position);
+        if (size < 1) return false;
+
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        windowStart = position;
+        windows++;
+
+        return true;
+    }
+
+    private boolean isMappingExhausted() {
+        return windows >= MAX_WINDOWS;
+    }
+
+    /**
+     * Reads outside of the mapped windows
+     */
+    private int readChannel(ByteBuffer buffer) throws IOException {
+        int read = channel.read(buffer, position);
+        if (read > 0) position += read;
+
+        return read;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (ensureWindow()) return window.get((int) (position++ - windowStart)) & 0xFF;
+        if (!isMappingExhausted()) return -1;
+
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        return readChannel(buffer) < 1 ? -1 : buffer.get(0) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer) throws IOException {
+        return read(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int total = 0;
+
+        while (count > 0 && ensureWindow()) {
+            int index = (int) (position - windowStart);
+            int length = Math.min(count, window.capacity() - index);
+
+            window.position(index);
+            window.get(buffer, offset, length);
+
+            position += length;
+            offset += length;
+            count -= length;
+            total += length;
+        }
+
+        if (count > 0 && isMappingExhausted()) {
+            int read = readChannel(ByteBuffer.wrap(buffer, offset, count));
+            if (read > 0) total += read;
+        }
+
+        return total == 0 && count > 0 ? -1 : total;
+    }
+
+    @Override
+    public boolean canReadMapped() {
+        return true;
+    }
+
+    @Override
+    public ByteBuffer readMapped(int amount) throws IOException {
+        if (amount < 1) return ByteBuffer.allocate(0);
+        if (!ensureWindow()) {
+            if (!isMappingExhausted()) return ByteBuffer.allocate(0);
+
+            // overwritten by the next call, the caller is done with the previous buffer
+            if (copyBuffer == null) copyBuffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            copyBuffer.clear();
+            copyBuffer.limit(Math.min(amount, COPY_BUFFER_SIZE));
+
+            readChannel(copyBuffer);
+            copyBuffer.flip();
+            return copyBuffer;
+        }
+
+        int index = (int) (position - windowStart);
+        int length = Math.min(amount, window.capacity() - index);
+
+        ByteBuffer view = window.duplicate();
+        view.position(index);
+        view.limit(index + length);
+
+        position += length;
+        return view.slice();
+    }
+
+    @Override
+    public long skip(long amount) throws IOException {
+        amount = Math.max(0, Math.min(amount, channel.size() - position));
+        position += amount;
+        return amount;
+    }
+
+    @Override
+    public long available() {
+        try {
+            return channel.size() - position;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void rewind() {
+        position = 0;
+    }
+
+    @Override
+    public void seek(long offset) {
+        position = offset;
+    }
+
+    @Override
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() {
+        if (source == null) return;
+        try {
+            source.close();
+        } catch (IOException err) {
+            // nothing to do
+        }
+        source = null;
+        window = null;
+        copyBuffer = null;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return source == null;
+    }
+
+    @Override
+    public boolean canRewind() {
+        return true;
+    }
+
+    @Override
+    public boolean canRead() {
+        return true;
+    }
+
+    @Override
+    public boolean canWrite() {
+        return false;
+    }
+
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void write(byte value) throws IOException {
+        throw new IOException("The stream is read-only");
+    }
+
+    @Override
+    public void write(byte[] buffer) throws IOException {
+        throw new IOException("The stream is read-only");
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+        throw new IOException("The stream is read-only");
+    }
+}
@@ -0,0 +1,213 @@
+package us.shandian.giga.io;
+
+import androidx.annotation.NonNull;
+
+import com.systems.automaton.reeltube.streams.io.SharpStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Seekable stream kept in the memory, if the content grows beyond the given limit everything is
+ * moved to a file and the stream continues there. The file is created only at that moment.
+ */
+public class MemorySpillStream extends SharpStream {
+    private static final int INITIAL_SIZE = 64 * 1024;// 64 KiB
+
+    private final File spillFile;
+    private final int memoryLimit;
+
+    private byte[] memory;
+    private long position;
+    private long length;
+
+    private FileStream file;
+    private boolean closed;
+
+    public MemorySpillStream(@NonNull File spill, int limit) {
+        spillFile = spill;
+        memoryLimit = limit;
+        memory = new byte[Math.min(INITIAL_SIZE, limit)];
+    }
+
+    /**
+     * Indicates if the content was moved to the file
+     *
+     * @return {@code true} if the file is in use, otherwise, {@code false}
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Makes room for the given length, moving everything to the file if the limit is exceeded
+     *
+     * @return {@code false} if the content is now in the file
+     */
+    private boolean ensureCapacity(long required) throws IOException {
+        if (file != null) return false;
+
+        if (required > memoryLimit) {
+            if (!spillFile.exists() && !spillFile.createNewFile()) {
+                throw new IOException("Cannot create a temporal file");
+            }
+
+            file = new FileStream(spillFile);
+            file.setLength(0);
+            file.write(memory, 0, (int) length);
+            file.seek(position);
+
+            memory = null;
+            return false;
+        }
+
+        if (required > memory.length) {
+            long size = Math.max(required, Math.min((long) memory.length * 2, memoryLimit));
+            memory = Arrays.copyOf(memory, (int) size);
+        }
+
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (file != null) return file.read();
+
+        if (position >= length) return -1;
+        return memory[(int) position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer) throws IOException {
+        return read(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        if (file != null) return file.read(buffer, offset, count);
+
+        if (position >= length) return count > 0 ? -1 : 0;
+
+        count = (int) Math.min(count, length - position);
+        System.arraycopy(memory, (int) position, buffer, offset, count);
+        position += count;
+
+        return count;
+    }
+
+    @Override
+    public void write(byte value) throws IOException {
+        write(new byte[]{value}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer) throws IOException {
+        write(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+        if (!ensureCapacity(position + count)) {
+            file.write(buffer, offset, count);
+            return;
+        }
+
+        System.arraycopy(buffer, offset, memory, (int) position, count);
+        position += count;
+        if (position > length) length = position;
+    }
+
+    @Override
+    public long skip(long amount) throws IOException {
+        if (file != null) return file.skip(amount);
+
+        amount = Math.max(0, Math.min(amount, length - position));
+        position += amount;
+        return amount;
+    }
+
+    @Override
+    public long available() {
+        if (file != null) return file.available();
+
+        return length - position;
+    }
+
+    @Override
+    public void rewind() throws IOException {
+        seek(0);
+    }
+
+    @Override
+    public void seek(long offset) throws IOException {
+        if (file != null) {
+            file.seek(offset);
+            return;
+        }
+
+        position = offset;
+    }
+
+    @Override
+    public void setLength(long length) throws IOException {
+        if (!ensureCapacity(length)) {
+            file.setLength(length);
+            return;
+        }
+
+        if (length < this.length) {
+            // the truncated bytes must be zeros if the stream grows again
+            Arrays.fill(memory, (int) length, (int) this.length, (byte) 0);
+        }
+        this.length = length;
+    }
+
+    @Override
+    public long length() throws IOException {
+        if (file != null) return file.length();
+
+        return length;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        memory = null;
+
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public boolean canRewind() {
+        return true;
+    }
+
+    @Override
+    public boolean canRead() {
+        return true;
+    }
+
+    @Override
+    public boolean canWrite() {
+        return true;
+    }
+
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public boolean canSetLength() {
+        return true;
+    }
+}
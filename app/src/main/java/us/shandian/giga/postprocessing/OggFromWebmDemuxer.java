@@ -11,7 +11,9 @@ import java.nio.ByteBuffer;
 class OggFromWebmDemuxer extends Postprocessing {
 
     OggFromWebmDemuxer() {
-        super(true, true, ALGORITHM_OGG_FROM_WEBM_DEMUXER);
+        // the Ogg pages are written behind the WebM blocks already read, no space is reserved
+        // (that would be the whole file size, the only resource is the smallest one)
+        super(false, true, ALGORITHM_OGG_FROM_WEBM_DEMUXER);
     }
 
     @Override
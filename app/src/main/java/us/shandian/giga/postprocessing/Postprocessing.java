@@ -14,6 +14,7 @@ import us.shandian.giga.get.DownloadMission;
 import us.shandian.giga.io.ChunkFileInputStream;
 import us.shandian.giga.io.CircularFileWriter;
 import us.shandian.giga.io.CircularFileWriter.OffsetChecker;
+import us.shandian.giga.io.DataWaiter;
 import us.shandian.giga.io.ProgressReport;
 
 import static us.shandian.giga.get.DownloadMission.ERROR_NOTHING;
@@ -85,7 +86,7 @@ public abstract class Postprocessing implements Serializable {
     Postprocessing(boolean reserveSpace, boolean worksOnSameFile, String algorithmName) {
         this.reserveSpace = reserveSpace;
         this.worksOnSameFile = worksOnSameFile;
-        this.name = algorithmName;// for debugging only
+        this.name = algorithmName;
     }
 
     public void setTemporalDir(@NonNull File directory) {
@@ -111,12 +112,19 @@ public abstract class Postprocessing implements Serializable {
         int result;
         long finalLength = -1;
 
-        mission.done = 0;
+        // the last resource is still downloading, the progress belongs to the download meanwhile
+        final boolean streaming = mission.isPsStreaming();
 
-        long length = mission.storage.length() - mission.offsets[0];
-        mission.length = Math.max(length, mission.nearLength);
+        if (!streaming) {
+            mission.done = 0;
+
+            long length = mission.storage.length() - mission.offsets[0];
+            mission.length = Math.max(length, mission.nearLength);
+        }
 
         final ProgressReport readProgress = (long position) -> {
+            if (mission.isPsStreaming()) return;
+
             position -= mission.offsets[0];
             if (position > mission.done) mission.done = position;
         };
@@ -125,36 +133,48 @@ public abstract class Postprocessing implements Serializable {
             ChunkFileInputStream[] sources = new ChunkFileInputStream[mission.urls.length];
             try {
                 for (int i = 0, j = 1; i < sources.length; i++, j++) {
-                    SharpStream source = mission.storage.getStream();
+                    SharpStream source = mission.storage.getReadStream();
                     long end = j < sources.length ? mission.offsets[j] : source.length();
+                    DataWaiter waiter = streaming && j == sources.length ? mission::waitForDownload : null;
 
-                    sources[i] = new ChunkFileInputStream(source, mission.offsets[i], end, readProgress);
+                    sources[i] = new ChunkFileInputStream(source, mission.offsets[i], end, readProgress, waiter);
                 }
 
                 if (test(sources)) {
                     for (SharpStream source : sources) source.rewind();
 
                     OffsetChecker checker = () -> {
+                        // while downloading, write only in the reserved space. If the download
+                        // is paused the post-processing starts again, the sources must be intact
+                        long limit = mission.isPsStreaming() ? mission.offsets[0] : -1;
+
                         for (ChunkFileInputStream source : sources) {
                             /*
                              * WARNING: never use rewind() in any chunk after any writing (especially on first chunks)
                              *          or the CircularFileWriter can lead to unexpected results
                              */
-                            if (source.isClosed() || source.available() < 1) {
+                            if (source.isClosed() || source.isConsumed()) {
                                 continue;// the selected source is not used anymore
                             }
 
-                            return source.getFilePointer() - 1;
+                            // nothing read at the start of the file, -1 would mean no limit
+                            long end = Math.max(source.getFilePointer() - 1, 0);
+                            return limit == -1 ? end : Math.min(end, limit);
                         }
 
-                        return -1;
+                        return limit;
                     };
 
                     try (CircularFileWriter out = new CircularFileWriter(
                             mission.storage.getStream(), tempFile, checker)) {
-                        out.onProgress = (long position) -> mission.done = position;
+                        out.onProgress = (long position) -> {
+                            if (!mission.isPsStreaming()) mission.done = position;
+                        };
 
                         out.onWriteError = err -> {
+                            // give up, the post-processing runs again once downloaded
+                            if (mission.isPsStreaming()) return false;
+
                             mission.psState = 3;
                             mission.notifyError(ERROR_POSTPROCESSING_HOLD, err);
 
@@ -173,10 +193,14 @@ public abstract class Postprocessing implements Serializable {
 
                         result = process(out, sources);
 
+                        // the sources can be overwritten only after the download is completed
+                        if (streaming) mission.waitForDownload(Long.MAX_VALUE);
+
                         if (result == OK_RESULT)
                             finalLength = out.finalizeFile();
                     }
                 } else {
+                    if (streaming) mission.waitForDownload(Long.MAX_VALUE);
                     result = OK_RESULT;
                 }
             } finally {
@@ -188,7 +212,9 @@ public abstract class Postprocessing implements Serializable {
                 if (tempFile != null) {
                     //noinspection ResultOfMethodCallIgnored
                     tempFile.delete();
-                    tempFile = null;
+
+                    // if discarded, the post-processing runs again after the download
+                    if (!streaming) tempFile = null;
                 }
             }
         } else {
@@ -230,6 +256,23 @@ public abstract class Postprocessing implements Serializable {
      */
     abstract int process(SharpStream out, SharpStream... sources) throws IOException;
 
+    /**
+     * Identifies the algorithm and its arguments, stored by the finished missions. Unlike
+     * {@link #toString()} must never change for the same algorithm
+     *
+     * @return the key, see {@link DownloadMission#getVariant()}
+     */
+    @NonNull
+    public String getVariantKey() {
+        StringBuilder str = new StringBuilder(name);
+
+        if (args != null) {
+            for (String arg : args) str.append(',').append(arg);
+        }
+
+        return str.toString();
+    }
+
     String getArgumentAt(int index, String defaultValue) {
         if (args == null || index >= args.length) {
             return defaultValue;
@@ -14,7 +14,7 @@ class TtmlConverter extends Postprocessing {
     private static final String TAG = "TtmlConverter";
 
     TtmlConverter() {
-        // due how XmlPullParser works, the xml is fully loaded on the ram
+        // the xml is parsed while is read, the output only overwrites the consumed bytes
         super(false, true, ALGORITHM_TTML_CONVERTER);
     }
 
@@ -36,6 +36,9 @@ class WebMMuxer extends Postprocessing {
         }
 
         muxer.selectTracks(indexes);
+
+        // parse each source in its own thread, the writing is not stalled by the parsing
+        muxer.setParallelDemux(Runtime.getRuntime().availableProcessors() > 1);
         muxer.build(out);
 
         return OK_RESULT;
@@ -0,0 +1,108 @@
+package us.shandian.giga.service;
+
+import androidx.annotation.NonNull;
+
+import us.shandian.giga.util.TokenBucket;
+
+/**
+ * Arbitrates the bandwidth used by the download missions, between them and with the player.
+ * Every byte received by a download thread is accounted in the global bucket and in the
+ * bucket of its mission.
+ */
+public class BandwidthManager {
+    /**
+     * Throughput allowed while the player is buffering, enough to keep the connections alive
+     */
+    private static final long PLAYBACK_YIELD_RATE = 64 * 1024;
+
+    /**
+     * A buffering state older than this is ignored, the player can be gone without notifying
+     */
+    private static final long PLAYBACK_YIELD_TIMEOUT_NANOS = 60 * 1000000000L;
+
+    /**
+     * Maximum time to sleep before checking again the limits, they can change meanwhile
+     */
+    private static final long MAXIMUM_SLEEP_MILLIS = 100;
+
+    private static volatile long sPlaybackBufferingSince = -1;
+
+    private final TokenBucket mGlobal = new TokenBucket();
+
+    private volatile long mGlobalLimit = 0;
+    private volatile long mMissionLimit = 0;
+    private volatile boolean mYieldToPlayback = true;
+
+    /**
+     * Called by the player when the buffering starts or ends, the downloads are slowed down
+     * while the playback is stalled
+     *
+     * @param buffering {@code true} if the player is waiting for data
+     */
+    public static void setPlaybackBuffering(boolean buffering) {
+        sPlaybackBufferingSince = buffering ? System.nanoTime() : -1;
+    }
+
+    private static boolean isPlaybackBuffering() {
+        long since = sPlaybackBufferingSince;
+        return since != -1 && (System.nanoTime() - since) < PLAYBACK_YIELD_TIMEOUT_NANOS;
+    }
+
+    /**
+     * @param bytesPerSecond the throughput allowed for all missions, zero means unlimited
+     */
+    public void setGlobalLimit(long bytesPerSecond) {
+        mGlobalLimit = bytesPerSecond;
+    }
+
+    /**
+     * @param bytesPerSecond the throughput allowed for every mission, zero means unlimited
+     */
+    public void setMissionLimit(long bytesPerSecond) {
+        mMissionLimit = bytesPerSecond;
+    }
+
+    public void setYieldToPlayback(boolean yield) {
+        mYieldToPlayback = yield;
+    }
+
+    /**
+     * Accounts the bytes received by a download thread, blocks the thread until the
+     * throughput is under the limits.
+     *
+     * @param missionBucket bucket of the mission
+     * @param amount        amount of bytes received
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire(@NonNull TokenBucket missionBucket, long amount) throws InterruptedException {
+        updateRates(missionBucket);
+
+        // unlimited, called for every read of every thread, keep it free of locks
+        if (mGlobal.getRate() == 0 && missionBucket.getRate() == 0) return;
+
+        mGlobal.take(amount);
+        missionBucket.take(amount);
+
+        while (true) {
+            long wait = Math.max(mGlobal.getWaitNanos(), missionBucket.getWaitNanos());
+            if (wait <= 0) return;
+
+            Thread.sleep(Math.max(1, Math.min(wait / 1000000L, MAXIMUM_SLEEP_MILLIS)));
+            updateRates(missionBucket);
+        }
+    }
+
+    /**
+     * Applies the limits, the buckets are only locked if the rates changed
+     */
+    private void updateRates(TokenBucket missionBucket) {
+        long rate = mGlobalLimit;
+
+        if (mYieldToPlayback && isPlaybackBuffering()) {
+            rate = rate > 0 ? Math.min(rate, PLAYBACK_YIELD_RATE) : PLAYBACK_YIELD_RATE;
+        }
+
+        if (mGlobal.getRate() != rate) mGlobal.setRate(rate);
+        if (missionBucket.getRate() != mMissionLimit) missionBucket.setRate(mMissionLimit);
+    }
+}
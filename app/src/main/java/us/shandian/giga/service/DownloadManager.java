@@ -8,6 +8,8 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.DiffUtil;
 
+import com.systems.automaton.reeltube.DownloaderImpl;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -18,9 +20,13 @@ import java.util.List;
 import us.shandian.giga.get.DownloadMission;
 import us.shandian.giga.get.FinishedMission;
 import us.shandian.giga.get.Mission;
+import us.shandian.giga.get.MissionJournal;
 import us.shandian.giga.get.sqlite.FinishedMissionStore;
 import com.systems.automaton.reeltube.streams.io.StoredDirectoryHelper;
 import com.systems.automaton.reeltube.streams.io.StoredFileHelper;
+import us.shandian.giga.transport.HttpUrlTransport;
+import us.shandian.giga.transport.OkHttpTransport;
+import us.shandian.giga.transport.Transport;
 import us.shandian.giga.util.Utility;
 
 import static com.systems.automaton.reeltube.BuildConfig.DEBUG;
@@ -42,8 +48,14 @@ public class DownloadManager {
 
     private final ArrayList<DownloadMission> mMissionsPending = new ArrayList<>();
     private final ArrayList<FinishedMission> mMissionsFinished;
+    private final MissionIndex<DownloadMission> mPendingIndex = new MissionIndex<>();
+    private final MissionIndex<FinishedMission> mFinishedIndex = new MissionIndex<>();
+    private final FingerprintIndexer mFingerprints;
+    private final MissionScheduler mScheduler = new MissionScheduler();
 
     private final Handler mHandler;
+    private final Transport mTransport;
+    final BandwidthManager mBandwidth = new BandwidthManager();
     private final File mPendingMissionsDir;
 
     private NetworkState mLastNetworkStatus = NetworkState.Unavailable;
@@ -51,6 +63,8 @@ public class DownloadManager {
     int mPrefMaxRetry;
     boolean mPrefMeteredDownloads;
     boolean mPrefQueueLimit;
+    int mPrefMaxMissions = MissionScheduler.DEFAULT_MAX_MISSIONS;
+    int mPrefMaxThreads = MissionScheduler.DEFAULT_MAX_THREADS;
     private boolean mSelfMissionsControl;
 
     StoredDirectoryHelper mMainStorageAudio;
@@ -68,7 +82,9 @@ public class DownloadManager {
         }
 
         mFinishedMissionStore = new FinishedMissionStore(context);
+        mFingerprints = new FingerprintIndexer(mFinishedMissionStore);
         mHandler = handler;
+        mTransport = createTransport();
         mMainStorageAudio = storageAudio;
         mMainStorageVideo = storageVideo;
         mMissionsFinished = loadFinishedMissions();
@@ -77,6 +93,16 @@ public class DownloadManager {
         loadPendingMissions(context);
     }
 
+    /**
+     * Shares the application HTTP client with the missions, so the connections are pooled
+     */
+    private static Transport createTransport() {
+        DownloaderImpl downloader = DownloaderImpl.getInstance();
+        if (downloader == null) return new HttpUrlTransport();
+
+        return new OkHttpTransport(downloader.getClient());
+    }
+
     private static File getPendingDir(@NonNull Context context) {
         File dir = context.getExternalFilesDir(DOWNLOADS_METADATA_FOLDER);
         if (testDir(dir)) return dir;
@@ -121,7 +147,12 @@ public class DownloadManager {
 
                 mFinishedMissionStore.deleteMission(mission);
                 finishedMissions.remove(i);
+                continue;
             }
+
+            // the newest missions are first, index them last so they win on duplicated files
+            mFinishedIndex.add(mission);
+            mFingerprints.add(mission);
         }
 
         return finishedMissions;
@@ -148,7 +179,14 @@ public class DownloadManager {
             if (!sub.isFile()) continue;
             if (sub.getName().equals(".tmp")) continue;
 
-            DownloadMission mis = Utility.readFromFile(sub);
+            if (MissionJournal.isTemporal(sub)) {
+                // leftover of an interrupted save, the previous metadata file is still valid
+                //noinspection ResultOfMethodCallIgnored
+                sub.delete();
+                continue;
+            }
+
+            DownloadMission mis = MissionJournal.read(sub);
             if (mis == null || mis.isFinished() || mis.hasInvalidStorage()) {
                 //noinspection ResultOfMethodCallIgnored
                 sub.delete();
@@ -180,7 +218,7 @@ public class DownloadManager {
                 mis.psState = 0;
                 mis.errCode = DownloadMission.ERROR_POSTPROCESSING_STOPPED;
             } else if (!exists) {
-                tryRecover(mis);
+                recoverStorage(mis);
 
                 // the progress is lost, reset mission state
                 if (mis.isInitialized())
@@ -195,8 +233,12 @@ public class DownloadManager {
             mis.metadata = sub;
             mis.maxRetry = mPrefMaxRetry;
             mis.mHandler = mHandler;
+            mis.transport = mTransport;
+            mis.bandwidth = mBandwidth;
 
             mMissionsPending.add(mis);
+            mPendingIndex.add(mis);
+            if (mis.enqueued) mScheduler.enqueue(mis);
         }
 
         if (mMissionsPending.size() > 1)
@@ -210,51 +252,88 @@ public class DownloadManager {
      */
     void startMission(DownloadMission mission) {
         synchronized (this) {
-            mission.timestamp = System.currentTimeMillis();
-            mission.mHandler = mHandler;
-            mission.maxRetry = mPrefMaxRetry;
-
-            // create metadata file
-            while (true) {
-                mission.metadata = new File(mPendingMissionsDir, String.valueOf(mission.timestamp));
-                if (!mission.metadata.isFile() && !mission.metadata.exists()) {
-                    try {
-                        if (!mission.metadata.createNewFile())
-                            throw new RuntimeException("Cant create download metadata file");
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                    break;
-                }
-                mission.timestamp = System.currentTimeMillis();
-            }
+            if (addMission(mission)) startQueuedMissions();
+        }
+    }
 
-            mSelfMissionsControl = true;
-            mMissionsPending.add(mission);
+    /**
+     * Start many download missions, all of them are queued before starting any
+     *
+     * @param missions the new download missions to add and run (if possible)
+     */
+    void startMissions(List<DownloadMission> missions) {
+        synchronized (this) {
+            boolean queued = false;
+            for (DownloadMission mission : missions) queued |= addMission(mission);
 
-            // Before continue, save the metadata in case the internet connection is not available
-            Utility.writeToFile(mission.metadata, mission);
+            if (queued) startQueuedMissions();
+        }
+    }
 
-            if (mission.storage == null) {
-                // noting to do here
-                mission.errCode = DownloadMission.ERROR_FILE_CREATION;
-                if (mission.errObject != null)
-                    mission.errObject = new IOException("DownloadMission.storage == NULL");
-                return;
+    /**
+     * Adds a new mission and queues it. Must be called holding the lock
+     *
+     * @return {@code true} if the mission was queued
+     */
+    private boolean addMission(DownloadMission mission) {
+        mission.timestamp = System.currentTimeMillis();
+        mission.mHandler = mHandler;
+        mission.transport = mTransport;
+        mission.bandwidth = mBandwidth;
+        mission.maxRetry = mPrefMaxRetry;
+
+        // create metadata file
+        while (true) {
+            mission.metadata = new File(mPendingMissionsDir, String.valueOf(mission.timestamp));
+            if (!mission.metadata.isFile() && !mission.metadata.exists()) {
+                try {
+                    if (!mission.metadata.createNewFile())
+                        throw new RuntimeException("Cant create download metadata file");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                break;
             }
+            // missions added together share the same millisecond, do not wait for the next one
+            mission.timestamp = Math.max(System.currentTimeMillis(), mission.timestamp + 1);
+        }
 
-            boolean start = !mPrefQueueLimit || getRunningMissionsCount() < 1;
+        mSelfMissionsControl = true;
+        mMissionsPending.add(mission);
+        mPendingIndex.add(mission);
 
-            if (canDownloadInCurrentNetwork() && start) {
-                mission.start();
-            }
+        // Before continue, save the metadata in case the internet connection is not available
+        mission.writeThisToFile();
+
+        if (mission.storage == null) {
+            // noting to do here
+            mission.errCode = DownloadMission.ERROR_FILE_CREATION;
+            if (mission.errObject != null)
+                mission.errObject = new IOException("DownloadMission.storage == NULL");
+            return false;
         }
-    }
 
+        // the same thing was downloaded before, copy it instead
+        mission.duplicate = mFingerprints.findDuplicate(mission);
 
+        mScheduler.enqueue(mission);
+        return true;
+    }
+
+    /**
+     * Starts a mission chosen by the user, the mission does not wait in the queue
+     *
+     * @param mission the mission to start
+     */
     public void resumeMission(DownloadMission mission) {
-        if (!mission.running) {
-            mission.start();
+        synchronized (this) {
+            // the storage can be picked again by the user before resuming
+            mPendingIndex.update(mission);
+
+            if (!mission.running) {
+                mScheduler.admit(mission);
+                mission.start();
+            }
         }
     }
 
@@ -268,10 +347,9 @@ public class DownloadManager {
     public void deleteMission(Mission mission) {
         synchronized (this) {
             if (mission instanceof DownloadMission) {
-                mMissionsPending.remove(mission);
+                removePendingMission((DownloadMission) mission);
             } else if (mission instanceof FinishedMission) {
-                mMissionsFinished.remove(mission);
-                mFinishedMissionStore.deleteMission(mission);
+                removeFinishedMission((FinishedMission) mission);
             }
 
             mission.delete();
@@ -284,10 +362,9 @@ public class DownloadManager {
             if (mission == null) return;
 
             if (mission instanceof DownloadMission) {
-                mMissionsPending.remove(mission);
+                removePendingMission((DownloadMission) mission);
             } else if (mission instanceof FinishedMission) {
-                mMissionsFinished.remove(mission);
-                mFinishedMissionStore.deleteMission(mission);
+                removeFinishedMission((FinishedMission) mission);
             }
 
             mission.storage = null;
@@ -295,7 +372,28 @@ public class DownloadManager {
         }
     }
 
+    private void removePendingMission(DownloadMission mission) {
+        mMissionsPending.remove(mission);
+        mPendingIndex.remove(mission);
+        mScheduler.remove(mission);
+    }
+
+    private void removeFinishedMission(FinishedMission mission) {
+        mMissionsFinished.remove(mission);
+        mFinishedIndex.remove(mission);
+        mFingerprints.remove(mission);
+        mFinishedMissionStore.deleteMission(mission);
+    }
+
     public void tryRecover(DownloadMission mission) {
+        recoverStorage(mission);
+
+        synchronized (this) {
+            mPendingIndex.update(mission);
+        }
+    }
+
+    private void recoverStorage(DownloadMission mission) {
         StoredDirectoryHelper mainStorage = getMainStorage(mission.storage.getTag());
 
         if (!mission.storage.isInvalid() && mission.storage.create()) return;
@@ -323,43 +421,36 @@ public class DownloadManager {
      */
     @Nullable
     private DownloadMission getPendingMission(StoredFileHelper storage) {
-        for (DownloadMission mission : mMissionsPending) {
-            if (mission.storage.equals(storage)) {
-                return mission;
-            }
-        }
-        return null;
+        return mPendingIndex.get(storage, mMissionsPending);
     }
 
     /**
-     * Get the index into {@link #mMissionsFinished} of a finished mission by its path, return
-     * {@code -1} if there is no such mission. This function also checks if the matched mission's
-     * file exists, and, if it does not, the related mission is forgotten about (like in {@link
-     * #loadFinishedMissions()}) and {@code -1} is returned.
+     * Get a finished mission by its path, return {@code null} if there is no such mission. This
+     * function also checks if the matched mission's file exists, and, if it does not, the related
+     * mission is forgotten about (like in {@link #loadFinishedMissions()}) and {@code null} is
+     * returned.
      *
      * @param storage where the file would be stored
-     * @return the mission index or -1 if no such mission exists
+     * @return the mission or null if no such mission exists
      */
-    private int getFinishedMissionIndex(StoredFileHelper storage) {
-        for (int i = 0; i < mMissionsFinished.size(); i++) {
-            if (mMissionsFinished.get(i).storage.equals(storage)) {
-                // If the file does not exist the mission is not valid anymore. Also checking if
-                // length == 0 since the file picker may create an empty file before yielding it,
-                // but that does not mean the file really belonged to a previous mission.
-                if (!storage.existsAsFile() || storage.length() == 0) {
-                    if (DEBUG) {
-                        Log.d(TAG, "matched downloaded file removed: " + storage.getName());
-                    }
-
-                    mFinishedMissionStore.deleteMission(mMissionsFinished.get(i));
-                    mMissionsFinished.remove(i);
-                    return -1; // finished mission whose associated file was removed
-                }
-                return i;
+    @Nullable
+    private FinishedMission getFinishedMission(StoredFileHelper storage) {
+        FinishedMission mission = mFinishedIndex.get(storage, mMissionsFinished);
+        if (mission == null) return null;
+
+        // If the file does not exist the mission is not valid anymore. Also checking if
+        // length == 0 since the file picker may create an empty file before yielding it,
+        // but that does not mean the file really belonged to a previous mission.
+        if (!storage.existsAsFile() || storage.length() == 0) {
+            if (DEBUG) {
+                Log.d(TAG, "matched downloaded file removed: " + storage.getName());
             }
+
+            removeFinishedMission(mission);
+            return null; // finished mission whose associated file was removed
         }
 
-        return -1;
+        return mission;
     }
 
     private Mission getAnyMission(StoredFileHelper storage) {
@@ -367,11 +458,8 @@ public class DownloadManager {
             Mission mission = getPendingMission(storage);
             if (mission != null) return mission;
 
-            int idx = getFinishedMissionIndex(storage);
-            if (idx >= 0) return mMissionsFinished.get(idx);
+            return getFinishedMission(storage);
         }
-
-        return null;
     }
 
     int getRunningMissionsCount() {
@@ -402,13 +490,21 @@ public class DownloadManager {
         }
     }
 
+    /**
+     * Enqueues all the paused missions, the queue limits decide how many of them start now
+     */
     public void startAllMissions() {
         synchronized (this) {
+            mSelfMissionsControl = true;
+
             for (DownloadMission mission : mMissionsPending) {
                 if (mission.running || mission.isCorrupt()) continue;
 
-                mission.start();
+                if (!mission.enqueued) mission.setEnqueued(true);
+                mScheduler.enqueue(mission);
             }
+
+            startQueuedMissions();
         }
     }
 
@@ -419,9 +515,15 @@ public class DownloadManager {
      */
     void setFinished(DownloadMission mission) {
         synchronized (this) {
-            mMissionsPending.remove(mission);
-            mMissionsFinished.add(0, new FinishedMission(mission));
+            FinishedMission finished = new FinishedMission(mission);
+
+            removePendingMission(mission);
+            mMissionsFinished.add(0, finished);
+            mFinishedIndex.add(finished);
             mFinishedMissionStore.addFinishedMission(mission);
+
+            // after inserting the row, the fingerprint is written in it from other thread
+            mFingerprints.add(finished);
         }
     }
 
@@ -433,26 +535,43 @@ public class DownloadManager {
     boolean runMissions() {
         synchronized (this) {
             if (mMissionsPending.size() < 1) return false;
-            if (!canDownloadInCurrentNetwork()) return false;
 
-            if (mPrefQueueLimit) {
-                for (DownloadMission mission : mMissionsPending)
-                    if (!mission.isFinished() && mission.running) return true;
-            }
+            startQueuedMissions();
+        }
 
-            boolean flag = false;
-            for (DownloadMission mission : mMissionsPending) {
-                if (mission.running || !mission.enqueued || mission.isFinished())
-                    continue;
+        return getRunningMissionsCount() > 0;
+    }
+
+    /**
+     * Puts back in the queue a mission stopped by an error, if the error can be recovered
+     * without the user interaction the mission is still enqueued
+     *
+     * @param mission the failed mission
+     */
+    void requeueMission(DownloadMission mission) {
+        synchronized (this) {
+            if (mission.enqueued && !mission.deleted) mScheduler.enqueue(mission);
+        }
+    }
 
-                resumeMission(mission);
-                if (mission.errCode != DownloadMission.ERROR_NOTHING) continue;
+    /**
+     * Starts the queued missions, as many as the limits allow. Must be called holding the lock
+     */
+    private void startQueuedMissions() {
+        if (!canDownloadInCurrentNetwork()) return;
 
-                if (mPrefQueueLimit) return true;
-                flag = true;
-            }
+        DownloadMission mission;
+        while ((mission = mScheduler.poll()) != null) {
+            mission.start();
+        }
+    }
 
-            return flag;
+    void updateQueueLimits() {
+        synchronized (this) {
+            mScheduler.setLimits(mPrefQueueLimit ? 1 : mPrefMaxMissions, mPrefMaxThreads);
+
+            // the limits can be higher now
+            if (mSelfMissionsControl) startQueuedMissions();
         }
     }
 
@@ -470,6 +589,8 @@ public class DownloadManager {
                 mFinishedMissionStore.deleteMission(mission);
             }
             mMissionsFinished.clear();
+            mFinishedIndex.clear();
+            mFingerprints.clear();
         }
     }
 
@@ -497,10 +618,11 @@ public class DownloadManager {
                 if (mission.running && isMetered) {
                     mission.pause();
                 } else if (!mission.running && !isMetered && mission.enqueued) {
-                    mission.start();
-                    if (mPrefQueueLimit) break;
+                    mScheduler.enqueue(mission);
                 }
             }
+
+            startQueuedMissions();
         }
     }
 
@@ -515,7 +637,7 @@ public class DownloadManager {
             DownloadMission pending = getPendingMission(storage);
 
             if (pending == null) {
-                if (getFinishedMissionIndex(storage) >= 0) return MissionState.Finished;
+                if (getFinishedMission(storage) != null) return MissionState.Finished;
             } else {
                 if (pending.isFinished()) {
                     return MissionState.Finished;// this never should happen (race-condition)
@@ -44,6 +44,7 @@ import com.systems.automaton.reeltube.player.helper.LockManager;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 import us.shandian.giga.get.DownloadMission;
 import us.shandian.giga.get.MissionRecoveryInfo;
@@ -66,6 +67,7 @@ public class DownloadManagerService extends Service {
     public static final int MESSAGE_FINISHED = 2;
     public static final int MESSAGE_ERROR = 3;
     public static final int MESSAGE_DELETED = 4;
+    public static final int MESSAGE_POSTPROCESSING = 5;
 
     private static final int FOREGROUND_NOTIFICATION_ID = 1000;
     private static final int DOWNLOADS_NOTIFICATION_ID = 1001;
@@ -194,6 +196,11 @@ public class DownloadManagerService extends Service {
         handlePreferenceChange(mPrefs, getString(R.string.downloads_cross_network));
         handlePreferenceChange(mPrefs, getString(R.string.downloads_maximum_retry));
         handlePreferenceChange(mPrefs, getString(R.string.downloads_queue_limit));
+        handlePreferenceChange(mPrefs, getString(R.string.downloads_concurrent_limit));
+        handlePreferenceChange(mPrefs, getString(R.string.downloads_threads_limit));
+        handlePreferenceChange(mPrefs, getString(R.string.downloads_speed_limit));
+        handlePreferenceChange(mPrefs, getString(R.string.downloads_mission_speed_limit));
+        handlePreferenceChange(mPrefs, getString(R.string.downloads_yield_to_playback));
 
         mLock = new LockManager(this);
     }
@@ -300,6 +307,10 @@ public class DownloadManagerService extends Service {
             case MESSAGE_ERROR:
                 notifyFailedDownload(mission);
                 handleConnectivityState(false);
+                mManager.requeueMission(mission);
+                updateForegroundState(mManager.runMissions());
+                break;
+            case MESSAGE_POSTPROCESSING:
                 updateForegroundState(mManager.runMissions());
                 break;
             case MESSAGE_PAUSED:
@@ -352,6 +363,19 @@ public class DownloadManagerService extends Service {
             mManager.mPrefMeteredDownloads = prefs.getBoolean(key, false);
         } else if (key.equals(getString(R.string.downloads_queue_limit))) {
             mManager.mPrefQueueLimit = prefs.getBoolean(key, true);
+            mManager.updateQueueLimits();
+        } else if (key.equals(getString(R.string.downloads_concurrent_limit))) {
+            mManager.mPrefMaxMissions = getQueueLimit(prefs, key, MissionScheduler.DEFAULT_MAX_MISSIONS);
+            mManager.updateQueueLimits();
+        } else if (key.equals(getString(R.string.downloads_threads_limit))) {
+            mManager.mPrefMaxThreads = getQueueLimit(prefs, key, MissionScheduler.DEFAULT_MAX_THREADS);
+            mManager.updateQueueLimits();
+        } else if (key.equals(getString(R.string.downloads_speed_limit))) {
+            mManager.mBandwidth.setGlobalLimit(getSpeedLimit(prefs, key));
+        } else if (key.equals(getString(R.string.downloads_mission_speed_limit))) {
+            mManager.mBandwidth.setMissionLimit(getSpeedLimit(prefs, key));
+        } else if (key.equals(getString(R.string.downloads_yield_to_playback))) {
+            mManager.mBandwidth.setYieldToPlayback(prefs.getBoolean(key, true));
         } else if (key.equals(getString(R.string.download_path_video_key))) {
             mManager.mMainStorageVideo = loadMainVideoStorage();
         } else if (key.equals(getString(R.string.download_path_audio_key))) {
@@ -359,6 +383,27 @@ public class DownloadManagerService extends Service {
         }
     }
 
+    /**
+     * @return the speed limit stored in KiB/s, converted to bytes per second
+     */
+    private long getSpeedLimit(SharedPreferences prefs, String key) {
+        try {
+            String value = prefs.getString(key, getString(R.string.downloads_speed_limit_default));
+            return value == null ? 0 : Long.parseLong(value) * 1024;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static int getQueueLimit(SharedPreferences prefs, String key, int defaultValue) {
+        try {
+            String value = prefs.getString(key, null);
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (Exception e) {
+            return defaultValue;
+        }
+    }
+
     public void updateForegroundState(boolean state) {
         if (state == mForeground) return;
 
@@ -452,6 +497,20 @@ public class DownloadManagerService extends Service {
         mManager.startMission(mission);
     }
 
+    private void startMissions(List<DownloadMission> missions) {
+        File temporalDir = null;
+
+        for (DownloadMission mission : missions) {
+            if (mission.psAlgorithm == null) continue;
+            if (temporalDir == null) temporalDir = DownloadManager.pickAvailableTemporalDir(this);
+            mission.psAlgorithm.setTemporalDir(temporalDir);
+        }
+
+        handleConnectivityState(true);// first check the actual network status
+
+        mManager.startMissions(missions);
+    }
+
     public void notifyFinishedDownload(String name) {
         if (!mDownloadNotificationEnable || mNotificationManager == null) {
             return;
@@ -601,6 +660,15 @@ public class DownloadManagerService extends Service {
             );
         }
 
+        /**
+         * Starts missions built by the caller, all of them are queued at once
+         *
+         * @param missions missions not started yet, post-processing temporal dirs are set here
+         */
+        public void startMissions(List<DownloadMission> missions) {
+            DownloadManagerService.this.startMissions(missions);
+        }
+
         public void addMissionEventListener(Callback handler) {
             mEchoObservers.add(handler);
         }
@@ -0,0 +1,125 @@
+package us.shandian.giga.service;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+import us.shandian.giga.get.DownloadMission;
+import us.shandian.giga.get.FinishedMission;
+import us.shandian.giga.get.sqlite.FinishedMissionStore;
+import us.shandian.giga.util.Utility;
+
+import static com.systems.automaton.reeltube.BuildConfig.DEBUG;
+
+/**
+ * Finished missions by source and variant, so a new mission downloading the same thing can reuse
+ * the file already downloaded. The files are fingerprinted in background, see
+ * {@link Utility#fingerprint}, and the fingerprints are saved in the {@link FinishedMissionStore}.
+ * <p>
+ * Like {@link MissionIndex}, the lookups are not thread-safe.
+ */
+class FingerprintIndexer {
+    private static final String TAG = "FingerprintIndexer";
+
+    private final FinishedMissionStore store;
+    private final HashMap<String, FinishedMission> byVariant = new HashMap<>();
+
+    private final ArrayDeque<FinishedMission> queue = new ArrayDeque<>();
+    private Thread worker = null;
+
+    FingerprintIndexer(@NonNull FinishedMissionStore store) {
+        this.store = store;
+    }
+
+    @Nullable
+    private static String keyOf(String source, String variant) {
+        if (source == null || variant == null) return null;
+        return source + '\n' + variant;
+    }
+
+    /**
+     * Adds a finished mission, the file is fingerprinted in background if was not done before.
+     * The last added mission wins if several have the same source and variant
+     */
+    void add(@NonNull FinishedMission mission) {
+        String key = keyOf(mission.source, mission.variant);
+        if (key == null) return;
+
+        byVariant.put(key, mission);
+        if (mission.fingerprint == null) schedule(mission);
+    }
+
+    void remove(@NonNull FinishedMission mission) {
+        String key = keyOf(mission.source, mission.variant);
+        if (key != null && byVariant.get(key) == mission) byVariant.remove(key);
+
+        synchronized (queue) {
+            queue.remove(mission);
+        }
+    }
+
+    void clear() {
+        byVariant.clear();
+
+        synchronized (queue) {
+            queue.clear();
+        }
+    }
+
+    /**
+     * Finds a finished download of the same source and variant as the given mission. The file of
+     * the returned mission must be fingerprinted again before reusing it, it could be modified
+     *
+     * @param mission a mission not started yet
+     * @return the finished mission, or {@code null} if none or not fingerprinted yet
+     */
+    @Nullable
+    FinishedMission findDuplicate(@NonNull DownloadMission mission) {
+        String key = keyOf(mission.source, mission.getVariant());
+        if (key == null) return null;
+
+        FinishedMission finished = byVariant.get(key);
+        if (finished == null || finished.fingerprint == null) return null;
+
+        // the file is being downloaded again in the same place
+        if (mission.storage != null && mission.storage.equals(finished.storage)) return null;
+
+        return finished;
+    }
+
+    private void schedule(FinishedMission mission) {
+        synchronized (queue) {
+            queue.add(mission);
+            if (worker != null) return;
+
+            worker = new Thread(this::run, TAG);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.start();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            FinishedMission mission;
+            synchronized (queue) {
+                mission = queue.poll();
+                if (mission == null) {
+                    worker = null;
+                    return;
+                }
+            }
+
+            try {
+                mission.fingerprint = Utility.fingerprint(mission.storage);
+                store.updateMission(mission);
+            } catch (Exception e) {
+                // the file is gone or cannot be read, will not be reused
+                if (DEBUG) Log.w(TAG, "cannot fingerprint " + mission.storage.getName(), e);
+            }
+        }
+    }
+}
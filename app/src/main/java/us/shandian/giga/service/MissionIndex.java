@@ -0,0 +1,84 @@
+package us.shandian.giga.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.systems.automaton.reeltube.streams.io.StoredFileHelper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import us.shandian.giga.get.Mission;
+
+/**
+ * Missions by the key of their storage, see {@link StoredFileHelper#getLookupKey()}. Missions
+ * with an invalid storage have no key and are compared one by one, like lookups of an invalid
+ * storage (matched by name and type). Not thread-safe.
+ * <p>
+ * The key is taken when the mission is added, call {@link #update(Mission)} if the storage of
+ * the mission is replaced, recreated or invalidated.
+ */
+class MissionIndex<T extends Mission> {
+    private final HashMap<String, T> byKey = new HashMap<>();
+    private final HashMap<T, String> keys = new HashMap<>();
+    private final ArrayList<T> withoutKey = new ArrayList<>();
+
+    void add(@NonNull T mission) {
+        String key = mission.storage == null ? null : mission.storage.getLookupKey();
+
+        if (key == null) {
+            withoutKey.add(mission);
+        } else {
+            byKey.put(key, mission);
+            keys.put(mission, key);
+        }
+    }
+
+    /**
+     * @return {@code true} if the mission was in the index
+     */
+    boolean remove(@NonNull T mission) {
+        String key = keys.remove(mission);
+        if (key == null) return withoutKey.remove(mission);
+
+        if (byKey.get(key) == mission) byKey.remove(key);
+        return true;
+    }
+
+    /**
+     * Takes again the key of the mission, nothing is done if the mission is not in the index
+     */
+    void update(@NonNull T mission) {
+        if (remove(mission)) add(mission);
+    }
+
+    void clear() {
+        byKey.clear();
+        keys.clear();
+        withoutKey.clear();
+    }
+
+    /**
+     * Finds the mission stored in the given storage
+     *
+     * @param storage where the file is stored
+     * @param all     every mission, only scanned if the storage is invalid
+     * @return the mission or {@code null} if no such mission exists
+     */
+    @Nullable
+    T get(@NonNull StoredFileHelper storage, @NonNull Iterable<T> all) {
+        String key = storage.getLookupKey();
+
+        if (key != null) {
+            T mission = byKey.get(key);
+            if (mission != null && mission.storage != null && mission.storage.equals(storage))
+                return mission;
+        }
+
+        for (T mission : key == null ? all : withoutKey) {
+            if (mission.storage != null && mission.storage.equals(storage)) return mission;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,122 @@
+package us.shandian.giga.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+import us.shandian.giga.get.DownloadMission;
+
+/**
+ * Decides which enqueued missions can start. The missions wait in a priority queue, the highest
+ * {@link DownloadMission#priority} first and the oldest first on ties, and are started only if
+ * the amount of downloading missions and download threads is below the limits. Missions in
+ * post-processing do not count, their slot is given to the next mission.
+ * <p>
+ * The mission state can change without the scheduler knowing (paused, failed, deleted), so the
+ * missions in the queue are validated when polled and the active ones are checked on every poll.
+ * Not thread-safe, the {@link DownloadManager} lock guards every call.
+ */
+class MissionScheduler {
+    static final int DEFAULT_MAX_MISSIONS = 3;
+    static final int DEFAULT_MAX_THREADS = 16;
+
+    private static final Comparator<DownloadMission> ORDER = (a, b) -> {
+        if (a.priority != b.priority) return Integer.compare(b.priority, a.priority);
+        return Long.compare(a.timestamp, b.timestamp);
+    };
+
+    private final PriorityQueue<DownloadMission> queue = new PriorityQueue<>(16, ORDER);
+    private final HashSet<DownloadMission> queued = new HashSet<>();
+    private final ArrayList<DownloadMission> active = new ArrayList<>();
+
+    private int maxMissions = DEFAULT_MAX_MISSIONS;
+    private int maxThreads = DEFAULT_MAX_THREADS;
+
+    /**
+     * Sets the limits, the missions already running are not paused if the limits are lowered
+     *
+     * @param missions maximum of missions downloading at once
+     * @param threads  maximum of download threads used by those missions
+     */
+    void setLimits(int missions, int threads) {
+        maxMissions = Math.max(missions, 1);
+        maxThreads = Math.max(threads, 1);
+    }
+
+    /**
+     * Adds a mission to the queue, nothing is done if the mission is already queued
+     */
+    void enqueue(@NonNull DownloadMission mission) {
+        if (queued.add(mission)) queue.add(mission);
+    }
+
+    void remove(@NonNull DownloadMission mission) {
+        if (queued.remove(mission)) queue.remove(mission);
+        active.remove(mission);
+    }
+
+    /**
+     * Counts a mission started without waiting in the queue (started by the user)
+     */
+    void admit(@NonNull DownloadMission mission) {
+        if (!active.contains(mission)) active.add(mission);
+    }
+
+    /**
+     * Takes the next mission to start if the limits allow it, the caller must start it before
+     * polling again. A mission with more threads than the remaining ones waits (and the missions
+     * behind it too) unless nothing else is downloading.
+     *
+     * @return the mission, or {@code null} if nothing can start now
+     */
+    @Nullable
+    DownloadMission poll() {
+        int threads = 0;
+        for (int i = active.size() - 1; i >= 0; i--) {
+            DownloadMission mission = active.get(i);
+            if (isDownloading(mission)) {
+                threads += mission.threadCount;
+            } else {
+                active.remove(i);
+            }
+        }
+
+        while (active.size() < maxMissions) {
+            DownloadMission mission = queue.peek();
+            if (mission == null) return null;
+
+            if (!isWaiting(mission)) {
+                queued.remove(queue.poll());
+                continue;
+            }
+
+            if (active.size() > 0 && threads + mission.threadCount > maxThreads) return null;
+
+            queued.remove(queue.poll());
+            active.add(mission);
+            return mission;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the amount of missions downloading (post-processing not included), as seen by the
+     * last {@link #poll()}
+     */
+    int getActiveCount() {
+        return active.size();
+    }
+
+    private static boolean isWaiting(DownloadMission mission) {
+        return !mission.running && mission.enqueued && !mission.deleted && !mission.isCorrupt();
+    }
+
+    private static boolean isDownloading(DownloadMission mission) {
+        return mission.running && !mission.deleted && !mission.isPsRunning() && !mission.isCorrupt();
+    }
+}
@@ -0,0 +1,86 @@
+package us.shandian.giga.transport;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+
+import us.shandian.giga.io.InputStreamChannel;
+
+/**
+ * HTTP request and his response. The request is sent when any of the response methods are
+ * called for the first time, like {@link java.net.HttpURLConnection} does.
+ */
+public abstract class Connection {
+    private static final int CHANNEL_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Sets a request header, must be called before connecting
+     */
+    public abstract void setRequestProperty(String key, String value);
+
+    @Nullable
+    public abstract String getRequestProperty(String key);
+
+    public abstract int getResponseCode() throws IOException;
+
+    /**
+     * @param name the header name
+     * @return the header value or {@code null} if is not present or the request failed
+     */
+    @Nullable
+    public abstract String getHeaderField(String name);
+
+    public abstract InputStream getInputStream() throws IOException;
+
+    /**
+     * Opens the response body as a channel, implementations able to fill the buffers without
+     * intermediate copies should override this.
+     *
+     * @return the response body
+     * @throws IOException if an I/O error occurs
+     */
+    public ReadableByteChannel getChannel() throws IOException {
+        return new InputStreamChannel(getInputStream(), CHANNEL_BUFFER_SIZE);
+    }
+
+    /**
+     * Aborts the request, can be called from any thread
+     */
+    public abstract void disconnect();
+
+    /**
+     * @return the length of the response body or -1 if is unknown
+     */
+    public long getContentLength() {
+        String value = getHeaderField("Content-Length");
+        if (value == null) return -1;
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException err) {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the length of the whole resource from the {@code Content-Range} header of a
+     * partial response, like {@code bytes 0-1023/4096}
+     *
+     * @return the length or -1 if is unknown
+     */
+    public long getTotalLength() {
+        String range = getHeaderField("Content-Range");
+        if (range == null) return -1;
+
+        int index = range.lastIndexOf('/');
+        if (index < 0) return -1;
+
+        try {
+            return Long.parseLong(range.substring(index + 1).trim());
+        } catch (NumberFormatException err) {
+            return -1;// the length is "*"
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package us.shandian.giga.transport;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Transport using {@link HttpURLConnection}, every mission thread manages its own connection
+ */
+public class HttpUrlTransport implements Transport {
+
+    @NonNull
+    @Override
+    public Connection open(@NonNull String url, boolean headRequest) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setInstanceFollowRedirects(true);
+
+        if (headRequest) conn.setRequestMethod("HEAD");
+
+        // BUG workaround: switching between networks can freeze the download forever
+        conn.setConnectTimeout(30000);
+
+        return new UrlConnection(conn);
+    }
+
+    private static class UrlConnection extends Connection {
+        private final HttpURLConnection conn;
+
+        UrlConnection(HttpURLConnection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public void setRequestProperty(String key, String value) {
+            conn.setRequestProperty(key, value);
+        }
+
+        @Override
+        public String getRequestProperty(String key) {
+            return conn.getRequestProperty(key);
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return conn.getResponseCode();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            return conn.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return conn.getInputStream();
+        }
+
+        @Override
+        public void disconnect() {
+            conn.disconnect();
+        }
+    }
+}
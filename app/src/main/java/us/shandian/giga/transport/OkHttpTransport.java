@@ -0,0 +1,126 @@
+package us.shandian.giga.transport;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Transport using a shared {@link OkHttpClient}. The connections are kept alive between range
+ * requests and, if the server supports HTTP/2, the requests of all mission threads are
+ * multiplexed over the same TLS session.
+ */
+public class OkHttpTransport implements Transport {
+    private final OkHttpClient client;
+
+    /**
+     * @param client the client to share, its connection pool is reused
+     */
+    public OkHttpTransport(@NonNull OkHttpClient client) {
+        // BUG workaround: switching between networks can freeze the download forever
+        this.client = client.newBuilder()
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .followRedirects(true)
+                .followSslRedirects(true)
+                .build();
+    }
+
+    @NonNull
+    @Override
+    public Connection open(@NonNull String url, boolean headRequest) {
+        Request.Builder request = new Request.Builder().url(url);
+        if (headRequest) request.head();
+
+        return new OkHttpConnection(client, request);
+    }
+
+    private static class OkHttpConnection extends Connection {
+        private final OkHttpClient client;
+        private final Request.Builder request;
+
+        private Call call;
+        private boolean canceled = false;
+        private volatile Response response;
+
+        OkHttpConnection(OkHttpClient client, Request.Builder request) {
+            this.client = client;
+            this.request = request;
+        }
+
+        @NonNull
+        private Response execute() throws IOException {
+            if (response != null) return response;
+
+            Call call;
+            synchronized (this) {
+                if (canceled) throw new IOException("Canceled");
+                call = this.call = client.newCall(request.build());
+            }
+
+            response = call.execute();
+            return response;
+        }
+
+        @Override
+        public void setRequestProperty(String key, String value) {
+            request.header(key, value);
+        }
+
+        @Override
+        public String getRequestProperty(String key) {
+            return request.build().header(key);
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return execute().code();
+        }
+
+        @Override
+        public String getHeaderField(String name) {
+            try {
+                return execute().header(name);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return body().byteStream();
+        }
+
+        @Override
+        public ReadableByteChannel getChannel() throws IOException {
+            // the body source copies from the socket buffers directly into the caller buffer
+            return body().source();
+        }
+
+        @NonNull
+        private ResponseBody body() throws IOException {
+            ResponseBody body = execute().body();
+            if (body == null) throw new IOException("The response has no body");
+
+            return body;
+        }
+
+        @Override
+        public void disconnect() {
+            synchronized (this) {
+                canceled = true;
+                if (call != null) call.cancel();
+            }
+
+            Response response = this.response;
+            if (response != null) response.close();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package us.shandian.giga.transport;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Creates the HTTP connections used by the download missions
+ */
+public interface Transport {
+
+    /**
+     * Prepares a connection, the request is not sent until the response is requested
+     *
+     * @param url         the resource url
+     * @param headRequest {@code true} for use {@code HEAD} request method, otherwise, {@code GET} is used
+     * @return an unconnected connection
+     * @throws IOException if the url is not valid
+     */
+    @NonNull
+    Connection open(@NonNull String url, boolean headRequest) throws IOException;
+}
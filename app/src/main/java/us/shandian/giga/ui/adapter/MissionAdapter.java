@@ -59,6 +59,7 @@ import io.reactivex.rxjava3.schedulers.Schedulers;
 import us.shandian.giga.get.DownloadMission;
 import us.shandian.giga.get.FinishedMission;
 import us.shandian.giga.get.Mission;
+import us.shandian.giga.get.MissionMetrics;
 import us.shandian.giga.get.MissionRecoveryInfo;
 import com.systems.automaton.reeltube.streams.io.StoredFileHelper;
 import us.shandian.giga.service.DownloadManager;
@@ -118,6 +119,9 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
     private final ArrayList<Mission> mHidden;
     private Snackbar mSnackbar;
 
+    private AlertDialog mStatistics;
+    private DownloadMission mStatisticsMission;
+
     private final Runnable rUpdater = this::updater;
     private final Runnable rDelete = this::deleteFinishedDownloads;
 
@@ -238,7 +242,7 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
         if (h == null || h.item == null || h.item.mission instanceof FinishedMission) return;
 
         DownloadMission mission = (DownloadMission) h.item.mission;
-        double done = mission.done;
+        double done = mission.sampleProgress();
         long length = mission.getLength();
         long now = System.currentTimeMillis();
         boolean hasError = mission.errCode != ERROR_NOTHING;
@@ -560,6 +564,59 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
                 .show();
     }
 
+    private void showStatistics(@NonNull DownloadMission mission) {
+        MissionMetrics metrics = mission.metrics;
+        if (metrics == null) return;
+
+        String name = mission.storage.getName();
+
+        mStatistics = new AlertDialog.Builder(mContext)
+                .setTitle(name)
+                .setMessage(describeStatistics(metrics))
+                .setPositiveButton(R.string.close, null)
+                .setNeutralButton(R.string.download_statistics_copy_json, (dialog, which) ->
+                        Utility.copyToClipboard(mContext, metrics.toJson())
+                )
+                .setNegativeButton(R.string.download_statistics_share_csv, (dialog, which) ->
+                        ShareUtils.shareText(mContext, name, metrics.toCsv())
+                )
+                .setOnDismissListener(dialog -> {
+                    mStatistics = null;
+                    mStatisticsMission = null;
+                })
+                .create();
+        mStatisticsMission = mission;
+        mStatistics.show();
+    }
+
+    private String describeStatistics(@NonNull MissionMetrics metrics) {
+        long elapsed = System.currentTimeMillis() - metrics.getSince();
+        StringBuilder str = new StringBuilder(512);
+
+        str.append(mContext.getString(R.string.download_statistics_summary,
+                Utility.formatBytes(metrics.getBytes()), Utility.stringifySeconds(elapsed / 1000d),
+                metrics.getRecoveries(), metrics.getRefreshes()));
+
+        MissionMetrics.ThreadMetrics[] threads = metrics.getThreads();
+        for (int i = 0; i < threads.length; i++) {
+            MissionMetrics.ThreadMetrics thread = threads[i];
+
+            str.append("\n\n")
+                    .append(mContext.getString(R.string.download_statistics_thread, i,
+                            Utility.formatBytes(thread.getBytes()), Utility.formatSpeed(thread.getSpeed()),
+                            thread.getRequests(), thread.getRetries(), thread.getForbidden(),
+                            thread.getUnsatisfiable()))
+                    .append('\n')
+                    .append(mContext.getString(R.string.download_statistics_first_byte,
+                            thread.firstByte.getPercentile(0.5), thread.firstByte.getPercentile(0.9)))
+                    .append('\n')
+                    .append(mContext.getString(R.string.download_statistics_block_wait,
+                            thread.acquireWait.getPercentile(0.5), thread.acquireWait.getPercentile(0.99)));
+        }
+
+        return str.toString();
+    }
+
     private void showError(DownloadMission mission, UserAction action, @StringRes int reason) {
         StringBuilder request = new StringBuilder(256);
         request.append(mission.source);
@@ -669,6 +726,9 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
                 case R.id.cancel:
                     mission.psContinue(false);
                     return false;
+                case R.id.statistics:
+                    showStatistics(mission);
+                    return true;
             }
         }
 
@@ -827,6 +887,10 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
             updateProgress(h);
         }
 
+        if (mStatistics != null && mStatisticsMission.running) {
+            mStatistics.setMessage(describeStatistics(mStatisticsMission.metrics));
+        }
+
         mHandler.postDelayed(rUpdater, 1000);
     }
 
@@ -858,6 +922,7 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
         MenuItem showError;
         MenuItem delete;
         MenuItem source;
+        MenuItem statistics;
         MenuItem checksum;
 
         long lastTimestamp = -1;
@@ -893,6 +958,7 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
             showError = menu.findItem(R.id.error_message_view);
             delete = menu.findItem(R.id.delete);
             source = menu.findItem(R.id.source);
+            statistics = menu.findItem(R.id.statistics);
             checksum = menu.findItem(R.id.checksum);
 
             itemView.setHapticFeedbackEnabled(true);
@@ -919,11 +985,14 @@ public class MissionAdapter extends Adapter<ViewHolder> implements Handler.Callb
             showError.setVisible(false);
             delete.setVisible(false);
             source.setVisible(false);
+            statistics.setVisible(false);
             checksum.setVisible(false);
 
             DownloadMission mission = item.mission instanceof DownloadMission ? (DownloadMission) item.mission : null;
 
             if (mission != null) {
+                statistics.setVisible(mission.metrics != null);
+
                 if (mission.hasInvalidStorage()) {
                     retry.setVisible(true);
                     delete.setVisible(true);
@@ -0,0 +1,90 @@
+package us.shandian.giga.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram with power of two buckets, the bucket {@code i} counts the values in the
+ * range {@code [2^(i-1), 2^i)} and the bucket zero counts the values lower than one. Cheap enough
+ * to be updated from the download loop, the percentiles are approximated to the bucket bounds.
+ */
+public class Histogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    private static int bucketOf(long value) {
+        if (value < 1) return 0;
+        return Math.min(BUCKETS - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+    }
+
+    /**
+     * @param bucket index of the bucket
+     * @return the highest value counted in the bucket
+     */
+    public static long upperBound(int bucket) {
+        if (bucket < 1) return 0;
+        if (bucket >= BUCKETS - 1) return Long.MAX_VALUE;
+        return (1L << bucket) - 1;
+    }
+
+    public void record(long value) {
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(Math.max(value, 0));
+
+        long current;
+        do {
+            current = max.get();
+        } while (value > current && !max.compareAndSet(current, value));
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long amount = count.get();
+        return amount < 1 ? 0 : sum.get() / amount;
+    }
+
+    /**
+     * Approximates a percentile, concurrent writes can be missed
+     *
+     * @param percentile a value between 0 and 1
+     * @return the upper bound of the bucket holding the percentile, never greater than the
+     * maximum recorded value
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = getBuckets();
+        long total = 0;
+        for (long amount : snapshot) total += amount;
+        if (total < 1) return 0;
+
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && snapshot[i] > 0) return Math.min(upperBound(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    /**
+     * @return a copy of the amount of values counted in every bucket
+     */
+    public long[] getBuckets() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) snapshot[i] = buckets.get(i);
+        return snapshot;
+    }
+}
@@ -0,0 +1,59 @@
+package us.shandian.giga.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter splitted in multiple cells, every writer thread uses its own cell so there no
+ * contention between them. Readers must sum (or drain) all cells.
+ * <p>
+ * Similar to {@code java.util.concurrent.atomic.LongAdder} (not available before API 24)
+ */
+public class StripedCounter {
+    // every cell is padded to 64 bytes, avoids false sharing between adjacent cells
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int stripes;
+
+    public StripedCounter(int stripes) {
+        if (stripes < 1) throw new IllegalArgumentException("stripes must be greater than zero");
+
+        this.stripes = stripes;
+        this.cells = new AtomicLongArray(stripes * PADDING);
+    }
+
+    private int indexOf(int stripe) {
+        return ((stripe & Integer.MAX_VALUE) % stripes) * PADDING;
+    }
+
+    /**
+     * Adds the given value to the cell of the writer
+     *
+     * @param stripe id of the writer, usually the thread id
+     * @param delta  value to add, can be negative
+     */
+    public void add(int stripe, long delta) {
+        cells.addAndGet(indexOf(stripe), delta);
+    }
+
+    /**
+     * @return the current sum, concurrent writes can be missed
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < stripes; i++) sum += cells.get(i * PADDING);
+        return sum;
+    }
+
+    /**
+     * Resets all cells returning the sum of them. Every added value is returned exactly once
+     * across calls, even if the writers are running
+     *
+     * @return the sum of all cells since the last drain
+     */
+    public long drain() {
+        long sum = 0;
+        for (int i = 0; i < stripes; i++) sum += cells.getAndSet(i * PADDING, 0);
+        return sum;
+    }
+}
@@ -0,0 +1,89 @@
+package us.shandian.giga.util;
+
+/**
+ * Token bucket used to limit the throughput of the download threads. The consumers take the
+ * tokens first and wait later, so a big read leaves the bucket in debt and every consumer
+ * waits until the debt is paid.
+ */
+public class TokenBucket {
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * Minimum capacity of the bucket, a whole read buffer must fit
+     */
+    private static final long MINIMUM_BURST = 64 * 1024;
+
+    /**
+     * Read without locking, an unlimited bucket costs nothing to the consumers
+     */
+    private volatile long rate = 0;
+    private long burst = 0;
+    private double tokens = 0;
+    private long lastRefill;
+
+    /**
+     * @param bytesPerSecond the allowed throughput, zero or negative means unlimited
+     */
+    public void setRate(long bytesPerSecond) {
+        if (bytesPerSecond < 0) bytesPerSecond = 0;
+        if (bytesPerSecond == rate) return;
+
+        synchronized (this) {
+            if (bytesPerSecond == rate) return;
+
+            long now = nanoTime();
+            refill(now);
+
+            if (rate == 0) tokens = bytesPerSecond;// start with a full bucket
+
+            burst = Math.max(bytesPerSecond, MINIMUM_BURST);
+            tokens = Math.min(tokens, burst);
+            lastRefill = now;
+            rate = bytesPerSecond;
+        }
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    /**
+     * Takes tokens from the bucket, can leave the bucket in debt
+     *
+     * @param amount amount of bytes transferred
+     */
+    public void take(long amount) {
+        if (rate == 0) return;
+
+        synchronized (this) {
+            refill(nanoTime());
+            tokens -= amount;
+        }
+    }
+
+    /**
+     * @return time to wait until the debt is paid, in nanoseconds
+     */
+    public long getWaitNanos() {
+        if (rate == 0) return 0;
+
+        synchronized (this) {
+            long rate = this.rate;
+            if (rate == 0) return 0;
+
+            refill(nanoTime());
+            if (tokens >= 0) return 0;
+
+            return (long) Math.ceil(-tokens * NANOS_PER_SECOND / rate);
+        }
+    }
+
+    private void refill(long now) {
+        if (rate > 0) tokens = Math.min(burst, tokens + ((now - lastRefill) * rate / NANOS_PER_SECOND));
+        lastRefill = now;
+    }
+
+    long nanoTime() {
+        return System.nanoTime();
+    }
+}
@@ -203,6 +203,55 @@ public class Utility {
         Toast.makeText(context, R.string.msg_copied, Toast.LENGTH_SHORT).show();
     }
 
+    /**
+     * Computes a cheap fingerprint of a file: its length and a FNV-1a hash of three samples, from
+     * the head, the middle and the tail. Only meant to tell if a known file was replaced or
+     * modified, use {@link #checksum(StoredFileHelper, String)} to hash the whole file
+     *
+     * @param source the file
+     * @return the fingerprint
+     * @throws IOException if the file cannot be read
+     */
+    public static String fingerprint(StoredFileHelper source) throws IOException {
+        final int SAMPLE_SIZE = 64 * 1024;
+
+        long length = source.length();
+        long[] samples = {0, length / 2 - SAMPLE_SIZE / 2, length - SAMPLE_SIZE};
+        long hash = 0xcbf29ce484222325L;
+        byte[] buffer = new byte[SAMPLE_SIZE];
+
+        try (SharpStream stream = source.getReadStream()) {
+            long position = 0;
+
+            for (long sample : samples) {
+                // the samples overlap in small files
+                sample = Math.max(sample, position);
+                if (sample >= length) break;
+
+                while (position < sample) {
+                    long skipped = stream.skip(sample - position);
+                    if (skipped < 1) throw new IOException("Cannot skip to " + sample);
+                    position += skipped;
+                }
+
+                int count = (int) Math.min(SAMPLE_SIZE, length - position);
+                for (int read = 0; read < count; ) {
+                    int amount = stream.read(buffer, read, count - read);
+                    if (amount < 0) throw new IOException("The file is shorter than expected");
+                    read += amount;
+                }
+                position += count;
+
+                for (int i = 0; i < count; i++) {
+                    hash ^= buffer[i] & 0xff;
+                    hash *= 0x100000001b3L;
+                }
+            }
+        }
+
+        return Long.toHexString(length) + ':' + Long.toHexString(hash);
+    }
+
     public static String checksum(StoredFileHelper source, String algorithm) {
         MessageDigest md;
 
@@ -0,0 +1,78 @@
+package com.systems.automaton.reeltube.streams;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.parser.Parser;
+import org.jsoup.select.Elements;
+import com.systems.automaton.reeltube.streams.io.SharpStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The former TTML to SRT conversion, which loads the whole XML in a Jsoup {@link Document}.
+ * Kept as the reference output of {@link SrtFromTtmlWriter} for the tests and the benchmark.
+ */
+public class SrtFromTtmlDocumentWriter {
+    private static final String NEW_LINE = "\r\n";
+
+    private final SharpStream out;
+    private final boolean ignoreEmptyFrames;
+
+    private int frameIndex = 0;
+
+    public SrtFromTtmlDocumentWriter(final SharpStream out, final boolean ignoreEmptyFrames) {
+        this.out = out;
+        this.ignoreEmptyFrames = ignoreEmptyFrames;
+    }
+
+    private static String getTimestamp(final Element frame, final String attr) {
+        return frame
+                .attr(attr)
+                .replace('.', ','); // SRT subtitles uses comma as decimal separator
+    }
+
+    private void writeFrame(final String begin, final String end, final StringBuilder text)
+            throws IOException {
+        writeString(frameIndex++ + NEW_LINE + begin + " --> " + end + NEW_LINE
+                + text + NEW_LINE + NEW_LINE);
+    }
+
+    private void writeString(final String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void build(final SharpStream ttml) throws IOException {
+        // parse XML
+        final byte[] buffer = new byte[(int) ttml.available()];
+        ttml.read(buffer);
+        final Document doc = Jsoup.parse(new ByteArrayInputStream(buffer), "UTF-8", "",
+                Parser.xmlParser());
+
+        final StringBuilder text = new StringBuilder(128);
+        final Elements paragraphList = doc.select("body > div > p");
+
+        for (final Element paragraph : paragraphList) {
+            text.setLength(0);
+
+            for (final Node children : paragraph.childNodes()) {
+                if (children instanceof TextNode) {
+                    text.append(((TextNode) children).text());
+                } else if (children instanceof Element
+                        && ((Element) children).tagName().equalsIgnoreCase("br")) {
+                    text.append(NEW_LINE);
+                }
+            }
+
+            if (ignoreEmptyFrames && text.length() < 1) {
+                continue;
+            }
+
+            writeFrame(getTimestamp(paragraph, "begin"), getTimestamp(paragraph, "end"), text);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package us.shandian.giga.get;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CyclicBarrier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static us.shandian.giga.get.DownloadMission.BLOCK_SIZE;
+
+public class DownloadMissionBlocksTest {
+    private static final int BLOCK_COUNT = 16;
+
+    private DownloadMission mission;
+
+    @Before
+    public void setUp() {
+        mission = new DownloadMission(new String[]{"https://example.com/video"}, null, 'v', null);
+        mission.length = (long) BLOCK_COUNT * BLOCK_SIZE;
+        mission.blocks = new int[BLOCK_COUNT];
+    }
+
+    @Test
+    public void acquireRespectsFairShare() {
+        assertEquals(BLOCK_COUNT, mission.prepareBlocks(2));
+
+        final DownloadMission.Block first = mission.acquireBlock(0, 100);
+        assertNotNull(first);
+        assertEquals(0, first.position);
+        assertEquals(BLOCK_COUNT / 2, first.getCount());
+
+        final DownloadMission.Block second = mission.acquireBlock(1, 1);
+        assertNotNull(second);
+        assertEquals(BLOCK_COUNT / 2, second.position);
+        assertEquals(1, second.getCount());
+    }
+
+    @Test
+    public void acquireStopsAtPartialBlock() {
+        mission.blocks[2] = 1024;
+        mission.prepareBlocks(1);
+
+        final DownloadMission.Block block = mission.acquireBlock(0, 8);
+        assertNotNull(block);
+        assertEquals(0, block.position);
+        assertEquals(2, block.getCount());
+
+        final DownloadMission.Block partial = mission.acquireBlock(0, 8);
+        assertNotNull(partial);
+        assertEquals(2, partial.position);
+        assertEquals(1024, partial.getDone());
+    }
+
+    @Test
+    public void idleThreadStealsTail() {
+        mission.prepareBlocks(2);
+
+        final DownloadMission.Block victim = mission.acquireBlock(0, BLOCK_COUNT);
+        assertNotNull(victim);
+        assertEquals(BLOCK_COUNT / 2, victim.getCount());
+
+        write(victim, BLOCK_SIZE + 10);
+
+        // the second thread downloads everything else
+        DownloadMission.Block stolen;
+        while (true) {
+            stolen = mission.acquireBlock(1, BLOCK_COUNT);
+            assertNotNull(stolen);
+            if (stolen.position < BLOCK_COUNT / 2) break;
+
+            mission.releaseBlock(1, stolen, true);
+        }
+
+        assertEquals(5, victim.getCount());
+        assertEquals(5, stolen.position);
+        assertEquals(3, stolen.getCount());
+        assertEquals(0, stolen.getDone());
+        assertEquals(mission.getBlockEnd(victim), 5L * BLOCK_SIZE - 1);
+    }
+
+    @Test
+    public void releaseKeepsPartialProgress() {
+        mission.prepareBlocks(1);
+
+        final DownloadMission.Block block = mission.acquireBlock(0, 4);
+        assertNotNull(block);
+        assertEquals(4, block.getCount());
+
+        write(block, BLOCK_SIZE + 100);
+        assertEquals(-1, mission.blocks[0]);
+
+        mission.releaseBlock(0, block, false);
+        assertEquals(-1, mission.blocks[0]);
+        assertEquals(100, mission.blocks[1]);
+        assertEquals(0, mission.blocks[2]);
+
+        final DownloadMission.Block resumed = mission.acquireBlock(0, 4);
+        assertNotNull(resumed);
+        assertEquals(1, resumed.position);
+        assertEquals(100, resumed.getDone());
+    }
+
+    @Test
+    public void reserveStopsAtStolenTail() {
+        mission.prepareBlocks(2);
+
+        final DownloadMission.Block block = mission.acquireBlock(0, 4);
+        assertNotNull(block);
+        write(block, BLOCK_SIZE - 10);
+
+        while (true) {
+            final DownloadMission.Block other = mission.acquireBlock(1, BLOCK_COUNT);
+            assertNotNull(other);
+            if (other.position < 4) break;
+
+            mission.releaseBlock(1, other, true);
+        }
+        assertEquals(3, block.getCount());
+
+        assertEquals(2 * BLOCK_SIZE + 10, mission.reserveBlock(block, 3 * BLOCK_SIZE));
+        assertEquals(0, mission.reserveBlock(block, BLOCK_SIZE));
+
+        mission.unreserveBlock(block, 10);
+        assertEquals(3 * BLOCK_SIZE - 10, block.getDone());
+    }
+
+    @Test
+    public void releaseFailsPendingSteal() {
+        mission.prepareBlocks(1);
+
+        final DownloadMission.Block block = mission.acquireBlock(0, 8);
+        assertNotNull(block);
+
+        // a thief loaded the state before the span was released
+        final long state = block.state.get();
+        mission.releaseBlock(0, block, false);
+
+        final long stolen = DownloadMission.Block.pack(DownloadMission.Block.count(state) - 2, 0);
+        assertFalse(block.state.compareAndSet(state, stolen));
+        assertEquals(8, block.getCount());
+    }
+
+    @Test
+    public void stealRacesRelease() throws Exception {
+        for (int round = 0; round < 2000; round++) {
+            setUp();
+            mission.prepareBlocks(2);
+
+            final DownloadMission.Block victim = mission.acquireBlock(0, BLOCK_COUNT);
+            assertNotNull(victim);
+            write(victim, 10);
+
+            // leave the victim as the only span that can be stolen
+            while (true) {
+                final DownloadMission.Block other = mission.acquireBlock(1, BLOCK_COUNT);
+                assertNotNull(other);
+                mission.releaseBlock(1, other, true);
+                if (other.position < BLOCK_COUNT / 2) break;
+            }
+
+            final CyclicBarrier barrier = new CyclicBarrier(2);
+            final Thread releaser = new Thread(() -> {
+                try {
+                    barrier.await();
+                } catch (final Exception e) {
+                    throw new RuntimeException(e);
+                }
+                mission.releaseBlock(0, victim, false);
+            });
+            releaser.start();
+            barrier.await();
+            final DownloadMission.Block thief = mission.acquireBlock(1, BLOCK_COUNT);
+            releaser.join();
+
+            // every block left must be downloaded exactly once
+            final boolean[] covered = new boolean[BLOCK_COUNT];
+            for (int i = 0; i < BLOCK_COUNT; i++) covered[i] = mission.blocks[i] == -1;
+            if (thief != null) cover(covered, thief, 1);
+
+            DownloadMission.Block block;
+            while ((block = mission.acquireBlock(0, 1)) != null) cover(covered, block, 0);
+
+            for (int i = 0; i < BLOCK_COUNT; i++) assertTrue("block " + i, covered[i]);
+        }
+    }
+
+    @Test
+    public void progressIsSampled() {
+        mission.prepareProgress();
+        mission.resetProgress(100);
+        assertEquals(100, mission.done);
+
+        mission.notifyProgress(0, 50);
+        mission.notifyProgress(1, 25);
+        assertEquals(100, mission.done);
+
+        assertEquals(175, mission.sampleProgress());
+        assertEquals(175, mission.sampleProgress());
+    }
+
+    @Test
+    public void noBlocksLeft() {
+        mission.blocks = new int[]{-1, -1};
+        assertEquals(0, mission.prepareBlocks(1));
+        assertNull(mission.acquireBlock(0, 1));
+    }
+
+    private void cover(final boolean[] covered, final DownloadMission.Block block, final int threadId) {
+        for (int i = 0; i < block.getCount(); i++) {
+            assertFalse("block " + (block.position + i) + " acquired twice", covered[block.position + i]);
+            covered[block.position + i] = true;
+        }
+        mission.releaseBlock(threadId, block, true);
+    }
+
+    private void write(final DownloadMission.Block block, final int amount) {
+        final int offset = block.getDone();
+        assertEquals(amount, mission.reserveBlock(block, amount));
+        mission.commitBlock(block, offset, amount);
+    }
+}
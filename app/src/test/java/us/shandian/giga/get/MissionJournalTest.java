@@ -0,0 +1,169 @@
+package us.shandian.giga.get;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import us.shandian.giga.util.Utility;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MissionJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private DownloadMission mission;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("1234");
+        mission = new DownloadMission(new String[]{"https://example.com/video"}, null, 'v', null);
+        mission.length = 10 * DownloadMission.BLOCK_SIZE;
+        mission.blocks = new int[10];
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws IOException {
+        mission.blocks[3] = -1;
+        mission.done = 1234;
+
+        new MissionJournal(file).writeSnapshot(mission);
+
+        final DownloadMission read = MissionJournal.read(file);
+        assertNotNull(read);
+        assertArrayEquals(mission.blocks, read.blocks);
+        assertEquals(1234, read.done);
+        assertEquals("https://example.com/video", read.urls[0]);
+    }
+
+    @Test
+    public void journalIsReplayed() throws IOException {
+        final MissionJournal journal = new MissionJournal(file);
+        journal.writeSnapshot(mission);
+        final long snapshotLength = file.length();
+
+        mission.blocks[0] = -1;
+        mission.blocks[1] = 100;
+        mission.done = DownloadMission.BLOCK_SIZE + 100;
+        mission.fallbackResumeOffset = 77;
+        journal.append(mission);
+
+        // only the changes are appended
+        assertEquals(snapshotLength + 4 * 13, file.length());
+
+        final DownloadMission read = MissionJournal.read(file);
+        assertNotNull(read);
+        assertArrayEquals(mission.blocks, read.blocks);
+        assertEquals(mission.done, read.done);
+        assertEquals(77, read.fallbackResumeOffset);
+
+        // nothing changed, nothing is written
+        read.journal.append(read);
+        assertEquals(snapshotLength + 4 * 13, file.length());
+    }
+
+    @Test
+    public void incompleteRecordIsIgnored() throws IOException {
+        final MissionJournal journal = new MissionJournal(file);
+        journal.writeSnapshot(mission);
+
+        mission.blocks[5] = -1;
+        journal.append(mission);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() + 5);
+        }
+
+        final DownloadMission read = MissionJournal.read(file);
+        assertNotNull(read);
+        assertEquals(-1, read.blocks[5]);
+    }
+
+    @Test
+    public void appendAfterIncompleteRecord() throws IOException {
+        final MissionJournal journal = new MissionJournal(file);
+        journal.writeSnapshot(mission);
+
+        mission.blocks[5] = -1;
+        journal.append(mission);
+        final long validLength = file.length();
+
+        // the process died while appending a record
+        try (FileOutputStream output = new FileOutputStream(file, true)) {
+            output.write(new byte[]{1, 0, 0, 0, 7});
+        }
+
+        final DownloadMission read = MissionJournal.read(file);
+        assertNotNull(read);
+        assertNotNull(read.journal);
+        assertEquals(validLength, file.length());
+
+        read.blocks[6] = -1;
+        read.done = 1234;
+        read.journal.append(read);
+
+        final DownloadMission replayed = MissionJournal.read(file);
+        assertNotNull(replayed);
+        assertArrayEquals(read.blocks, replayed.blocks);
+        assertEquals(1234, replayed.done);
+    }
+
+    @Test
+    public void journalIsCompacted() throws IOException {
+        mission.blocks = new int[2000];
+        final MissionJournal journal = new MissionJournal(file);
+        journal.writeSnapshot(mission);
+        final long snapshotLength = file.length();
+
+        for (int i = 0; i < mission.blocks.length; i++) {
+            mission.blocks[i] = -1;
+            journal.append(mission);
+        }
+
+        assertTrue(file.length() <= snapshotLength * 2 + 13);
+
+        final DownloadMission read = MissionJournal.read(file);
+        assertNotNull(read);
+        assertArrayEquals(mission.blocks, read.blocks);
+    }
+
+    @Test
+    public void legacyFileIsMigrated() throws IOException {
+        mission.blocks[2] = 42;
+        Utility.writeToFile(file, mission);
+
+        final DownloadMission read = MissionJournal.read(file);
+        assertNotNull(read);
+        assertNull(read.journal);
+        assertEquals(42, read.blocks[2]);
+
+        read.metadata = file;
+        read.blocks[4] = -1;
+        read.writeThisToFile();
+
+        final DownloadMission migrated = MissionJournal.read(file);
+        assertNotNull(migrated);
+        assertNotNull(migrated.journal);
+        assertArrayEquals(read.blocks, migrated.blocks);
+    }
+
+    @Test
+    public void garbageIsRejected() throws IOException {
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[]{0x47, 0x49, 0x47, 0x41, 0, 0, 0, 1, 0x7F, 0, 0, 0, 1, 2, 3});
+        }
+
+        assertNull(MissionJournal.read(file));
+    }
+}
@@ -0,0 +1,72 @@
+package us.shandian.giga.io;
+
+import com.systems.automaton.reeltube.streams.SrtFromTtmlDocumentWriter;
+import com.systems.automaton.reeltube.streams.SrtFromTtmlWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkFileInputStreamTest {
+    private static final String TTML = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+            + "<tt xmlns=\"http://www.w3.org/ns/ttml\"><body><div>\n"
+            + "<p begin=\"00:00:01.000\" end=\"00:00:02.500\">Hello   <br/>world</p>\n"
+            + "<p begin=\"00:00:03.000\" end=\"00:00:04.000\"></p>\n"
+            + "<p begin=\"00:00:05.000\" end=\"00:00:06.000\">A &amp; B<span>ignored</span></p>\n"
+            + "</div></body></tt>\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The chunk is in the middle of the file, like the subtitle of a download being processed
+     */
+    private ChunkFileInputStream chunkOf(byte[] data) throws IOException {
+        File file = folder.newFile();
+        byte[] padded = new byte[data.length + 20];
+        System.arraycopy(data, 0, padded, 10, data.length);
+        Files.write(file.toPath(), padded);
+
+        return new ChunkFileInputStream(new FileStream(file), 10, 10 + data.length, null);
+    }
+
+    @Test
+    public void endOfChunkIsReported() throws IOException {
+        ChunkFileInputStream chunk = chunkOf(new byte[]{1, 2, 3});
+        byte[] buffer = new byte[8];
+
+        assertEquals(3, chunk.read(buffer, 0, buffer.length));
+        assertEquals(-1, chunk.read(buffer, 0, buffer.length));
+        assertEquals(-1, chunk.read());
+        assertEquals(0, chunk.read(buffer, 0, 0));
+        assertTrue(chunk.isConsumed());
+    }
+
+    @Test
+    public void ttmlFromChunkMatchesDocumentConversion() throws Exception {
+        byte[] ttml = TTML.getBytes(StandardCharsets.UTF_8);
+
+        File streamed = folder.newFile();
+        try (FileStream out = new FileStream(streamed); ChunkFileInputStream in = chunkOf(ttml)) {
+            new SrtFromTtmlWriter(out, true).build(in);
+        }
+
+        File reference = folder.newFile();
+        try (FileStream out = new FileStream(reference); ChunkFileInputStream in = chunkOf(ttml)) {
+            new SrtFromTtmlDocumentWriter(out, true).build(in);
+        }
+
+        byte[] expected = Files.readAllBytes(reference.toPath());
+        assertTrue(expected.length > 0);
+        assertArrayEquals(expected, Files.readAllBytes(streamed.toPath()));
+    }
+}
@@ -0,0 +1,74 @@
+package us.shandian.giga.io;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircularFileWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File target;
+    private File temp;
+    private long limit;
+
+    @Before
+    public void setUp() throws IOException {
+        target = folder.newFile("target");
+        temp = new File(folder.getRoot(), "temp");
+
+        // the source being read, the output can only overwrite what was read
+        Files.write(target.toPath(), new byte[8 * 1024 * 1024]);
+        limit = 0;
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void leadIsKeptInMemory() throws IOException {
+        byte[] data = data(3 * 1024 * 1024);
+
+        CircularFileWriter out = new CircularFileWriter(new FileStream(target), temp, () -> limit);
+        out.write(data, 0, 1024 * 1024);// nothing read yet, everything goes ahead
+
+        limit = 2 * 1024 * 1024;
+        out.write(data, 1024 * 1024, 1024 * 1024);
+
+        limit = -1;
+        out.write(data, 2 * 1024 * 1024, 1024 * 1024);
+
+        assertEquals(data.length, out.finalizeFile());
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+        assertFalse(temp.exists());
+    }
+
+    @Test
+    public void bigLeadSpillsToTemporalFile() throws IOException {
+        byte[] data = data(6 * 1024 * 1024);
+
+        CircularFileWriter out = new CircularFileWriter(new FileStream(target), temp, () -> limit);
+        for (int i = 0; i < data.length; i += 512 * 1024) {
+            out.write(data, i, 512 * 1024);
+        }
+        assertTrue(temp.exists());
+
+        limit = -1;
+        assertEquals(data.length, out.finalizeFile());
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+    }
+}
@@ -0,0 +1,82 @@
+package us.shandian.giga.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MappedFileStreamTest {
+    private static final int WINDOW_SIZE = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Many more windows than the ones that can be mapped
+     */
+    private byte[] data() {
+        byte[] data = new byte[WINDOW_SIZE * 10 + 5];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i * 7);
+        return data;
+    }
+
+    private MappedFileStream open(byte[] data) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), data);
+        return new MappedFileStream(file, WINDOW_SIZE);
+    }
+
+    @Test
+    public void readPastTheMappedWindows() throws IOException {
+        byte[] data = data();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        try (MappedFileStream stream = open(data)) {
+            byte[] buffer = new byte[WINDOW_SIZE + 3];
+            int read;
+            while ((read = stream.read(buffer)) > 0) output.write(buffer, 0, read);
+
+            assertEquals(-1, stream.read());
+        }
+
+        assertArrayEquals(data, output.toByteArray());
+    }
+
+    @Test
+    public void readMappedPastTheMappedWindows() throws IOException {
+        byte[] data = data();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        try (MappedFileStream stream = open(data)) {
+            while (true) {
+                ByteBuffer buffer = stream.readMapped(WINDOW_SIZE / 2 + 1);
+                if (!buffer.hasRemaining()) break;
+
+                while (buffer.hasRemaining()) output.write(buffer.get());
+            }
+        }
+
+        assertArrayEquals(data, output.toByteArray());
+    }
+
+    @Test
+    public void seekBackAfterTheMappedWindows() throws IOException {
+        byte[] data = data();
+
+        try (MappedFileStream stream = open(data)) {
+            stream.seek(data.length - 1);
+            assertEquals(data[data.length - 1] & 0xFF, stream.read());
+
+            stream.seek(1);
+            assertEquals(data[1] & 0xFF, stream.read());
+        }
+    }
+}
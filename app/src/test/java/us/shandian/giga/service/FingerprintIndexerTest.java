@@ -0,0 +1,93 @@
+package us.shandian.giga.service;
+
+import com.systems.automaton.reeltube.streams.io.StoredFileHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.schabi.newpipe.extractor.MediaFormat;
+
+import us.shandian.giga.get.DownloadMission;
+import us.shandian.giga.get.FinishedMission;
+import us.shandian.giga.get.MissionRecoveryInfo;
+import us.shandian.giga.get.sqlite.FinishedMissionStore;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+public class FingerprintIndexerTest {
+    private static final String SOURCE = "https://example.com/watch?v=1";
+
+    private FingerprintIndexer indexer;
+    private int files = 0;
+
+    @Before
+    public void setUp() {
+        indexer = new FingerprintIndexer(mock(FinishedMissionStore.class));
+    }
+
+    private StoredFileHelper file() {
+        return new StoredFileHelper(null, "video" + (++files) + ".mp4", "video/mp4", "");
+    }
+
+    private DownloadMission mission(String source, String resolution) {
+        DownloadMission mission = new DownloadMission(new String[]{"https://example.com/file"}, file(), 'v', null);
+        mission.source = source;
+        mission.recoveryInfo = new MissionRecoveryInfo[]{
+                new MissionRecoveryInfo(MediaFormat.MPEG_4, resolution, false, 0, 'v', null)
+        };
+        return mission;
+    }
+
+    private FinishedMission finished(DownloadMission mission) {
+        FinishedMission finished = new FinishedMission(mission);
+        finished.storage = file();
+        finished.fingerprint = "fingerprint";
+        return finished;
+    }
+
+    @Test
+    public void sameSourceAndVariantIsDuplicated() {
+        FinishedMission finished = finished(mission(SOURCE, "720p"));
+        indexer.add(finished);
+
+        assertSame(finished, indexer.findDuplicate(mission(SOURCE, "720p")));
+        assertNull(indexer.findDuplicate(mission(SOURCE, "1080p")));
+        assertNull(indexer.findDuplicate(mission(SOURCE + "2", "720p")));
+    }
+
+    @Test
+    public void notFingerprintedIsNotDuplicated() {
+        FinishedMission finished = finished(mission(SOURCE, "720p"));
+        indexer.add(finished);
+        finished.fingerprint = null;// as if the background indexer was still running
+
+        assertNull(indexer.findDuplicate(mission(SOURCE, "720p")));
+    }
+
+    @Test
+    public void sameFileIsNotDuplicated() {
+        DownloadMission mission = mission(SOURCE, "720p");
+        FinishedMission finished = finished(mission);
+        finished.storage = mission.storage;
+        indexer.add(finished);
+
+        assertNull(indexer.findDuplicate(mission));
+    }
+
+    @Test
+    public void removedIsNotDuplicated() {
+        FinishedMission older = finished(mission(SOURCE, "720p"));
+        FinishedMission newer = finished(mission(SOURCE, "720p"));
+        indexer.add(older);
+        indexer.add(newer);
+
+        assertSame(newer, indexer.findDuplicate(mission(SOURCE, "720p")));
+
+        indexer.remove(older);
+        assertSame(newer, indexer.findDuplicate(mission(SOURCE, "720p")));
+
+        indexer.remove(newer);
+        assertNull(indexer.findDuplicate(mission(SOURCE, "720p")));
+    }
+}
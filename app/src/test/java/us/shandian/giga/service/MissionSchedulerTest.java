@@ -0,0 +1,123 @@
+package us.shandian.giga.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import us.shandian.giga.get.DownloadMission;
+import us.shandian.giga.postprocessing.Postprocessing;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MissionSchedulerTest {
+    private MissionScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new MissionScheduler();
+    }
+
+    private static DownloadMission mission(long timestamp, int threads) {
+        DownloadMission mission = new DownloadMission(new String[]{"https://example.com/" + timestamp}, null, 'v', null);
+        mission.timestamp = timestamp;
+        mission.threadCount = threads;
+        return mission;
+    }
+
+    private DownloadMission start() {
+        DownloadMission mission = scheduler.poll();
+        if (mission != null) mission.running = true;
+        return mission;
+    }
+
+    @Test
+    public void highestPriorityThenOldestFirst() {
+        DownloadMission newer = mission(3, 1);
+        DownloadMission older = mission(1, 1);
+        DownloadMission urgent = mission(2, 1);
+        urgent.priority = DownloadMission.PRIORITY_HIGH;
+
+        scheduler.setLimits(1, 16);
+        scheduler.enqueue(newer);
+        scheduler.enqueue(older);
+        scheduler.enqueue(urgent);
+
+        assertSame(urgent, start());
+        assertNull(start());
+
+        urgent.running = false;// paused or failed
+        assertSame(older, start());
+    }
+
+    @Test
+    public void threadsAreLimited() {
+        DownloadMission big = mission(1, 6);
+        DownloadMission small = mission(2, 4);
+
+        scheduler.setLimits(4, 8);
+        scheduler.enqueue(big);
+        scheduler.enqueue(small);
+
+        assertSame(big, start());
+        assertNull(start());
+
+        big.running = false;
+        assertSame(small, start());
+    }
+
+    @Test
+    public void tooManyThreadsStartAlone() {
+        DownloadMission mission = mission(1, 32);
+
+        scheduler.setLimits(4, 8);
+        scheduler.enqueue(mission);
+
+        assertSame(mission, start());
+    }
+
+    @Test
+    public void postProcessingFreesTheSlot() {
+        DownloadMission first = mission(1, 1);
+        DownloadMission second = mission(2, 1);
+        first.psAlgorithm = Postprocessing.getAlgorithm(Postprocessing.ALGORITHM_TTML_CONVERTER, null);
+
+        scheduler.setLimits(1, 16);
+        scheduler.enqueue(first);
+        scheduler.enqueue(second);
+
+        assertSame(first, start());
+        assertNull(start());
+
+        first.psState = 1;
+        assertSame(second, start());
+    }
+
+    @Test
+    public void pausedAndDeletedMissionsAreSkipped() {
+        DownloadMission paused = mission(1, 1);
+        DownloadMission deleted = mission(2, 1);
+        DownloadMission queued = mission(3, 1);
+        paused.enqueued = false;
+
+        scheduler.enqueue(paused);
+        scheduler.enqueue(deleted);
+        scheduler.enqueue(queued);
+        scheduler.remove(deleted);
+
+        assertSame(queued, start());
+        assertNull(start());
+    }
+
+    @Test
+    public void missionsStartedByTheUserAreCounted() {
+        DownloadMission resumed = mission(2, 1);
+        DownloadMission queued = mission(1, 1);
+
+        scheduler.setLimits(1, 16);
+        scheduler.enqueue(queued);
+        scheduler.admit(resumed);
+        resumed.running = true;
+
+        assertNull(start());
+    }
+}
@@ -0,0 +1,46 @@
+package us.shandian.giga.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+        Histogram histogram = new Histogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void valuesArePowerOfTwoBuckets() {
+        Histogram histogram = new Histogram();
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(5);
+        histogram.record(7);
+
+        long[] buckets = histogram.getBuckets();
+        assertEquals(1, buckets[0]);
+        assertEquals(1, buckets[1]);
+        assertEquals(2, buckets[3]);
+        assertEquals(7, Histogram.upperBound(3));
+    }
+
+    @Test
+    public void percentilesAreBucketBounds() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 90; i++) histogram.record(10);// bucket [8, 16)
+        for (int i = 0; i < 10; i++) histogram.record(1000);// bucket [512, 1024)
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(109, histogram.getMean());
+        assertEquals(15, histogram.getPercentile(0.5));
+        assertEquals(15, histogram.getPercentile(0.9));
+        assertEquals(1000, histogram.getPercentile(0.99));// never above the maximum
+        assertEquals(1000, histogram.getMax());
+    }
+}
@@ -0,0 +1,74 @@
+package us.shandian.giga.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenBucketTest {
+    private static final long SECOND = 1000000000L;
+
+    private long now;
+    private TokenBucket bucket;
+
+    @Before
+    public void setUp() {
+        now = 0;
+        bucket = new TokenBucket() {
+            @Override
+            long nanoTime() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void unlimitedNeverWaits() {
+        bucket.take(Long.MAX_VALUE / 2);
+        assertEquals(0, bucket.getWaitNanos());
+    }
+
+    @Test
+    public void burstIsFree() {
+        bucket.setRate(1024 * 1024);
+
+        bucket.take(1024 * 1024);
+        assertEquals(0, bucket.getWaitNanos());
+    }
+
+    @Test
+    public void debtIsPaidOverTime() {
+        bucket.setRate(1024 * 1024);
+
+        bucket.take(3 * 1024 * 1024);// one second of burst, two seconds of debt
+        assertEquals(2 * SECOND, bucket.getWaitNanos());
+
+        now += SECOND;
+        assertEquals(SECOND, bucket.getWaitNanos());
+
+        now += SECOND;
+        assertEquals(0, bucket.getWaitNanos());
+    }
+
+    @Test
+    public void refillIsCappedByBurst() {
+        bucket.setRate(1024 * 1024);
+
+        now += 10 * SECOND;
+        bucket.take(2 * 1024 * 1024);
+        assertEquals(SECOND, bucket.getWaitNanos());
+    }
+
+    @Test
+    public void rateChangeAppliesToDebt() {
+        bucket.setRate(1024 * 1024);
+        bucket.take(2 * 1024 * 1024);
+        assertEquals(SECOND, bucket.getWaitNanos());
+
+        bucket.setRate(2 * 1024 * 1024);
+        assertEquals(SECOND / 2, bucket.getWaitNanos());
+
+        bucket.setRate(0);
+        assertEquals(0, bucket.getWaitNanos());
+    }
+}
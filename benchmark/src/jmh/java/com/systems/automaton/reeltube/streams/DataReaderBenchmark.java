@@ -0,0 +1,75 @@
+package com.systems.automaton.reeltube.streams;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The primitive reads and the bulk transfers of {@link DataReader}, used by all the demuxers.
+ * Here a sample is an int read or a transfer of {@link #TRANSFER_SIZE} bytes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class DataReaderBenchmark {
+    private static final int TRANSFER_SIZE = 4096;
+
+    private Fixtures.Fixture ints;
+    private Fixtures.Fixture transfers;
+
+    private MemoryStream source;
+    private MemoryStream output;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final byte[] data = Fixtures.get().mp4Video.data;
+
+        ints = new Fixtures.Fixture(data, data.length / DataReader.INTEGER_SIZE);
+        transfers = new Fixtures.Fixture(data, data.length / TRANSFER_SIZE);
+
+        source = new MemoryStream(data);
+        output = new MemoryStream(data.length);
+    }
+
+    @Benchmark
+    public int readInt(final Throughput throughput, final Memory memory) throws IOException {
+        memory.begin();
+
+        source.rewind();
+        final DataReader reader = new DataReader(source);
+
+        int value = 0;
+        for (int i = 0; i < ints.samples; i++) {
+            value ^= reader.readInt();
+        }
+
+        memory.end(ints.samples);
+        throughput.add(ints);
+
+        return value;
+    }
+
+    @Benchmark
+    public void transferTo(final Throughput throughput, final Memory memory) throws IOException {
+        memory.begin();
+
+        source.rewind();
+        output.reset();
+        final DataReader reader = new DataReader(source);
+
+        for (int i = 0; i < transfers.samples; i++) {
+            reader.transferTo(output, TRANSFER_SIZE);
+        }
+
+        memory.end(transfers.samples);
+        throughput.add(transfers);
+    }
+}
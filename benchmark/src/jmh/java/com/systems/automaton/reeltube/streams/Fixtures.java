@@ -0,0 +1,365 @@
+package com.systems.automaton.reeltube.streams;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Synthetic inputs for the benchmarks, laid out like the streams served by YouTube (fragmented
+ * MP4 and WebM with a single track per file). The content is random but deterministic, so all
+ * the runs measure the same work.
+ */
+final class Fixtures {
+    static final int VIDEO_TIMESCALE = 90000;
+    static final int AUDIO_TIMESCALE = 44100;
+
+    private static final int VIDEO_FRAGMENTS = 120;
+    private static final int VIDEO_SAMPLES_PER_FRAGMENT = 30;
+    private static final int AUDIO_FRAGMENTS = 120;
+    private static final int AUDIO_SAMPLES_PER_FRAGMENT = 43;
+
+    private static final int WEBM_VIDEO_FRAMES = 3600; // 2 minutes at 30fps
+    private static final int WEBM_AUDIO_FRAMES = 6000; // 2 minutes of 20ms frames
+    private static final int WEBM_CLUSTER_MILLIS = 5000;
+
+    private static final int TTML_CUES = 20000;
+
+    private static Fixtures instance;
+
+    final Fixture mp4Video;
+    final Fixture mp4Audio;
+    final Fixture webmVideo;
+    final Fixture webmAudio;
+    final Fixture ttml;
+
+    private Fixtures() {
+        mp4Video = makeMp4(true, VIDEO_FRAGMENTS, VIDEO_SAMPLES_PER_FRAGMENT, 1);
+        mp4Audio = makeMp4(false, AUDIO_FRAGMENTS, AUDIO_SAMPLES_PER_FRAGMENT, 2);
+        webmVideo = makeWebM(true, WEBM_VIDEO_FRAMES, 3);
+        webmAudio = makeWebM(false, WEBM_AUDIO_FRAMES, 4);
+        ttml = makeTtml(TTML_CUES);
+    }
+
+    /**
+     * @return the fixtures, generated on the first call
+     */
+    static synchronized Fixtures get() {
+        if (instance == null) {
+            instance = new Fixtures();
+        }
+        return instance;
+    }
+
+    static final class Fixture {
+        final byte[] data;
+        final int samples;
+
+        Fixture(final byte[] data, final int samples) {
+            this.data = data;
+            this.samples = samples;
+        }
+    }
+
+    /*
+     * Fragmented MP4, one moof+mdat per fragment. The video has composition offsets and a
+     * keyframe every 10 samples, the audio uses the default sample duration of the tfhd box.
+     */
+
+    private static Fixture makeMp4(final boolean video, final int fragments, final int samples,
+                                   final long seed) {
+        final Random random = new Random(seed);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(8 * 1024 * 1024);
+        final byte[] handler = ascii(video ? "vide" : "soun");
+
+        out.writeBytes(box("ftyp", ascii("dash"), ints(0), ascii("iso6mp41")));
+
+        final byte[] mvhd = fullBox("mvhd", 0, 0, ints(0, 0, 1000, 0, 0x10000),
+                shorts(0x100), new byte[10 + 36 + 24], ints(2));
+        final byte[] tkhd = fullBox("tkhd", 0, 3, ints(0, 0, 1, 0, 0), new byte[8],
+                shorts(0, 0, video ? 0 : 0x100, 0), new byte[36], ints(640 << 16, 360 << 16));
+        final byte[] mdhd = fullBox("mdhd", 0, 0,
+                ints(0, 0, video ? VIDEO_TIMESCALE : AUDIO_TIMESCALE, 0), shorts(0x55c4, 0));
+        final byte[] hdlr = fullBox("hdlr", 0, 0, ints(0), handler, new byte[12], ascii("name\0"));
+        final byte[] mhd = video ? fullBox("vmhd", 0, 1, new byte[8])
+                : fullBox("smhd", 0, 0, new byte[4]);
+        final byte[] dinf = box("dinf",
+                fullBox("dref", 0, 0, ints(1), fullBox("url ", 0, 1)));
+        final byte[] stsd = fullBox("stsd", 0, 0, ints(1),
+                box(video ? "avc1" : "mp4a", new byte[70]));
+        final byte[] stbl = box("stbl", stsd, fullBox("stts", 0, 0, ints(0)),
+                fullBox("stsc", 0, 0, ints(0)), fullBox("stsz", 0, 0, ints(0, 0)),
+                fullBox("stco", 0, 0, ints(0)));
+        final byte[] trak = box("trak", tkhd,
+                box("mdia", mdhd, hdlr, box("minf", mhd, dinf, stbl)));
+        final byte[] trex = fullBox("trex", 0, 0, ints(1, 1, 0, 0, 0));
+
+        out.writeBytes(box("moov", mvhd, trak, box("mvex", trex)));
+
+        long time = 0;
+        for (int f = 0; f < fragments; f++) {
+            final int[] sizes = new int[samples];
+            int total = 0;
+            for (int i = 0; i < samples; i++) {
+                sizes[i] = video ? 200 + random.nextInt(8800) : 351 + random.nextInt(41);
+                total += sizes[i];
+            }
+
+            final byte[] tfhd;
+            final int trunFlags;
+            final ByteBuffer rows;
+            if (video) {
+                tfhd = fullBox("tfhd", 0, 0, ints(1));
+                trunFlags = 0x0001 | 0x0100 | 0x0200 | 0x0400 | 0x0800;
+                rows = ByteBuffer.allocate(samples * 16);
+                for (int i = 0; i < samples; i++) {
+                    rows.putInt(3000).putInt(sizes[i]).putInt(i % 10 == 0 ? 0 : 0x10000)
+                            .putInt(3000 * random.nextInt(3));
+                }
+            } else {
+                tfhd = fullBox("tfhd", 0, 0x08 | 0x20, ints(1, 1024, 0));
+                trunFlags = 0x0001 | 0x0200;
+                rows = ByteBuffer.allocate(samples * 4);
+                for (int i = 0; i < samples; i++) {
+                    rows.putInt(sizes[i]);
+                }
+            }
+
+            final byte[] tfdt = fullBox("tfdt", 1, 0, longs(time));
+            time += samples * 3000L;
+
+            final byte[] mfhd = fullBox("mfhd", 0, 0, ints(f + 1));
+            byte[] moof = null;
+            for (int pass = 0; pass < 2; pass++) {
+                // the data offset is relative to the moof, the first pass gets the moof size
+                final int dataOffset = moof == null ? 0 : moof.length + 8;
+                moof = box("moof", mfhd, box("traf", tfhd, tfdt,
+                        fullBox("trun", 0, trunFlags, ints(samples, dataOffset), rows.array())));
+            }
+
+            final byte[] data = new byte[total];
+            random.nextBytes(data);
+
+            out.writeBytes(moof);
+            out.writeBytes(box("mdat", data));
+        }
+
+        return new Fixture(out.toByteArray(), fragments * samples);
+    }
+
+    private static byte[] box(final String type, final byte[]... content) {
+        int size = 8;
+        for (final byte[] part : content) {
+            size += part.length;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(size).put(ascii(type));
+        for (final byte[] part : content) {
+            buffer.put(part);
+        }
+
+        return buffer.array();
+    }
+
+    private static byte[] fullBox(final String type, final int version, final int flags,
+                                  final byte[]... content) {
+        final byte[][] parts = new byte[content.length + 1][];
+        parts[0] = ints((version << 24) | flags);
+        System.arraycopy(content, 0, parts, 1, content.length);
+        return box(type, parts);
+    }
+
+    /*
+     * WebM with a single track, a VP9 video with a keyframe every second or an Opus audio. The
+     * sizes of the elements are encoded with the shortest length, like the muxers do.
+     */
+
+    private static Fixture makeWebM(final boolean video, final int frames, final long seed) {
+        final Random random = new Random(seed);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(8 * 1024 * 1024);
+        final int frameMillis = video ? 33 : 20;
+
+        out.writeBytes(element(0x1A45DFA3, // EBML
+                element(0x4286, uint(1)), // EBMLVersion
+                element(0x42F7, uint(1)), // EBMLReadVersion
+                element(0x42F2, uint(4)), // EBMLMaxIDLength
+                element(0x42F3, uint(8)), // EBMLMaxSizeLength
+                element(0x4282, ascii("webm")), // DocType
+                element(0x4287, uint(4)), // DocTypeVersion
+                element(0x4285, uint(2)) // DocTypeReadVersion
+        ));
+
+        final byte[] info = element(0x1549A966, // Info
+                element(0x2AD7B1, uint(1000000)) // TimecodeScale
+        );
+
+        final byte[] track;
+        if (video) {
+            track = element(0xAE, // TrackEntry
+                    element(0xD7, uint(1)), // TrackNumber
+                    element(0x83, uint(1)), // TrackType
+                    element(0x9C, uint(0)), // FlagLacing
+                    element(0x86, ascii("V_VP9")), // CodecID
+                    element(0x23E383, uint(frameMillis * 1000000L)), // DefaultDuration
+                    element(0xE0, // Video
+                            element(0xB0, uint(640)), // PixelWidth
+                            element(0xBA, uint(360)) // PixelHeight
+                    ));
+        } else {
+            final byte[] opusHead = ByteBuffer.allocate(19)
+                    .put(ascii("OpusHead")).put((byte) 1).put((byte) 2)
+                    .putShort(Short.reverseBytes((short) 312))
+                    .putInt(Integer.reverseBytes(48000))
+                    .array();
+            track = element(0xAE, // TrackEntry
+                    element(0xD7, uint(1)), // TrackNumber
+                    element(0x83, uint(2)), // TrackType
+                    element(0x9C, uint(0)), // FlagLacing
+                    element(0x86, ascii("A_OPUS")), // CodecID
+                    element(0x63A2, opusHead), // CodecPrivate
+                    element(0x56AA, uint(6500000)), // CodecDelay
+                    element(0x56BB, uint(80000000)), // SeekPreRoll
+                    element(0xE1, // Audio
+                            element(0xB5, ByteBuffer.allocate(4).putFloat(48000f).array()),
+                            element(0x9F, uint(2)) // Channels
+                    ));
+        }
+
+        final ByteArrayOutputStream clusters = new ByteArrayOutputStream(8 * 1024 * 1024);
+        final ByteArrayOutputStream blocks = new ByteArrayOutputStream(1024 * 1024);
+        long clusterTime = 0;
+
+        for (int i = 0; i < frames; i++) {
+            final long time = (long) i * frameMillis;
+            if (time - clusterTime >= WEBM_CLUSTER_MILLIS) {
+                clusters.writeBytes(cluster(clusterTime, blocks.toByteArray()));
+                blocks.reset();
+                clusterTime = time;
+            }
+
+            final int size = video ? 200 + random.nextInt(8800) : 100 + random.nextInt(300);
+            final boolean keyframe = !video || i % 30 == 0;
+            final ByteBuffer block = ByteBuffer.allocate(4 + size);
+            block.put((byte) 0x81); // track number
+            block.putShort((short) (time - clusterTime));
+            block.put((byte) (keyframe ? 0x80 : 0x00));
+
+            final byte[] data = new byte[size];
+            random.nextBytes(data);
+            block.put(data);
+
+            blocks.writeBytes(element(0xA3, block.array())); // SimpleBlock
+        }
+        clusters.writeBytes(cluster(clusterTime, blocks.toByteArray()));
+
+        out.writeBytes(element(0x18538067, // Segment
+                info,
+                element(0x1654AE6B, track), // Tracks
+                clusters.toByteArray()
+        ));
+
+        return new Fixture(out.toByteArray(), frames);
+    }
+
+    private static byte[] cluster(final long timecode, final byte[] blocks) {
+        return element(0x1F43B675, element(0xE7, uint(timecode)), blocks);
+    }
+
+    private static byte[] element(final int id, final byte[]... content) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long size = 0;
+        for (final byte[] part : content) {
+            size += part.length;
+        }
+
+        // the id keeps the length marker
+        final int idLength = 4 - (Integer.numberOfLeadingZeros(id) / 8);
+        for (int i = idLength - 1; i >= 0; i--) {
+            out.write(id >>> (i * 8));
+        }
+
+        int sizeLength = 1;
+        while (size >= (1L << (7 * sizeLength)) - 1) {
+            sizeLength++;
+        }
+        final long marked = size | (1L << (7 * sizeLength));
+        for (int i = sizeLength - 1; i >= 0; i--) {
+            out.write((int) (marked >>> (i * 8)));
+        }
+
+        for (final byte[] part : content) {
+            out.writeBytes(part);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static byte[] uint(final long value) {
+        int length = 1;
+        while (length < 8 && (value >>> (length * 8)) != 0) {
+            length++;
+        }
+
+        final byte[] buffer = new byte[length];
+        for (int i = 0; i < length; i++) {
+            buffer[i] = (byte) (value >>> ((length - 1 - i) * 8));
+        }
+
+        return buffer;
+    }
+
+    /*
+     * TTML subtitles as served by YouTube, a paragraph per cue with a line break
+     */
+
+    private static Fixture makeTtml(final int cues) {
+        final StringBuilder ttml = new StringBuilder(cues * 120);
+        ttml.append("<?xml version=\"1.0\" encoding=\"utf-8\" ?>")
+                .append("<tt xml:lang=\"en\" xmlns=\"http://www.w3.org/ns/ttml\"><body><div>");
+
+        for (int i = 0; i < cues; i++) {
+            ttml.append("<p begin=\"").append(timestamp(i * 2000L))
+                    .append("\" end=\"").append(timestamp(i * 2000L + 1800))
+                    .append("\">cue number ").append(i)
+                    .append(" first line<br/>and the second line</p>");
+        }
+
+        ttml.append("</div></body></tt>");
+
+        return new Fixture(ttml.toString().getBytes(StandardCharsets.UTF_8), cues);
+    }
+
+    private static String timestamp(final long millis) {
+        return String.format("%02d:%02d:%02d.%03d", millis / 3600000, (millis / 60000) % 60,
+                (millis / 1000) % 60, millis % 1000);
+    }
+
+    private static byte[] ascii(final String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] ints(final int... values) {
+        final ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        for (final int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] shorts(final int... values) {
+        final ByteBuffer buffer = ByteBuffer.allocate(values.length * 2);
+        for (final int value : values) {
+            buffer.putShort((short) value);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] longs(final long... values) {
+        final ByteBuffer buffer = ByteBuffer.allocate(values.length * 8);
+        for (final long value : values) {
+            buffer.putLong(value);
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,81 @@
+package com.systems.automaton.reeltube.streams;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+
+/**
+ * Secondary results about the memory used by the benchmarked code. The allocations are measured
+ * on the benchmark thread only (requires a HotSpot based JVM), the peak heap is the sum of the
+ * peak usage of every heap pool since the iteration started, so includes the fixtures.
+ * <p>
+ * JMH sums these counters over all the measurement iterations, so every iteration reports its
+ * share and the printed values are the mean of the iterations.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class Memory {
+    private static final com.sun.management.ThreadMXBean THREADS
+            = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final List<MemoryPoolMXBean> POOLS = ManagementFactory.getMemoryPoolMXBeans();
+
+    /**
+     * Bytes allocated per sample on average
+     */
+    public double allocatedBytesPerSample;
+
+    /**
+     * Peak heap usage in MiB
+     */
+    public double peakHeapMiB;
+
+    private double share;
+    private long threadId;
+    private long allocatedBefore;
+    private long allocated;
+    private long samples;
+
+    @Setup(Level.Iteration)
+    public void clean(final BenchmarkParams params) {
+        share = 1d / (Math.max(params.getForks(), 1) * params.getMeasurement().getCount());
+        threadId = Thread.currentThread().getId();
+        allocatedBytesPerSample = 0;
+        peakHeapMiB = 0;
+        allocated = 0;
+        samples = 0;
+
+        for (final MemoryPoolMXBean pool : POOLS) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    void begin() {
+        allocatedBefore = THREADS.getThreadAllocatedBytes(threadId);
+    }
+
+    void end(final int processedSamples) {
+        allocated += THREADS.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        samples += processedSamples;
+
+        // the last value of the iteration is reported, see the class description
+        allocatedBytesPerSample = share * allocated / samples;
+
+        long peak = 0;
+        for (final MemoryPoolMXBean pool : POOLS) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        peakHeapMiB = share * peak / (1024d * 1024d);
+    }
+}
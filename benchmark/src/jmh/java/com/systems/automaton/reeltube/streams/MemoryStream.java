@@ -0,0 +1,151 @@
+package com.systems.automaton.reeltube.streams;
+
+import com.systems.automaton.reeltube.streams.io.SharpStream;
+
+import java.util.Arrays;
+
+/**
+ * Seekable {@link SharpStream} backed by a byte array, the benchmarks must not measure the
+ * storage. The buffer grows on writes and is kept after {@link #reset()}, so the output of the
+ * muxers is not reallocated on every operation.
+ */
+final class MemoryStream extends SharpStream {
+    private byte[] buffer;
+    private int length;
+    private int position;
+
+    /**
+     * Creates a readable stream
+     *
+     * @param data the content, is not copied
+     */
+    MemoryStream(final byte[] data) {
+        buffer = data;
+        length = data.length;
+    }
+
+    /**
+     * Creates an empty stream
+     *
+     * @param capacity initial capacity
+     */
+    MemoryStream(final int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * Discards the content, keeping the buffer
+     */
+    void reset() {
+        length = 0;
+        position = 0;
+    }
+
+    @Override
+    public int read() {
+        return position < length ? buffer[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(final byte[] b) {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(final byte[] b, final int offset, final int count) {
+        if (position >= length) {
+            return -1;
+        }
+
+        final int amount = Math.min(count, length - position);
+        System.arraycopy(buffer, position, b, offset, amount);
+        position += amount;
+
+        return amount;
+    }
+
+    @Override
+    public long skip(final long amount) {
+        final long skip = Math.max(0, Math.min(amount, length - position));
+        position += (int) skip;
+        return skip;
+    }
+
+    @Override
+    public long available() {
+        return length - position;
+    }
+
+    @Override
+    public void rewind() {
+        position = 0;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        // nothing to do, the fixtures are reused
+    }
+
+    @Override
+    public boolean canRewind() {
+        return true;
+    }
+
+    @Override
+    public boolean canRead() {
+        return true;
+    }
+
+    @Override
+    public boolean canWrite() {
+        return true;
+    }
+
+    @Override
+    public boolean canSeek() {
+        return true;
+    }
+
+    @Override
+    public void write(final byte value) {
+        ensureCapacity(position + 1);
+        buffer[position++] = value;
+        length = Math.max(length, position);
+    }
+
+    @Override
+    public void write(final byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(final byte[] b, final int offset, final int count) {
+        ensureCapacity(position + count);
+        System.arraycopy(b, offset, buffer, position, count);
+        position += count;
+        length = Math.max(length, position);
+    }
+
+    @Override
+    public void seek(final long offset) {
+        ensureCapacity((int) offset);
+        position = (int) offset;
+        length = Math.max(length, position);
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.systems.automaton.reeltube.streams;
+
+import com.systems.automaton.reeltube.streams.Mp4DashReader.Mp4DashChunk;
+import com.systems.automaton.reeltube.streams.Mp4DashReader.TrunEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fragmented MP4 (DASH) demuxing and muxing, done for every video downloaded as MP4 and for
+ * every M4A audio
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class Mp4Benchmark {
+    private Fixtures.Fixture video;
+    private Fixtures.Fixture audio;
+
+    private MemoryStream videoStream;
+    private MemoryStream audioStream;
+    private MemoryStream output;
+
+    private final TrunEntry info = new TrunEntry();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        video = Fixtures.get().mp4Video;
+        audio = Fixtures.get().mp4Audio;
+
+        videoStream = new MemoryStream(video.data);
+        audioStream = new MemoryStream(audio.data);
+        output = new MemoryStream(video.data.length + audio.data.length + 1024 * 1024);
+    }
+
+    @Benchmark
+    public void demux(final Throughput throughput, final Memory memory) throws IOException {
+        memory.begin();
+
+        videoStream.rewind();
+        output.reset();
+
+        final Mp4DashReader reader = new Mp4DashReader(videoStream);
+        reader.parse();
+        reader.selectTrack(0);
+
+        Mp4DashChunk chunk;
+        while ((chunk = reader.getNextChunk(false)) != null) {
+            while (chunk.getNextSampleInfo(info)) {
+                chunk.transferSample(info, output);
+            }
+        }
+
+        memory.end(video.samples);
+        throughput.add(video);
+    }
+
+    @Benchmark
+    public void mux(final Throughput throughput, final Memory memory) throws IOException {
+        memory.begin();
+
+        videoStream.rewind();
+        audioStream.rewind();
+        output.reset();
+
+        final Mp4FromDashWriter muxer = new Mp4FromDashWriter(videoStream, audioStream);
+        muxer.parseSources();
+        muxer.selectTracks(0, 0);
+        muxer.build(output);
+
+        memory.end(video.samples + audio.samples);
+        throughput.add(video);
+        throughput.add(audio);
+    }
+
+    @Benchmark
+    public void muxAudio(final Throughput throughput, final Memory memory) throws IOException {
+        memory.begin();
+
+        audioStream.rewind();
+        output.reset();
+
+        final Mp4FromDashWriter muxer = new Mp4FromDashWriter(audioStream);
+        muxer.setMainBrand(0x4D344120); // "M4A "
+        muxer.parseSources();
+        muxer.selectTracks(0);
+        muxer.build(output);
+
+        memory.end(audio.samples);
+        throughput.add(audio);
+    }
+}
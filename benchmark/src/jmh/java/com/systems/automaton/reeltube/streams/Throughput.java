@@ -0,0 +1,35 @@
+package com.systems.automaton.reeltube.streams;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary results reported as a rate, JMH divides the public fields by the iteration time
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+    /**
+     * Megabytes of input processed, reported as MB/s
+     */
+    public double megabytes;
+
+    /**
+     * Samples (frames, blocks or subtitle cues) processed, reported as samples/s
+     */
+    public long samples;
+
+    @Setup(Level.Iteration)
+    public void clean() {
+        megabytes = 0;
+        samples = 0;
+    }
+
+    void add(final Fixtures.Fixture fixture) {
+        megabytes += fixture.data.length / 1e6;
+        samples += fixture.samples;
+    }
+}
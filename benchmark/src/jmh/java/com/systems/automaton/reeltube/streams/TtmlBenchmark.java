@@ -0,0 +1,63 @@
+package com.systems.automaton.reeltube.streams;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TTML to SRT conversion of the downloaded subtitles
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class TtmlBenchmark {
+    private Fixtures.Fixture ttml;
+
+    private MemoryStream source;
+    private MemoryStream output;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ttml = Fixtures.get().ttml;
+
+        source = new MemoryStream(ttml.data);
+        output = new MemoryStream(ttml.data.length);
+    }
+
+    @Benchmark
+    public void srtFromTtml(final Throughput throughput, final Memory memory)
+            throws IOException, XmlPullParserException {
+        memory.begin();
+
+        source.rewind();
+        output.reset();
+
+        new SrtFromTtmlWriter(output, false).build(source);
+
+        memory.end(ttml.samples);
+        throughput.add(ttml);
+    }
+
+    @Benchmark
+    public void srtFromTtmlDocument(final Throughput throughput, final Memory memory)
+            throws IOException {
+        memory.begin();
+
+        source.rewind();
+        output.reset();
+
+        new SrtFromTtmlDocumentWriter(output, false).build(source);
+
+        memory.end(ttml.samples);
+        throughput.add(ttml);
+    }
+}
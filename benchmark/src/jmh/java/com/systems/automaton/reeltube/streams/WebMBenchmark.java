@@ -0,0 +1,125 @@
+package com.systems.automaton.reeltube.streams;
+
+import com.systems.automaton.reeltube.streams.WebMReader.Cluster;
+import com.systems.automaton.reeltube.streams.WebMReader.Segment;
+import com.systems.automaton.reeltube.streams.WebMReader.SimpleBlock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebM demuxing and muxing, and the WebM to Ogg conversion done for every Opus audio
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class WebMBenchmark {
+    private Fixtures.Fixture video;
+    private Fixtures.Fixture audio;
+
+    private MemoryStream videoStream;
+    private MemoryStream audioStream;
+    private MemoryStream output;
+
+    private final byte[] blockBuffer = new byte[64 * 1024];
+
+    @Setup(Level.Trial)
+    public void setup() {
+        video = Fixtures.get().webmVideo;
+        audio = Fixtures.get().webmAudio;
+
+        videoStream = new MemoryStream(video.data);
+        audioStream = new MemoryStream(audio.data);
+        output = new MemoryStream(video.data.length + audio.data.length + 1024 * 1024);
+    }
+
+    @Benchmark
+    public long demux(final Throughput throughput, final Memory memory) throws IOException {
+        memory.begin();
+
+        videoStream.rewind();
+
+        final WebMReader reader = new WebMReader(videoStream);
+        reader.parse();
+        reader.selectTrack(0);
+
+        long read = 0;
+        Segment segment;
+        while ((segment = reader.getNextSegment()) != null) {
+            Cluster cluster;
+            while ((cluster = segment.getNextCluster()) != null) {
+                SimpleBlock block;
+                while ((block = cluster.getNextSimpleBlock()) != null) {
+                    int count;
+                    while ((count = block.data.read(blockBuffer)) > 0) {
+                        read += count;
+                    }
+                }
+            }
+        }
+
+        memory.end(video.samples);
+        throughput.add(video);
+
+        return read;
+    }
+
+    @Benchmark
+    public void mux(final Throughput throughput, final Memory memory) throws IOException {
+        mux(throughput, memory, false);
+    }
+
+    /**
+     * The sources are parsed in their own threads, the allocations of those threads are not
+     * measured
+     */
+    @Benchmark
+    public void muxParallel(final Throughput throughput, final Memory memory) throws IOException {
+        mux(throughput, memory, true);
+    }
+
+    private void mux(final Throughput throughput, final Memory memory, final boolean parallel)
+            throws IOException {
+        memory.begin();
+
+        videoStream.rewind();
+        audioStream.rewind();
+        output.reset();
+
+        final WebMWriter muxer = new WebMWriter(videoStream, audioStream);
+        muxer.parseSources();
+        muxer.selectTracks(0, 0);
+        muxer.setParallelDemux(parallel);
+        muxer.build(output);
+
+        memory.end(video.samples + audio.samples);
+        throughput.add(video);
+        throughput.add(audio);
+    }
+
+    @Benchmark
+    public void oggFromWebM(final Throughput throughput, final Memory memory)
+            throws IOException {
+        memory.begin();
+
+        audioStream.rewind();
+        output.reset();
+
+        final OggFromWebMWriter demuxer = new OggFromWebMWriter(audioStream, output);
+        demuxer.parseSource();
+        demuxer.selectTrack(0);
+        demuxer.build();
+
+        memory.end(audio.samples);
+        throughput.add(audio);
+    }
+}